@@ -1,7 +1,17 @@
 package com.embeddedmicro.driver;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import org.openpnp.gui.support.Wizard;
 import org.openpnp.machine.openbuilds.OpenBuildsDriver;
+import org.openpnp.machine.reference.ActuatorMacro;
 import org.openpnp.machine.reference.ReferenceActuator;
 import org.openpnp.machine.reference.ReferenceHead;
 import org.simpleframework.xml.Attribute;
@@ -47,6 +57,11 @@ public class EmbeddedMicroDriver extends OpenBuildsDriver {
 	protected int currentSettings;
 	protected int cartPosition;
 
+	// Every command to the addon board runs on this thread, so commands from
+	// the job, the pre-feed thread and the GUI never interleave on the port.
+	private ExecutorService addonExecutor;
+	private volatile Thread addonThread;
+
 	@Override
 	public void home(ReferenceHead head) throws Exception {
 		// We "home" Z by turning off the steppers, allowing the
@@ -59,22 +74,25 @@ public class EmbeddedMicroDriver extends OpenBuildsDriver {
 
 		super.home(head);
 
-		enableCart(true);
-		enableServo(true);
+		callAddon(() -> {
+			enableCart(true);
+			enableServo(true);
 
-		int oldDelay = read(CART_DELAY);
-		write(SERVO_POS, SERVO_MAX); // lift servo
-		write(CART_DELAY, 0x10000);
-		write(CART_STEPS, Integer.MIN_VALUE); // move left
-		waitCart();
-		write(CART_STEPS, 100);
-		waitCart();
-		
-		write(CART_DELAY, 0x40000);
-		write(CART_STEPS, -400);
-		waitCart();
-		write(CART_DELAY, oldDelay);
-		cartPosition = 0;
+			int oldDelay = read(CART_DELAY);
+			write(SERVO_POS, SERVO_MAX); // lift servo
+			write(CART_DELAY, 0x10000);
+			write(CART_STEPS, Integer.MIN_VALUE); // move left
+			waitCart();
+			write(CART_STEPS, 100);
+			waitCart();
+
+			write(CART_DELAY, 0x40000);
+			write(CART_STEPS, -400);
+			waitCart();
+			write(CART_DELAY, oldDelay);
+			cartPosition = 0;
+			return null;
+		});
 	}
 
 	private void waitCart() throws SerialPortException, SerialPortTimeoutException {
@@ -106,29 +124,179 @@ public class EmbeddedMicroDriver extends OpenBuildsDriver {
 		super.actuate(actuator, on);
 		String name = actuator.getName();
 		if (name.equals(cartActuatorName))
-			enableCart(on);
+			callAddon(() -> { enableCart(on); return null; });
 		else if (name.equals(wheelActuatorName))
-			enableWheel(on);
+			callAddon(() -> { enableWheel(on); return null; });
 		else if (name.equals(servoActuatorName))
-			enableServo(on);
+			callAddon(() -> { enableServo(on); return null; });
 	}
 
 	@Override
 	public void actuate(ReferenceActuator actuator, double value) throws Exception {
 		super.actuate(actuator, value);
 		String name = actuator.getName();
-		if (name.equals(cartActuatorName)) {
-			System.out.println("Writing to cart " + (int) (value - cartPosition));
-			write(CART_STEPS, (int) (value - cartPosition));
-			waitCart();
-			cartPosition = (int) value;
-		} else if (name.equals(wheelActuatorName)) {
-			write(WHEEL_STEPS, (int) (value * stepsPerMm));
-			waitWheel();
-		} else if (name.equals(servoActuatorName)) {
-			int servoPos = (int) (value * (SERVO_MAX - SERVO_MIN) + SERVO_MIN);
-			write(SERVO_POS, (int) Math.max(SERVO_MIN, Math.min(SERVO_MAX, servoPos)));
+		if (name.equals(cartActuatorName))
+			callAddon(() -> { moveCart(value); return null; });
+		else if (name.equals(wheelActuatorName))
+			callAddon(() -> { moveWheel(value); return null; });
+		else if (name.equals(servoActuatorName))
+			callAddon(() -> { moveServo(value); return null; });
+	}
+
+	/**
+	 * Queues the whole macro on the addon port. Steps for the cart, wheel and
+	 * servo become addon board commands. Other Actuators are called from the
+	 * addon port's thread, in order with the rest.
+	 */
+	@Override
+	public Future<Void> actuate(ActuatorMacro macro) throws Exception {
+		AddonMacro addonMacro = createAddonMacro();
+		for (ActuatorMacro.Step step : macro.getSteps()) {
+			if (step.getType() == ActuatorMacro.Type.Delay) {
+				addonMacro.delay(step.getMilliseconds());
+				continue;
+			}
+			String name = step.getActuator().getName();
+			boolean on = step.isOn();
+			double value = step.getValue();
+			if (step.getType() == ActuatorMacro.Type.Boolean && name.equals(cartActuatorName))
+				addonMacro.step(() -> enableCart(on));
+			else if (step.getType() == ActuatorMacro.Type.Boolean && name.equals(wheelActuatorName))
+				addonMacro.wheel(on);
+			else if (step.getType() == ActuatorMacro.Type.Boolean && name.equals(servoActuatorName))
+				addonMacro.step(() -> enableServo(on));
+			else if (step.getType() == ActuatorMacro.Type.Double && name.equals(cartActuatorName))
+				addonMacro.cart(value);
+			else if (step.getType() == ActuatorMacro.Type.Double && name.equals(wheelActuatorName))
+				addonMacro.feed(value);
+			else if (step.getType() == ActuatorMacro.Type.Double && name.equals(servoActuatorName))
+				addonMacro.servo(value);
+			else
+				addonMacro.step(step::run);
 		}
+		return addonMacro.submit();
+	}
+
+	/**
+	 * Returns a new, empty AddonMacro. Steps added to it run in order on the
+	 * addon port's thread once it is submitted.
+	 */
+	public AddonMacro createAddonMacro() {
+		return new AddonMacro();
+	}
+
+	/**
+	 * A sequence of addon board commands that runs on the addon port's own
+	 * thread, so the feeder can work while the head moves on the main port.
+	 * Each step finishes before the next one starts: cart and wheel moves
+	 * wait until the board reports them done, and delay steps give the
+	 * servo, which reports nothing, time to get where it was sent.
+	 */
+	public class AddonMacro {
+		private final List<AddonStep> steps = new ArrayList<>();
+
+		private AddonMacro() {
+		}
+
+		/**
+		 * Moves the servo to position, from 0 (down) to 1 (lifted).
+		 */
+		public AddonMacro servo(double position) {
+			steps.add(() -> moveServo(position));
+			return this;
+		}
+
+		/**
+		 * Moves the cart to the given step position and waits for it to
+		 * get there.
+		 */
+		public AddonMacro cart(double position) {
+			steps.add(() -> moveCart(position));
+			return this;
+		}
+
+		public AddonMacro wheel(boolean enabled) {
+			steps.add(() -> enableWheel(enabled));
+			return this;
+		}
+
+		/**
+		 * Turns the wheel by the given distance in mm and waits for it to
+		 * stop.
+		 */
+		public AddonMacro feed(double mm) {
+			steps.add(() -> moveWheel(mm));
+			return this;
+		}
+
+		public AddonMacro delay(long milliseconds) {
+			steps.add(() -> Thread.sleep(milliseconds));
+			return this;
+		}
+
+		private AddonMacro step(AddonStep step) {
+			steps.add(step);
+			return this;
+		}
+
+		/**
+		 * Queues the macro behind any others already submitted and returns a
+		 * Future that completes when its last step has. If a step fails the
+		 * rest are skipped and the Future completes with the failure.
+		 */
+		public Future<Void> submit() throws Exception {
+			return getAddonExecutor().submit(() -> {
+				for (AddonStep step : steps) {
+					step.run();
+				}
+				return null;
+			});
+		}
+	}
+
+	private interface AddonStep {
+		void run() throws Exception;
+	}
+
+	private synchronized ExecutorService getAddonExecutor() throws Exception {
+		if (addonExecutor == null) {
+			throw new Exception("Addon port " + addonPortName + " is not connected.");
+		}
+		return addonExecutor;
+	}
+
+	/**
+	 * Runs callable on the addon port's thread and waits for it to finish.
+	 */
+	private <T> T callAddon(Callable<T> callable) throws Exception {
+		if (Thread.currentThread() == addonThread) {
+			return callable.call();
+		}
+		try {
+			return getAddonExecutor().submit(callable).get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private void moveCart(double position) throws SerialPortException, SerialPortTimeoutException {
+		logger.debug("Writing to cart {}", (int) (position - cartPosition));
+		write(CART_STEPS, (int) (position - cartPosition));
+		waitCart();
+		cartPosition = (int) position;
+	}
+
+	private void moveWheel(double mm) throws SerialPortException, SerialPortTimeoutException {
+		write(WHEEL_STEPS, (int) (mm * stepsPerMm));
+		waitWheel();
+	}
+
+	private void moveServo(double position) throws SerialPortException {
+		int servoPos = (int) (position * (SERVO_MAX - SERVO_MIN) + SERVO_MIN);
+		write(SERVO_POS, (int) Math.max(SERVO_MIN, Math.min(SERVO_MAX, servoPos)));
 	}
 
 	@Override
@@ -176,18 +344,21 @@ public class EmbeddedMicroDriver extends OpenBuildsDriver {
 	public void setEnabled(boolean enabled) throws Exception {
 		super.setEnabled(enabled);
 		if (serialAddonPort != null && serialAddonPort.isOpened())
-			if (enabled) {
-				int wStep = Math.max(stepsToSetting(wheelSteps), 0);
-				int cStep = Math.max(stepsToSetting(cartSteps), 0);
-
-				currentSettings = cStep << 5 | 1 << 4 | wStep << 1 | 1 << 8; // cart motor on, wheel motor off, servo on
-				write(SETTINGS, currentSettings);
-				write(WHEEL_DELAY, 0x28000); // default speed
-				write(CART_DELAY, 0x2000);
-				write(SERVO_POS, SERVO_MAX); // lift wheel
-			} else {
-				write(SETTINGS, 0); // turn off motors
-			}
+			callAddon(() -> {
+				if (enabled) {
+					int wStep = Math.max(stepsToSetting(wheelSteps), 0);
+					int cStep = Math.max(stepsToSetting(cartSteps), 0);
+
+					currentSettings = cStep << 5 | 1 << 4 | wStep << 1 | 1 << 8; // cart motor on, wheel motor off, servo on
+					write(SETTINGS, currentSettings);
+					write(WHEEL_DELAY, 0x28000); // default speed
+					write(CART_DELAY, 0x2000);
+					write(SERVO_POS, SERVO_MAX); // lift wheel
+				} else {
+					write(SETTINGS, 0); // turn off motors
+				}
+				return null;
+			});
 	}
 
 	public synchronized void addonConnect() throws Exception {
@@ -197,9 +368,26 @@ public class EmbeddedMicroDriver extends OpenBuildsDriver {
 		serialAddonPort.setParams(addonBaud, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
 		serialAddonPort.readBytes(); // flush read cache
 
+		addonExecutor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "EmbeddedMicroDriver addon port");
+			thread.setDaemon(true);
+			addonThread = thread;
+			return thread;
+		});
 	}
 
 	public synchronized void addonDisconnect() {
+		if (addonExecutor != null) {
+			// Let queued macros finish before the motors are turned off.
+			addonExecutor.shutdown();
+			try {
+				addonExecutor.awaitTermination(30, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				logger.error("addonDisconnect()", e);
+			}
+			addonExecutor = null;
+			addonThread = null;
+		}
 		if (serialAddonPort != null && serialAddonPort.isOpened()) {
 			try {
 				write(SETTINGS, 0); // turn off motors
@@ -29,6 +29,8 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 
@@ -38,7 +40,9 @@ import javax.swing.Action;
 import org.openpnp.ConfigurationListener;
 import org.openpnp.gui.support.PropertySheetWizardAdapter;
 import org.openpnp.gui.support.Wizard;
+import org.openpnp.machine.reference.ActuatorMacro;
 import org.openpnp.machine.reference.ReferenceFeeder;
+import org.openpnp.machine.reference.ReferenceMachine;
 import org.openpnp.model.Configuration;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
@@ -46,6 +50,7 @@ import org.openpnp.model.Rectangle;
 import org.openpnp.spi.Actuator;
 import org.openpnp.spi.Camera;
 import org.openpnp.spi.Head;
+import org.openpnp.spi.Machine;
 import org.openpnp.spi.Nozzle;
 import org.openpnp.spi.PropertySheetHolder;
 import org.openpnp.spi.VisionProvider;
@@ -102,6 +107,12 @@ public class AutoFeeder extends ReferenceFeeder {
 
 	private double I = 0.0;
 
+	// How long the servo takes to lift the wheel off the tape, and to lower
+	// it onto the tape, and how long the tape takes to settle after a feed.
+	private static final long SERVO_LIFT_MS = 200;
+	private static final long SERVO_LOWER_MS = 250;
+	private static final long WHEEL_SETTLE_MS = 100;
+
 	private static Object actuatorLock = new Object();
 
 	private static class PreFeedJob {
@@ -175,6 +186,7 @@ public class AutoFeeder extends ReferenceFeeder {
 		if (wheelActuator == null || servoActuator == null || cartActuator == null)
 			return;
 
+		Future<Void> done;
 		synchronized (actuatorLock) {
 			double steps = mmPerPart;
 			if (vision.isEnabled() && visionOffset != null) {
@@ -184,19 +196,61 @@ public class AutoFeeder extends ReferenceFeeder {
 			}
 
 			// TODO: use feed speed to adjust speed of the wheel
-			if (steps > 0) { // only if we need to actually move stuff
-				servoActuator.actuate(1.0); // lift servo
-				Thread.sleep(200);
-				cartActuator.actuate(feedLocation.getX());
-				servoActuator.actuate(feedLocation.getZ());
-				Thread.sleep(250);
-				wheelActuator.actuate(true);
-				wheelActuator.actuate(steps);
-				Thread.sleep(100);
-				wheelActuator.actuate(false);
-				servoActuator.actuate(1.0);
+			if (steps <= 0) { // nothing to move
+				return;
 			}
+			// The driver runs the macro after anything already submitted, so
+			// the lock only needs to cover submitting it.
+			done = actuate(createLowerWheelMacro(wheelActuator, servoActuator, cartActuator)
+					.actuate(wheelActuator, steps)
+					.delay(WHEEL_SETTLE_MS)
+					.actuate(wheelActuator, false)
+					.actuate(servoActuator, 1.0));
+		}
+		done.get();
+	}
+
+	/**
+	 * Returns a macro that moves the cart to the feed location and lowers the
+	 * wheel onto the tape, ready to feed.
+	 */
+	private ActuatorMacro createLowerWheelMacro(Actuator wheelActuator, Actuator servoActuator, Actuator cartActuator) {
+		return new ActuatorMacro()
+				.actuate(servoActuator, 1.0) // lift servo
+				.delay(SERVO_LIFT_MS)
+				.actuate(cartActuator, feedLocation.getX())
+				.actuate(servoActuator, feedLocation.getZ())
+				.delay(SERVO_LOWER_MS)
+				.actuate(wheelActuator, true);
+	}
+
+	/**
+	 * Actuates a single actuator while holding actuatorLock, so it doesn't
+	 * land in the middle of another feeder submitting a macro.
+	 */
+	private static void actuate(Actuator actuator, boolean on) throws Exception {
+		synchronized (actuatorLock) {
+			actuator.actuate(on);
+		}
+	}
+
+	private static void actuate(Actuator actuator, double value) throws Exception {
+		synchronized (actuatorLock) {
+			actuator.actuate(value);
+		}
+	}
+
+	/**
+	 * Hands the macro to the machine's driver, which may run it in the
+	 * background. Returns a Future that completes when it has run.
+	 */
+	private Future<Void> actuate(ActuatorMacro macro) throws Exception {
+		Machine machine = Configuration.get().getMachine();
+		if (machine instanceof ReferenceMachine) {
+			return ((ReferenceMachine) machine).getDriver().actuate(macro);
 		}
+		macro.run();
+		return CompletableFuture.completedFuture(null);
 	}
 
 	@Override
@@ -253,42 +307,41 @@ public class AutoFeeder extends ReferenceFeeder {
 			try {
 				updateVision(head, location);
 			} catch (Exception e) {
+				int attempts = 0;
+
+				// Only submitting the macro needs the lock, not waiting for
+				// it or the vision retries below.
+				Future<Void> lowered;
 				synchronized (actuatorLock) {
-					int attempts = 0;
-
-					servoActuator.actuate(1.0); // lift servo
-					Thread.sleep(200);
-					cartActuator.actuate(feedLocation.getX());
-					servoActuator.actuate(feedLocation.getZ());
-					Thread.sleep(250);
-					wheelActuator.actuate(true);
-
-					while (true) {
-						double steps = mmPerPart;
-						if (I > 0)
-							steps += I;
-						wheelActuator.actuate(steps);
-
-						try {
-							getVisionLocation(head, location);
-							I += steps / 4;
-							I = Math.min(Math.abs(I), mmPerPart) * Math.signum(I);
-							break;
-						} catch (Exception e2) {
-							attempts++;
-							if (attempts > 5) {
-								wheelActuator.actuate(false);
-								servoActuator.actuate(1.0);
-								throw e2;
-							}
+					lowered = actuate(createLowerWheelMacro(wheelActuator, servoActuator, cartActuator));
+				}
+				lowered.get();
+
+				while (true) {
+					double steps = mmPerPart;
+					if (I > 0)
+						steps += I;
+					actuate(wheelActuator, steps);
+
+					try {
+						getVisionLocation(head, location);
+						I += steps / 4;
+						I = Math.min(Math.abs(I), mmPerPart) * Math.signum(I);
+						break;
+					} catch (Exception e2) {
+						attempts++;
+						if (attempts > 5) {
+							actuate(wheelActuator, false);
+							actuate(servoActuator, 1.0);
+							throw e2;
 						}
 					}
+				}
 
-					wheelActuator.actuate(false);
-					servoActuator.actuate(1.0);
+				actuate(wheelActuator, false);
+				actuate(servoActuator, 1.0);
 
-					updateVision(head, location);
-				}
+				updateVision(head, location);
 			}
 
 			logger.debug("final visionOffsets " + visionOffset);
@@ -342,10 +395,12 @@ public class AutoFeeder extends ReferenceFeeder {
 
 		Rectangle aoi = getVision().getAreaOfInterest();
 
-		// Perform the template match
+		// Perform the template match. Only the AOI is searched, and the
+		// matches are filtered by part spacing below.
 		logger.debug("Perform template match.");
 
-		List<TemplateMatch> matches = visionProvider.getTemplateMatches(vision.getTemplateImage(), maxRotation, rotationStepSize, visionThreshold, visionCorrelation);
+		List<TemplateMatch> matches = visionProvider.getTemplateMatches(vision.getTemplateImage(), aoi, maxRotation, rotationStepSize, visionThreshold,
+				visionCorrelation);
 
 		System.out.println("Matches: " + matches.size());
 
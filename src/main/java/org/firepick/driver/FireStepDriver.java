@@ -37,6 +37,7 @@ import java.util.concurrent.TimeoutException;
 import javax.swing.Action;
 
 import org.firepick.driver.wizards.FireStepDriverWizard;
+import org.firepick.kinematics.DeltaReachabilityMap;
 import org.firepick.kinematics.RotatableDeltaKinematicsCalculator;
 import org.firepick.model.AngleTriplet;
 import org.firepick.model.RawStepTriplet;
@@ -47,6 +48,8 @@ import org.openpnp.machine.reference.ReferenceHead;
 import org.openpnp.machine.reference.ReferenceHeadMountable;
 import org.openpnp.machine.reference.ReferenceNozzle;
 import org.openpnp.machine.reference.driver.AbstractSerialPortDriver;
+import org.openpnp.machine.reference.driver.PositionCache;
+import org.openpnp.model.Configuration;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
 import org.openpnp.spi.PropertySheetHolder;
@@ -62,6 +65,9 @@ import com.google.gson.JsonSyntaxException;
 public class FireStepDriver extends AbstractSerialPortDriver implements Runnable {
 	private static final Logger logger = LoggerFactory.getLogger(FireStepDriver.class);
 	private static final double minimumRequiredVersion = 1.0;
+	private static final double REACHABILITY_STEP_MM = 5;
+	// Reported positions are rounded to whole steps, and a rotation step is 0.1125 degrees.
+	private static final double POSITION_TOLERANCE = 0.1;
 	
 	// NOTE: This is ignored out because FireStep doesn't use feed rates per se.. it just does everything rather quickly and smoothly.
 	@Attribute
@@ -69,9 +75,24 @@ public class FireStepDriver extends AbstractSerialPortDriver implements Runnable
 	
 	//@Attribute
 	private double nozzleStepsPerDegree =  8.888888888;
+	
+	// Straight line moves are split into segments no longer than this. 0 sends a single joint move, which follows a curve.
+	@Attribute(required=false)
+	private double segmentLengthMm = 5;
+	
+	@Attribute(required=false)
+	private int maxSegmentsPerCommand = 16;
+	
+	// How often to ask FireStep where the motors are while it's idle, so drift can be detected. 0 disables.
+	@Attribute(required=false)
+	private long positionPollIntervalMs = 1000;
+	
+	private double[] segmentPoints = new double[0];
+	private int[] segmentSteps = new int[0];
 	private boolean nozzleEnabled = false;
 	private boolean powerSupplyOn = false;
 	private RotatableDeltaKinematicsCalculator deltaCalc = new RotatableDeltaKinematicsCalculator();
+	private DeltaReachabilityMap reachabilityMap;
 	
 	private double x, y, z, c;
 	private Thread readerThread;
@@ -80,6 +101,9 @@ public class FireStepDriver extends AbstractSerialPortDriver implements Runnable
 	private boolean connected;
 	private String connectedVersion;
 	private Queue<String> responseQueue = new ConcurrentLinkedQueue<>();
+	private final PositionCache positionCache = new PositionCache("FireStep");
+	private volatile long lastCommandNanos;
+	private final JsonParser parser = new JsonParser();
 	
 	@Override
 	public void setEnabled(boolean enabled) throws Exception {
@@ -139,12 +163,13 @@ public class FireStepDriver extends AbstractSerialPortDriver implements Runnable
 		x = homLoc.getX();
 		y = homLoc.getY();
 		z = homLoc.getZ();
+		positionCache.reset(new Location(LengthUnit.Millimeters, x, y, z, c));
 		//TODO: Fire off head event to get the DRO to update to the new values
 	}
 	
 	@Override
 	public Location getLocation(ReferenceHeadMountable hm) {
-		//TODO: Request raw step positions from FireStep, do forward delta kinematics, throw exception if they don't match this class's Cartesian pos.
+		// FireStep is asked for its raw step positions in the background, see queryPosition().
 		return new Location(LengthUnit.Millimeters, x, y, z, c).add(hm.getHeadOffsets());
 	}
 	
@@ -155,6 +180,29 @@ public class FireStepDriver extends AbstractSerialPortDriver implements Runnable
 	    // TODO Auto-generated method stub
 	}
 	
+	@Override
+	public boolean isReachable(ReferenceHeadMountable hm, Location location) {
+	    location = location.subtract(hm.getHeadOffsets());
+	    location = location.convertToUnits(LengthUnit.Millimeters);
+	    double px = Double.isNaN(location.getX()) ? x : location.getX();
+	    double py = Double.isNaN(location.getY()) ? y : location.getY();
+	    double pz = Double.isNaN(location.getZ()) ? z : location.getZ();
+	    return getReachabilityMap().isReachable(px, py, pz);
+	}
+	
+	private synchronized DeltaReachabilityMap getReachabilityMap() {
+	    if (reachabilityMap == null) {
+	        Configuration configuration = Configuration.get();
+	        if (configuration == null) {
+	            reachabilityMap = DeltaReachabilityMap.build(deltaCalc, REACHABILITY_STEP_MM);
+	        }
+	        else {
+	            reachabilityMap = DeltaReachabilityMap.load(deltaCalc, REACHABILITY_STEP_MM, configuration.getConfigurationDirectory());
+	        }
+	    }
+	    return reachabilityMap;
+	}
+	
 	@Override
 	public void moveTo(ReferenceHeadMountable hm, Location location, double speed)
 			throws Exception {
@@ -162,7 +210,6 @@ public class FireStepDriver extends AbstractSerialPortDriver implements Runnable
 	    location = location.convertToUnits(LengthUnit.Millimeters);
 	    
 	    int rotSteps = 0;
-	    RawStepTriplet rs = new RawStepTriplet(0,0,0);
 	    boolean moveXyz = false;
 	    boolean moveRot = false;
 	    
@@ -181,15 +228,7 @@ public class FireStepDriver extends AbstractSerialPortDriver implements Runnable
 	    Location currentLoc = new Location(LengthUnit.Millimeters, x, y, z, 0);
 	    if (Math.abs(location.getXyzDistanceTo(currentLoc)) >= 0.01) {
 	    	moveXyz = true;
-		    logger.debug(String.format("moveTo Cartesian: X: %.3f, Y: %.3f, Z: %.3f",location.getX(), location.getY(),location.getZ() ));
-		    
-		    // Calculate delta kinematics (returns angles)
-		    AngleTriplet angles = deltaCalc.calculateDelta(location);
-		    logger.debug(String.format("moveTo Delta: X: %.3f, Y: %.3f, Z: %.3f",angles.x, angles.y,angles.z ));
-		    
-		    // Convert angles into raw steps
-		    rs = deltaCalc.getRawSteps(angles);
-		    logger.debug(String.format("moveTo RawSteps: X: %d, Y: %d, Z: %d",rs.x, rs.y,rs.z ));
+		    logger.debug("moveTo Cartesian: {}", location);
 	    }
 	    
 	    
@@ -201,16 +240,18 @@ public class FireStepDriver extends AbstractSerialPortDriver implements Runnable
 
 	    int rawFeedrate = 12800; //12800 is FireStep's default feedrate
 	    rawFeedrate = (int)((double)rawFeedrate * speed); //Multiply rawFeedrate by speed, which should be 0 to 1
+	    if (moveXyz || moveRot) {
+	    	positionCache.moveStarted();
+	    }
 	    if (moveXyz){
 	    	if (moveRot){ // Cartesian move with rotation.  Feedrate is (TBD)
 	    		logger.debug(String.format("moveTo: Cartesian move with rotation, feedrate=%d steps/second",rawFeedrate));
 	    		setRotMotorEnable(true);
-	    		sendJsonCommand(String.format("{'mov':{'x':%d,'y':%d,'z':%d, 'a':%d,'mv':%d}}",rs.x, rs.y, rs.z, rotSteps, rawFeedrate), 10000);
 	    	}
 	    	else{         // Cartesian move with no rotation.  Feedrate is just the cartesian feedrate
 	    		logger.debug(String.format("moveTo: Cartesian move, feedrate=%d steps/second",rawFeedrate));
-	    		sendJsonCommand(String.format("{'mov':{'x':%d,'y':%d,'z':%d,'mv':%d}}",rs.x, rs.y, rs.z, rawFeedrate), 10000);
 	    	}
+	    	sendSegmentedMove(location, moveRot, rotSteps, rawFeedrate);
 	    }
 	    else {
 	    	if (moveRot){ // Rotation, no Cartesian move.  Feedrate is just the rotation feedrate
@@ -235,9 +276,63 @@ public class FireStepDriver extends AbstractSerialPortDriver implements Runnable
 	    if (!Double.isNaN(location.getRotation())) {
 	        this.c = location.getRotation();
 	    }
+	    if (moveXyz || moveRot) {
+	    	positionCache.moveFinished(new Location(LengthUnit.Millimeters, x, y, z, c));
+	    }
 	}
 	
 	
+	/**
+	 * Moves the end effector in a straight Cartesian line by splitting the
+	 * move into segments no longer than segmentLengthMm. The inverse
+	 * kinematics for all of the segments are done in one batch and the
+	 * segments are sent as JSON arrays of mov commands, up to
+	 * maxSegmentsPerCommand at a time. Rotation is spread evenly across the
+	 * segments.
+	 */
+	private void sendSegmentedMove(Location location, boolean moveRot, int rotSteps, int rawFeedrate) throws Exception {
+	    double x1 = Double.isNaN(location.getX()) ? x : location.getX();
+	    double y1 = Double.isNaN(location.getY()) ? y : location.getY();
+	    double z1 = Double.isNaN(location.getZ()) ? z : location.getZ();
+	    double distance = Math.sqrt((x1 - x) * (x1 - x) + (y1 - y) * (y1 - y) + (z1 - z) * (z1 - z));
+	    int segments = 1;
+	    if (segmentLengthMm > 0) {
+	        segments = Math.max(1, (int) Math.ceil(distance / segmentLengthMm));
+	    }
+	    if (segmentSteps.length < segments * 3) {
+	        segmentPoints = new double[segments * 3];
+	        segmentSteps = new int[segments * 3];
+	    }
+	    for (int i = 0, j = 0; i < segments; i++, j += 3) {
+	        double t = (double) (i + 1) / segments;
+	        segmentPoints[j] = x + (x1 - x) * t;
+	        segmentPoints[j + 1] = y + (y1 - y) * t;
+	        segmentPoints[j + 2] = z + (z1 - z) * t;
+	    }
+	    deltaCalc.calculateRawSteps(segmentPoints, segments, segmentSteps);
+	    
+	    int rotStart = (int)(c * nozzleStepsPerDegree + 0.5d);
+	    int perCommand = Math.max(1, maxSegmentsPerCommand);
+	    for (int first = 0; first < segments; first += perCommand) {
+	        int last = Math.min(segments, first + perCommand);
+	        gcode.clear().append('[');
+	        for (int i = first, j = first * 3; i < last; i++, j += 3) {
+	            if (i > first) {
+	                gcode.append(',');
+	            }
+	            gcode.append("{\"mov\":{\"x\":").append(segmentSteps[j])
+	                .append(",\"y\":").append(segmentSteps[j + 1])
+	                .append(",\"z\":").append(segmentSteps[j + 2]);
+	            if (moveRot) {
+	                gcode.append(",\"a\":").append(rotStart + Math.round((rotSteps - rotStart) * (double) (i + 1) / segments));
+	            }
+	            gcode.append(",\"mv\":").append(rawFeedrate).append("}}");
+	        }
+	        gcode.append(']');
+	        processStatusResponses(sendCommand(gcode, 10000));
+	    }
+	}
+	
 	@Override
 	public void pick(ReferenceNozzle nozzle) throws Exception {
 		setRotMotorEnable(true); // Enable the nozzle rotation
@@ -301,9 +396,15 @@ public class FireStepDriver extends AbstractSerialPortDriver implements Runnable
 		sendJsonCommand("{'ape':34}", 100); // Set the enable pin for axis 'a' to tool 4 (this is an ugly hack and should go away)
 		// Turn off the stepper drivers
 		setEnabled(false);
+		
+		positionCache.setTolerance(POSITION_TOLERANCE);
+		if (positionPollIntervalMs > 0) {
+			positionCache.startPolling(positionPollIntervalMs, this::queryPosition);
+		}
 	}
 	
 	public synchronized void disconnect() {
+		positionCache.stopPolling();
 		disconnectRequested = true;
 		connected = false;
 		
@@ -426,23 +527,70 @@ public class FireStepDriver extends AbstractSerialPortDriver implements Runnable
 	}
 	
 	private void sendJsonCommand(String command, long timeout) throws Exception {
+		lastCommandNanos = System.nanoTime();
 		List<String> responses = sendCommand(command.replaceAll("'", "\""), timeout);
+		lastCommandNanos = System.nanoTime();
 		processStatusResponses(responses);
 	}
 	
-	private List<String> sendCommand(String command, long timeout) throws Exception {
+	/**
+	 * Asks FireStep for the raw step positions of motors 1 to 4 and returns
+	 * the Cartesian position they work out to, or null if a command was sent
+	 * within the last poll interval. The poll is only made while the machine
+	 * has been idle, so it never holds up a move by more than one short
+	 * round trip.
+	 */
+	private Location queryPosition() throws Exception {
+		if (!connected || positionCache.isMoving() 
+				|| System.nanoTime() - lastCommandNanos < positionPollIntervalMs * 1000000L) {
+			return null;
+		}
+		List<String> responses;
+		synchronized (commandLock) {
+			// Hold the lock until the responses are drained so they can't
+			// be mixed up with those of a command sent from another thread.
+			responses = sendCommand("{\"mpo\":\"\"}", 100);
+		}
+		for (String response : responses) {
+			if (!response.contains("\"mpo\"")) {
+				continue;
+			}
+			JsonObject mpo = parser.parse(response).getAsJsonObject()
+					.get("r").getAsJsonObject().get("mpo").getAsJsonObject();
+			AngleTriplet angles = new AngleTriplet(
+					deltaCalc.getAngleFromRawSteps(mpo.get("1").getAsInt()),
+					deltaCalc.getAngleFromRawSteps(mpo.get("2").getAsInt()),
+					deltaCalc.getAngleFromRawSteps(mpo.get("3").getAsInt()));
+			Location l = deltaCalc.delta_calcForward(angles);
+			double c = mpo.has("4") ? mpo.get("4").getAsInt() / nozzleStepsPerDegree : Double.NaN;
+			return new Location(LengthUnit.Millimeters, l.getX(), l.getY(), l.getZ(), c);
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the positions commanded and reported by FireStep. While idle,
+	 * FireStep is polled every positionPollIntervalMs and the reply is
+	 * checked against where the driver sent the machine.
+	 */
+	public PositionCache getPositionCache() {
+		return positionCache;
+	}
+	
+	private List<String> sendCommand(CharSequence command, long timeout) throws Exception {
 		synchronized (commandLock) {
 			if (command != null) {
 				logger.debug("sendCommand({}, {})", command, timeout);
-				output.write(command.getBytes());
-				output.write("\n".getBytes());
+				writeLine(command);
 			}
+			long waitStart = metrics.start();
 			if (timeout == -1) {
 				commandLock.wait();
 			}
 			else {
 				commandLock.wait(timeout);
 			}
+			metrics.recordAcknowledgementWait(waitStart);
 		}
 		List<String> responses = drainResponseQueue();
 		return responses;
@@ -512,4 +660,28 @@ public class FireStepDriver extends AbstractSerialPortDriver implements Runnable
 	            new PropertySheetWizardAdapter(getConfigurationWizard())
 	    };
 	}
+	
+	public double getSegmentLengthMm() {
+	    return segmentLengthMm;
+	}
+	
+	public long getPositionPollIntervalMs() {
+	    return positionPollIntervalMs;
+	}
+	
+	public void setPositionPollIntervalMs(long positionPollIntervalMs) {
+	    this.positionPollIntervalMs = positionPollIntervalMs;
+	}
+	
+	public void setSegmentLengthMm(double segmentLengthMm) {
+	    this.segmentLengthMm = segmentLengthMm;
+	}
+	
+	public int getMaxSegmentsPerCommand() {
+	    return maxSegmentsPerCommand;
+	}
+	
+	public void setMaxSegmentsPerCommand(int maxSegmentsPerCommand) {
+	    this.maxSegmentsPerCommand = maxSegmentsPerCommand;
+	}
 }
@@ -0,0 +1,195 @@
+/*
+	Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+
+	This file is part of OpenPnP.
+
+OpenPnP is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+OpenPnP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with OpenPnP.  If not, see <http://www.gnu.org/licenses/>.
+
+	For more information about OpenPnP visit http://openpnp.org
+*/
+
+package org.firepick.kinematics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A precomputed grid of which Cartesian points a rotatable delta can reach.
+ * Each vertex of a regular grid over the workspace records whether the
+ * inverse kinematics have a solution there. A point whose eight surrounding
+ * vertices agree is answered from the grid. A point near the edge of the
+ * workspace, where they don't, is answered with the exact inverse
+ * kinematics. The workspace has no features smaller than the grid, so in
+ * practice the answer is the same as trying the move.
+ *
+ * Building the grid takes a noticeable fraction of a second, so it is cached
+ * on disk under a name derived from the geometry it was built for.
+ */
+public class DeltaReachabilityMap {
+	private static final Logger logger = LoggerFactory.getLogger(DeltaReachabilityMap.class);
+
+	private static final int FILE_VERSION = 1;
+
+	private final RotatableDeltaKinematicsCalculator deltaCalc;
+	private final String geometryKey;
+	private final double step;
+	private final double minX, minY, minZ;
+	private final int nx, ny, nz;
+	private final long[] reachable;
+
+	private DeltaReachabilityMap(RotatableDeltaKinematicsCalculator deltaCalc, double step,
+			double minX, double minY, double minZ, int nx, int ny, int nz, long[] reachable) {
+		this.deltaCalc = deltaCalc;
+		this.geometryKey = deltaCalc.getGeometryKey();
+		this.step = step;
+		this.minX = minX;
+		this.minY = minY;
+		this.minZ = minZ;
+		this.nx = nx;
+		this.ny = ny;
+		this.nz = nz;
+		this.reachable = reachable;
+	}
+
+	/**
+	 * Builds the map for the geometry of deltaCalc with vertices step
+	 * millimeters apart. The grid covers the whole workspace the arms could
+	 * possibly reach.
+	 */
+	public static DeltaReachabilityMap build(RotatableDeltaKinematicsCalculator deltaCalc, double step) {
+		double radius = deltaCalc.getWorkspaceRadius();
+		double minX = -radius, minY = -radius, minZ = deltaCalc.getWorkspaceMinZ();
+		int nx = (int) Math.ceil(2 * radius / step) + 1;
+		int ny = nx;
+		int nz = (int) Math.ceil((deltaCalc.getWorkspaceMaxZ() - minZ) / step) + 1;
+		long[] reachable = new long[(int) (((long) nx * ny * nz + 63) / 64)];
+		int index = 0;
+		for (int k = 0; k < nz; k++) {
+			for (int j = 0; j < ny; j++) {
+				for (int i = 0; i < nx; i++, index++) {
+					if (deltaCalc.isReachable(minX + i * step, minY + j * step, minZ + k * step)) {
+						set(reachable, index);
+					}
+				}
+			}
+		}
+		return new DeltaReachabilityMap(deltaCalc, step, minX, minY, minZ, nx, ny, nz, reachable);
+	}
+
+	/**
+	 * Loads the map for the geometry of deltaCalc from directory, building and
+	 * saving it there if it hasn't been built before. A map that can't be
+	 * saved is still returned.
+	 */
+	public static DeltaReachabilityMap load(RotatableDeltaKinematicsCalculator deltaCalc, double step, File directory) {
+		String key = deltaCalc.getGeometryKey() + ",step=" + step;
+		File file = new File(directory, String.format("delta-reachability-%08x.bin", key.hashCode()));
+		if (file.exists()) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+				if (in.readInt() == FILE_VERSION && in.readUTF().equals(key)) {
+					double minX = in.readDouble(), minY = in.readDouble(), minZ = in.readDouble();
+					int nx = in.readInt(), ny = in.readInt(), nz = in.readInt();
+					long[] reachable = new long[in.readInt()];
+					for (int i = 0; i < reachable.length; i++) {
+						reachable[i] = in.readLong();
+					}
+					return new DeltaReachabilityMap(deltaCalc, step, minX, minY, minZ, nx, ny, nz, reachable);
+				}
+			}
+			catch (IOException e) {
+				logger.warn("Unable to read " + file + ", rebuilding it", e);
+			}
+		}
+
+		long t = System.currentTimeMillis();
+		DeltaReachabilityMap map = build(deltaCalc, step);
+		logger.debug("Built delta reachability map in {} ms", System.currentTimeMillis() - t);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(FILE_VERSION);
+			out.writeUTF(key);
+			out.writeDouble(map.minX);
+			out.writeDouble(map.minY);
+			out.writeDouble(map.minZ);
+			out.writeInt(map.nx);
+			out.writeInt(map.ny);
+			out.writeInt(map.nz);
+			out.writeInt(map.reachable.length);
+			for (long bits : map.reachable) {
+				out.writeLong(bits);
+			}
+		}
+		catch (IOException e) {
+			logger.warn("Unable to save " + file, e);
+		}
+		return map;
+	}
+
+	/**
+	 * Returns true if the end effector can be moved to the given point, in
+	 * millimeters.
+	 */
+	public boolean isReachable(double x, double y, double z) {
+		double fx = (x - minX) / step;
+		double fy = (y - minY) / step;
+		double fz = (z - minZ) / step;
+		if (!(fx >= 0 && fy >= 0 && fz >= 0 && fx < nx - 1 && fy < ny - 1 && fz < nz - 1)) {
+			// Outside the grid, which covers everything the arms can reach,
+			// or NaN.
+			return false;
+		}
+		int i = (int) fx, j = (int) fy, k = (int) fz;
+		int count = 0;
+		for (int dk = 0; dk <= 1; dk++) {
+			for (int dj = 0; dj <= 1; dj++) {
+				for (int di = 0; di <= 1; di++) {
+					if (get(reachable, ((k + dk) * ny + (j + dj)) * nx + (i + di))) {
+						count++;
+					}
+				}
+			}
+		}
+		if (count == 8) {
+			return true;
+		}
+		if (count == 0) {
+			return false;
+		}
+		return deltaCalc.isReachable(x, y, z);
+	}
+
+	/**
+	 * Returns the geometry key of the RotatableDeltaKinematicsCalculator
+	 * this map was built for.
+	 */
+	public String getGeometryKey() {
+		return geometryKey;
+	}
+
+	private static void set(long[] bits, int index) {
+		bits[index >> 6] |= 1L << (index & 63);
+	}
+
+	private static boolean get(long[] bits, int index) {
+		return (bits[index >> 6] & (1L << (index & 63))) != 0;
+	}
+}
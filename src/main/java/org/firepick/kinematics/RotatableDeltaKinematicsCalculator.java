@@ -21,6 +21,8 @@ along with OpenPnP.  If not, see <http://www.gnu.org/licenses/>.
 
 package org.firepick.kinematics;
 
+import java.util.Locale;
+
 import org.firepick.model.AngleTriplet;
 import org.firepick.model.RawStepTriplet;
 import org.openpnp.model.LengthUnit;
@@ -62,6 +64,12 @@ public class RotatableDeltaKinematicsCalculator {
 		return (int)(angle * XYZ_STEPS + 0.5d);
 	}
 	
+	//Return the angle, given raw steps
+	public double getAngleFromRawSteps(int steps)
+	{
+		return steps / XYZ_STEPS;
+	}
+	
 	//Get the raw step home positions for the three axes
 	public RawStepTriplet getHomePosRaw()
 	{
@@ -114,8 +122,90 @@ public class RotatableDeltaKinematicsCalculator {
   	  return solution;
     }
     
+    /**
+     * Batched inverse kinematics. Converts count Cartesian points, packed
+     * as x, y, z triples in points, to raw steps packed the same way in
+     * steps. Does the same math as calculateDelta followed by getRawSteps
+     * but allocates nothing, so it can be run on every segment of a move.
+     * @param points x, y, z of each point, in millimeters.
+     * @param count Number of points to convert.
+     * @param steps Receives the raw steps for the x, y and z arms of each
+     * point. Must hold at least 3 * count ints.
+     * @throws RotatableDeltaKinematicsException if any point can't be
+     * reached. steps is undefined in that case.
+     */
+    public void calculateRawSteps(double[] points, int count, int[] steps) throws RotatableDeltaKinematicsException
+    {
+    	for (int i = 0, j = 0; i < count; i++, j += 3)
+    	{
+    		double rotated_x = -points[j];
+    		double rotated_y = -points[j + 1];
+    		double z_with_offset = points[j + 2] + Z_CALC_OFFSET;
+    		double ax = calculateAngle(rotated_x,                           rotated_y,                         z_with_offset);
+    		double ay = calculateAngle(rotated_x*cos120 + rotated_y*sin120, rotated_y*cos120-rotated_x*sin120, z_with_offset);
+    		double az = calculateAngle(rotated_x*cos120 - rotated_y*sin120, rotated_y*cos120+rotated_x*sin120, z_with_offset);
+    		if (Double.isNaN(ax) || Double.isNaN(ay) || Double.isNaN(az))
+    		{
+    			throw new RotatableDeltaKinematicsException(String.format("Delta calcInverse: Non-existing point for Cartesian location x=%.3f, y=%.3f, z=%.3f, Z_CALC_OFFSET=%.3f", points[j], points[j + 1], points[j + 2], Z_CALC_OFFSET));
+    		}
+    		steps[j] = getRawStepsFromAngle(ax);
+    		steps[j + 1] = getRawStepsFromAngle(ay);
+    		steps[j + 2] = getRawStepsFromAngle(az);
+    	}
+    }
+    
+    /**
+     * Returns true if the end effector can be moved to the given Cartesian
+     * point, in millimeters. Unlike calculateDelta this never throws, so it
+     * is cheap to call on points that may well be out of reach.
+     */
+    public boolean isReachable(double x, double y, double z)
+    {
+    	double rotated_x = -x;
+    	double rotated_y = -y;
+    	double z_with_offset = z + Z_CALC_OFFSET;
+    	return !Double.isNaN(calculateAngle(rotated_x,                           rotated_y,                         z_with_offset))
+    			&& !Double.isNaN(calculateAngle(rotated_x*cos120 + rotated_y*sin120, rotated_y*cos120-rotated_x*sin120, z_with_offset))
+    			&& !Double.isNaN(calculateAngle(rotated_x*cos120 - rotated_y*sin120, rotated_y*cos120+rotated_x*sin120, z_with_offset));
+    }
+    
+    //Radius around the center, in X and Y, outside of which the end effector can't go.
+    public double getWorkspaceRadius()
+    {
+    	return (deltaF - deltaE) * tan30 / 2 + deltaRf + deltaRe;
+    }
+    
+    //Lowest Cartesian Z the end effector could reach, with the arms and rods hanging straight down.
+    public double getWorkspaceMinZ()
+    {
+    	return -(deltaRf + deltaRe) - Z_CALC_OFFSET;
+    }
+    
+    //Highest Cartesian Z the kinematics have a solution for, with the arms and rods pointing straight up.
+    public double getWorkspaceMaxZ()
+    {
+    	return deltaRf + deltaRe - Z_CALC_OFFSET;
+    }
+    
+    //Identifies the geometry these kinematics are calculated for. Anything cached from them should be keyed by this.
+    public String getGeometryKey()
+    {
+    	return String.format(Locale.US, "e=%s,f=%s,re=%s,rf=%s,z=%s,ee=%s,tool=%s",
+    			deltaE, deltaF, deltaRe, deltaRf, DELTA_Z_OFFSET, DELTA_EE_OFFS, TOOL_OFFSET);
+    }
+    
     //Helper function for calculateDelta()
 	private double calculateYZ(double x, double y, double z) throws RotatableDeltaKinematicsException {
+	    double angle = calculateAngle(x, y, z);
+	    if (Double.isNaN(angle))
+	    {
+	        throw new RotatableDeltaKinematicsException("Delta calcInverse: Non-existing point"); // non-existing point
+	    }
+	    return angle;
+	}
+	
+	//Returns the arm angle for a point rotated into the arm's plane, or NaN if the point can't be reached.
+	private double calculateAngle(double x, double y, double z) {
 
   	  double y1 = -0.5 * 0.57735 * deltaF; // f/2 * tg 30
       double y0 = y - (0.5 * 0.57735       * deltaE);    // shift center to edge
@@ -126,7 +216,7 @@ public class RotatableDeltaKinematicsCalculator {
       double d = -(a+b*y1)*(a+b*y1)+deltaRf*(b*b*deltaRf+deltaRf); 
       if (d < 0)
       {
-    	  throw new RotatableDeltaKinematicsException("Delta calcInverse: Non-existing point"); // non-existing point
+    	  return Double.NaN; // non-existing point
       }
       else
       {
@@ -134,8 +224,6 @@ public class RotatableDeltaKinematicsCalculator {
           double zj = a + b*yj;
           return (180.0*Math.atan(-zj/(y1 - yj))/Math.PI + ((yj>y1)?180.0:0.0));
       }
-      //return 0;
-
 	}
 	
 	// forward kinematics: (theta1, theta2, theta3) -> (x0, y0, z0)
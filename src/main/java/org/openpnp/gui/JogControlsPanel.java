@@ -27,6 +27,8 @@ import java.awt.Font;
 import java.awt.Frame;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -37,16 +39,20 @@ import javax.swing.JPanel;
 import javax.swing.JTabbedPane;
 import javax.swing.JToggleButton;
 import javax.swing.SwingConstants;
+import javax.swing.Timer;
 import javax.swing.border.TitledBorder;
 
 import org.openpnp.ConfigurationListener;
 import org.openpnp.gui.support.Icons;
 import org.openpnp.model.Configuration;
 import org.openpnp.model.Length;
+import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
 import org.openpnp.spi.Actuator;
 import org.openpnp.spi.Head;
 import org.openpnp.spi.Machine;
+import org.openpnp.spi.Machine.TaskPriority;
+import org.openpnp.spi.Nozzle;
 import org.openpnp.spi.PasteDispenser;
 import org.openpnp.util.UiUtils;
 
@@ -66,6 +72,24 @@ public class JogControlsPanel extends JPanel {
 	private final MachineControlsPanel machineControlsPanel;
 	private final Frame frame;
 	private final Configuration configuration;
+	
+	/**
+	 * Target of the jog that is queued but hasn't started, or null. Queued
+	 * jogs coalesce, so there is at most one.
+	 */
+	private final AtomicReference<Location> jogTarget = new AtomicReference<>();
+	/**
+	 * Target of the jog whose move is running, or null. Kept until moveTo()
+	 * returns, since the nozzle's location isn't the end of the move until
+	 * then.
+	 */
+	private final AtomicReference<Location> jogInFlight = new AtomicReference<>();
+	private Nozzle jogNozzle;
+	
+	/**
+	 * The continuous jog started by holding down a jog key, or null.
+	 */
+	private ContinuousJog continuousJog;
     private JPanel panelActuators;
     private JPanel panelDispensers;
 
@@ -86,6 +110,9 @@ public class JogControlsPanel extends JPanel {
 	@Override
 	public void setEnabled(boolean enabled) {
 		super.setEnabled(enabled);
+		if (!enabled) {
+		    stopContinuousJog();
+		}
 		xPlusAction.setEnabled(enabled);
 		xMinusAction.setEnabled(enabled);
 		yPlusAction.setEnabled(enabled);
@@ -109,47 +136,163 @@ public class JogControlsPanel extends JPanel {
 	}
 
     private void jog(final int x, final int y, final int z, final int c) {
-        UiUtils.submitUiMachineTask(() -> {
-            Location l = machineControlsPanel.getSelectedNozzle().getLocation().convertToUnits(Configuration.get().getSystemUnits());
-            double xPos = l.getX();
-            double yPos = l.getY();
-            double zPos = l.getZ();
-            double cPos = l.getRotation();
+        final Nozzle nozzle = machineControlsPanel.getSelectedNozzle();
+        // Start from where the jog that is still waiting to run, or else
+        // the one that is moving, will leave the nozzle, so that clicks
+        // faster than the machine can move add up to the full distance.
+        Location l = jogTarget.get();
+        if (l == null) {
+            l = jogInFlight.get();
+        }
+        if (l == null || nozzle != jogNozzle) {
+            l = nozzle.getLocation().convertToUnits(Configuration.get().getSystemUnits());
+        }
+        jogNozzle = nozzle;
+        double xPos = l.getX();
+        double yPos = l.getY();
+        double zPos = l.getZ();
+        double cPos = l.getRotation();
+
+        double jogIncrement = new Length(machineControlsPanel
+                .getJogIncrement(), configuration.getSystemUnits())
+                .getValue();
+
+        if (x > 0) {
+            xPos += jogIncrement;
+        }
+        else if (x < 0) {
+            xPos -= jogIncrement;
+        }
 
-            double jogIncrement = new Length(machineControlsPanel
-                    .getJogIncrement(), configuration.getSystemUnits())
-                    .getValue();
+        if (y > 0) {
+            yPos += jogIncrement;
+        }
+        else if (y < 0) {
+            yPos -= jogIncrement;
+        }
 
-            if (x > 0) {
-                xPos += jogIncrement;
-            }
-            else if (x < 0) {
-                xPos -= jogIncrement;
-            }
+        if (z > 0) {
+            zPos += jogIncrement;
+        }
+        else if (z < 0) {
+            zPos -= jogIncrement;
+        }
 
-            if (y > 0) {
-                yPos += jogIncrement;
-            }
-            else if (y < 0) {
-                yPos -= jogIncrement;
+        if (c > 0) {
+            cPos += jogIncrement;
+        }
+        else if (c < 0) {
+            cPos -= jogIncrement;
+        }
+        
+        jogTarget.set(new Location(l.getUnits(), xPos, yPos, zPos, cPos));
+        UiUtils.submitUiMachineTask(() -> {
+            Location target = jogTarget.get();
+            if (target == null) {
+                return;
             }
-
-            if (z > 0) {
-                zPos += jogIncrement;
+            // Mark it in flight before it stops being queued, so a click in
+            // between still sees it.
+            jogInFlight.set(target);
+            jogTarget.compareAndSet(target, null);
+            try {
+                nozzle.moveTo(target, 1.0);
             }
-            else if (z < 0) {
-                zPos -= jogIncrement;
+            finally {
+                jogInFlight.compareAndSet(target, null);
             }
+        }, TaskPriority.Jog, jogTarget);
+    }
 
-            if (c > 0) {
-                cPos += jogIncrement;
+    /**
+     * Call for every press of a continuous jog key, including auto-repeats.
+     * The first press starts moving the selected nozzle in the given
+     * direction, one jog increment per move, with no round trip through the
+     * GUI between moves. Moving stops on continuousJogReleased(), or if
+     * presses stop arriving without a release.
+     * 
+     * The moves are sent with moveTo(), so how far ahead they run is up to
+     * the driver. Drivers that pipeline moves, such as LinuxCNC with
+     * pipelined moves turned on, keep up to their own limit in flight and
+     * the nozzle runs smoothly, finishing those moves after the release.
+     * Drivers whose moveTo() waits for the move to finish have nothing in
+     * flight, so the nozzle stops at the end of every increment and stops at
+     * most one increment after the release. Use a larger jog increment with
+     * those.
+     */
+    public void continuousJogPressed(int x, int y, int z, int c) {
+        if (continuousJog != null && continuousJog.isDirection(x, y, z, c)) {
+            continuousJog.lastPressMillis = System.currentTimeMillis();
+            continuousJog.releaseTimer.stop();
+            return;
+        }
+        stopContinuousJog();
+        
+        final Nozzle nozzle = machineControlsPanel.getSelectedNozzle();
+        final LengthUnit units = Configuration.get().getSystemUnits();
+        double increment = new Length(machineControlsPanel.getJogIncrement(), units).getValue();
+        final Location step = new Location(units, x * increment, y * increment, z * increment, c * increment);
+        final ContinuousJog jog = new ContinuousJog(x, y, z, c);
+        jog.future = UiUtils.submitUiMachineTask(() -> {
+            Location l = nozzle.getLocation().convertToUnits(units);
+            while (jog.running && System.currentTimeMillis() - jog.lastPressMillis < CONTINUOUS_JOG_TIMEOUT_MILLIS) {
+                l = l.addWithRotation(step);
+                nozzle.moveTo(l, 1.0);
             }
-            else if (c < 0) {
-                cPos -= jogIncrement;
+        }, TaskPriority.Jog, jogTarget);
+        continuousJog = jog;
+    }
+    
+    /**
+     * Call when a continuous jog key is released. Moves already sent finish,
+     * no more are sent.
+     */
+    public void continuousJogReleased() {
+        if (continuousJog != null) {
+            // X11 sends a release before every auto-repeated press, so only
+            // stop if no press follows right away.
+            continuousJog.releaseTimer.restart();
+        }
+    }
+    
+    private void stopContinuousJog() {
+        if (continuousJog != null) {
+            continuousJog.running = false;
+            continuousJog.future.cancel(false);
+            continuousJog.releaseTimer.stop();
+            continuousJog = null;
+        }
+    }
+    
+    private static final int CONTINUOUS_JOG_RELEASE_DELAY_MILLIS = 50;
+    
+    // Key auto-repeat starts within about half a second, so a held key is
+    // never this quiet. Guards against a release that never arrives, for
+    // instance when the window loses focus.
+    private static final long CONTINUOUS_JOG_TIMEOUT_MILLIS = 1000;
+    
+    private class ContinuousJog {
+        final int x, y, z, c;
+        volatile boolean running = true;
+        volatile long lastPressMillis = System.currentTimeMillis();
+        Future<Void> future;
+        final Timer releaseTimer = new Timer(CONTINUOUS_JOG_RELEASE_DELAY_MILLIS, (e) -> {
+            if (continuousJog == this) {
+                stopContinuousJog();
             }
-            
-            machineControlsPanel.getSelectedNozzle().moveTo(new Location(l.getUnits(), xPos, yPos, zPos, cPos), 1.0);
         });
+        
+        ContinuousJog(int x, int y, int z, int c) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.c = c;
+            releaseTimer.setRepeats(false);
+        }
+        
+        boolean isDirection(int x, int y, int z, int c) {
+            return this.x == x && this.y == y && this.z == z && this.c == c;
+        }
     }
 
     private void zero(boolean xy, boolean z, boolean c) {
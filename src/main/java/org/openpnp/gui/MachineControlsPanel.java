@@ -38,6 +38,7 @@ import java.awt.event.MouseEvent;
 import java.util.Hashtable;
 import java.util.Locale;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -67,6 +68,7 @@ import org.openpnp.spi.Head;
 import org.openpnp.spi.HeadMountable;
 import org.openpnp.spi.JobProcessor;
 import org.openpnp.spi.Machine;
+import org.openpnp.spi.Machine.TaskPriority;
 import org.openpnp.spi.MachineListener;
 import org.openpnp.spi.Nozzle;
 import org.openpnp.spi.PasteDispenser;
@@ -486,9 +488,14 @@ public class MachineControlsPanel extends JPanel {
 		@Override
 		public void actionPerformed(ActionEvent arg0) {
 			setEnabled(false);
+			Machine machine = Configuration.get().getMachine();
+			// Drop the queued tasks and interrupt the running one, but
+			// disable the machine on a thread of its own rather than behind
+			// that task, which may be blocked in the driver.
+			machine.submit(() -> null, null, true, TaskPriority.Emergency, null);
 			new Thread(() -> {
 	            try {
-	                Configuration.get().getMachine().setEnabled(false);
+	                machine.setEnabled(false);
 	                setEnabled(true);
 	            }
 	            catch (Exception t) {
@@ -669,11 +676,21 @@ public class MachineControlsPanel extends JPanel {
         }
     };
     
+	/**
+	 * Set while a DRO refresh is waiting on the event thread, so a burst of
+	 * head activity results in a single refresh.
+	 */
+	private final AtomicBoolean droRefreshPending = new AtomicBoolean();
+	
 	private MachineListener machineListener = new MachineListener.Adapter() {
 		@Override
 		public void machineHeadActivity(Machine machine, Head head) {
+		    if (!droRefreshPending.compareAndSet(false, true)) {
+		        return;
+		    }
 			EventQueue.invokeLater(new Runnable() {
 				public void run() {
+				    droRefreshPending.set(false);
 					updateDros();
 				}
 			});
@@ -82,6 +82,8 @@ import org.openpnp.model.LengthUnit;
 import org.openpnp.spi.Camera;
 import org.openpnp.spi.Head;
 import org.openpnp.spi.JobProcessor;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.Machine.TaskPriority;
 
 /**
  * The main window of the application.
@@ -334,13 +336,45 @@ public class MainFrame extends JFrame {
 				mask),
 				machineControlsPanel.showHideJogControlsWindowAction);
 
+		// Holding Ctrl+Shift with a jog key jogs continuously until the key
+		// is released. Values are the X, Y, Z and C directions.
+		final Map<Integer, int[]> continuousJogKeys = new HashMap<>();
+		continuousJogKeys.put(KeyEvent.VK_UP, new int[] { 0, 1, 0, 0 });
+		continuousJogKeys.put(KeyEvent.VK_DOWN, new int[] { 0, -1, 0, 0 });
+		continuousJogKeys.put(KeyEvent.VK_LEFT, new int[] { -1, 0, 0, 0 });
+		continuousJogKeys.put(KeyEvent.VK_RIGHT, new int[] { 1, 0, 0, 0 });
+		continuousJogKeys.put(KeyEvent.VK_QUOTE, new int[] { 0, 0, 1, 0 });
+		continuousJogKeys.put(KeyEvent.VK_SLASH, new int[] { 0, 0, -1, 0 });
+		continuousJogKeys.put(KeyEvent.VK_COMMA, new int[] { 0, 0, 0, 1 });
+		continuousJogKeys.put(KeyEvent.VK_PERIOD, new int[] { 0, 0, 0, -1 });
+		final int continuousJogMask = KeyEvent.CTRL_DOWN_MASK | KeyEvent.SHIFT_DOWN_MASK;
+
 		Toolkit.getDefaultToolkit().getSystemEventQueue()
 				.push(new EventQueue() {
 					@Override
 					protected void dispatchEvent(AWTEvent event) {
 						if (event instanceof KeyEvent) {
+							KeyEvent ke = (KeyEvent) event;
+							JogControlsPanel jogControlsPanel = machineControlsPanel.getJogControlsPanel();
+							if (ke.getID() == KeyEvent.KEY_PRESSED
+									&& ke.getModifiersEx() == continuousJogMask
+									&& continuousJogKeys.containsKey(ke.getKeyCode())) {
+								if (jogControlsPanel.isEnabled()) {
+									int[] d = continuousJogKeys.get(ke.getKeyCode());
+									jogControlsPanel.continuousJogPressed(d[0], d[1], d[2], d[3]);
+								}
+								return;
+							}
+							// The modifiers may be let go first, so any of
+							// these keys ends a continuous jog.
+							if (ke.getID() == KeyEvent.KEY_RELEASED
+									&& (continuousJogKeys.containsKey(ke.getKeyCode())
+											|| ke.getKeyCode() == KeyEvent.VK_SHIFT
+											|| ke.getKeyCode() == KeyEvent.VK_CONTROL)) {
+								jogControlsPanel.continuousJogReleased();
+							}
 							KeyStroke ks = KeyStroke
-									.getKeyStrokeForEvent((KeyEvent) event);
+									.getKeyStrokeForEvent(ke);
 							Action action = hotkeyActionMap.get(ks);
 							if (action != null && action.isEnabled()) {
 								action.actionPerformed(null);
@@ -599,9 +633,13 @@ public class MainFrame extends JFrame {
 		if (!jobPanel.checkForModifications()) {
 			return false;
 		}
-        // Attempt to stop the machine on quit
+        // Attempt to stop the machine on quit. Drop the queued tasks and
+        // interrupt the running one, then disable the machine from here
+        // rather than waiting behind that task.
         try {
-            configuration.getMachine().setEnabled(false);
+            Machine machine = configuration.getMachine();
+            machine.submit(() -> null, null, true, TaskPriority.Emergency, null);
+            machine.setEnabled(false);
         }
         catch (Exception e) {
             e.printStackTrace();
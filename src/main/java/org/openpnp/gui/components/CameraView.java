@@ -65,6 +65,7 @@ import org.openpnp.gui.support.MessageBoxes;
 import org.openpnp.model.Configuration;
 import org.openpnp.model.Location;
 import org.openpnp.spi.Camera;
+import org.openpnp.spi.Machine.TaskPriority;
 import org.openpnp.util.MovableUtils;
 import org.openpnp.util.UiUtils;
 import org.openpnp.util.XmlSerialize;
@@ -1153,10 +1154,11 @@ public class CameraView extends JComponent implements CameraListener {
                 offsetY, 0.0, 0.0);
         // Add the offsets to the Camera's position.
         Location location = camera.getLocation().add(offsets);
-        // And move there.
+        // And move there. A click made before the last one's move started
+        // replaces it.
         UiUtils.submitUiMachineTask(() -> {
             MovableUtils.moveToLocationAtSafeZ(camera, location, 1.0);
-        });
+        }, TaskPriority.Ui, camera);
 	}
 	
 	private void beginSelection(MouseEvent e) {
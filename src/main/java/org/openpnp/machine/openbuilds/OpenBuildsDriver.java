@@ -17,6 +17,7 @@ import org.openpnp.machine.reference.ReferenceHead;
 import org.openpnp.machine.reference.ReferenceHeadMountable;
 import org.openpnp.machine.reference.ReferenceNozzle;
 import org.openpnp.machine.reference.driver.AbstractSerialPortDriver;
+import org.openpnp.machine.reference.driver.DriverMetrics;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
 import org.openpnp.spi.PropertySheetHolder;
@@ -165,13 +166,13 @@ public class OpenBuildsDriver extends AbstractSerialPortDriver implements Runnab
             z = Double.NaN;
         }
         
-        StringBuffer sb = new StringBuffer();
+        int start = gcode.clear().append("G0 ").length();
         if (!Double.isNaN(x) && x != this.x) {
-            sb.append(String.format(Locale.US, "X%2.2f ", x));
+            gcode.appendWord('X', x, 2).append(' ');
             this.x = x;
         }
         if (!Double.isNaN(y) && y != this.y) {
-            sb.append(String.format(Locale.US, "Y%2.2f ", y));
+            gcode.appendWord('Y', y, 2).append(' ');
             this.y = y;
         }
         int tool = (nozzle == null || nozzle.getName().equals("N1")) ? 0 : 1;
@@ -179,7 +180,7 @@ public class OpenBuildsDriver extends AbstractSerialPortDriver implements Runnab
         	// If there is an E move we need to set the tool before
         	// performing any commands otherwise we may move the wrong tool.
         	sendCommand(String.format(Locale.US, "T%d", tool));
-            if (sb.length() == 0) {
+            if (gcode.length() == start) {
                 // If the move won't contain an X or Y component but will
                 // have an E component we need to send the E component as a
                 // solo move because Smoothie won't move only E and Z at
@@ -188,7 +189,7 @@ public class OpenBuildsDriver extends AbstractSerialPortDriver implements Runnab
                 dwell();
             }
             else {
-                sb.append(String.format(Locale.US, "E%2.2f ", c));
+                gcode.appendWord('E', c, 2).append(' ');
             }
             if (tool == 0) {
             	this.c = c;
@@ -205,14 +206,14 @@ public class OpenBuildsDriver extends AbstractSerialPortDriver implements Runnab
                 a = -a;
             }
             if (a != this.zA) {
-                sb.append(String.format(Locale.US, "Z%2.2f ", a));
+                gcode.appendWord('Z', a, 2).append(' ');
                 this.zA = a;
             }
         }
         
-        if (sb.length() > 0) {
-            sb.append(String.format(Locale.US, "F%2.2f", feedRateMmPerMinute));
-            sendCommand("G0 " + sb.toString());
+        if (gcode.length() > start) {
+            gcode.appendWord('F', feedRateMmPerMinute, 2);
+            sendCommand(gcode);
             dwell();
         }
     }
@@ -387,11 +388,11 @@ public class OpenBuildsDriver extends AbstractSerialPortDriver implements Runnab
         disconnectRequested = false;
     }
 
-    protected List<String> sendCommand(String command) throws Exception {
+    protected List<String> sendCommand(CharSequence command) throws Exception {
         return sendCommand(command, 5000);
     }
     
-    protected List<String> sendCommand(String command, long timeout) throws Exception {
+    protected List<String> sendCommand(CharSequence command, long timeout) throws Exception {
         List<String> responses = new ArrayList<>();
         
         // Read any responses that might be queued up so that when we wait
@@ -401,12 +402,12 @@ public class OpenBuildsDriver extends AbstractSerialPortDriver implements Runnab
         // Send the command, if one was specified
         if (command != null) {
             logger.debug("sendCommand({}, {})", command, timeout);
-            logger.debug(">> " + command);
-            output.write(command.getBytes());
-            output.write("\n".getBytes());
+            logger.debug(">> {}", command);
+            writeLine(command);
         }
 
         String response = null;
+        long waitStart = metrics.start();
         if (timeout == -1) {
             // Wait forever for a response to return from the reader.
             response = responseQueue.take();
@@ -419,6 +420,7 @@ public class OpenBuildsDriver extends AbstractSerialPortDriver implements Runnab
                 throw new Exception("Timeout waiting for response to " + command);
             }
         }
+        metrics.recordAcknowledgementWait(waitStart);
         // And if we got one, add it to the list of responses we'll return.
         responses.add(response);
         
@@ -459,7 +461,9 @@ public class OpenBuildsDriver extends AbstractSerialPortDriver implements Runnab
      * @throws Exception
      */
     protected void dwell() throws Exception {
+        long t = metrics.start();
         sendCommand("M400");
+        metrics.record(DriverMetrics.Command.Dwell, t);
     }
 
     private List<String> drainResponseQueue() {
@@ -0,0 +1,156 @@
+/*
+ 	Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+ 	
+ 	This file is part of OpenPnP.
+ 	
+	OpenPnP is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    OpenPnP is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with OpenPnP.  If not, see <http://www.gnu.org/licenses/>.
+ 	
+ 	For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.machine.reference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.openpnp.spi.Actuator;
+
+/**
+ * An ordered list of Actuator steps and delays that a ReferenceDriver runs
+ * as one unit. See ReferenceDriver.actuate(ActuatorMacro). Feeders that need
+ * several Actuators to move in sequence build one of these instead of
+ * calling each Actuator in turn, so that a driver that can queue or batch
+ * the steps gets the whole sequence at once.
+ */
+public class ActuatorMacro {
+    public enum Type {
+        Boolean,
+        Double,
+        Delay
+    }
+
+    public static class Step {
+        private final Type type;
+        private final Actuator actuator;
+        private final boolean on;
+        private final double value;
+        private final long milliseconds;
+
+        private Step(Type type, Actuator actuator, boolean on, double value, long milliseconds) {
+            this.type = type;
+            this.actuator = actuator;
+            this.on = on;
+            this.value = value;
+            this.milliseconds = milliseconds;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * Returns the Actuator for Boolean and Double steps, or null for
+         * Delay steps.
+         * @return
+         */
+        public Actuator getActuator() {
+            return actuator;
+        }
+
+        public boolean isOn() {
+            return on;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public long getMilliseconds() {
+            return milliseconds;
+        }
+
+        /**
+         * Performs the step by calling the Actuator, or sleeping.
+         * @throws Exception
+         */
+        public void run() throws Exception {
+            switch (type) {
+                case Boolean:
+                    actuator.actuate(on);
+                    break;
+                case Double:
+                    actuator.actuate(value);
+                    break;
+                case Delay:
+                    Thread.sleep(milliseconds);
+                    break;
+            }
+        }
+
+        @Override
+        public String toString() {
+            switch (type) {
+                case Boolean:
+                    return actuator.getName() + "=" + on;
+                case Double:
+                    return actuator.getName() + "=" + value;
+                default:
+                    return "delay " + milliseconds + "ms";
+            }
+        }
+    }
+
+    private final List<Step> steps = new ArrayList<>();
+
+    public ActuatorMacro actuate(Actuator actuator, boolean on) {
+        steps.add(new Step(Type.Boolean, actuator, on, 0, 0));
+        return this;
+    }
+
+    public ActuatorMacro actuate(Actuator actuator, double value) {
+        steps.add(new Step(Type.Double, actuator, false, value, 0));
+        return this;
+    }
+
+    /**
+     * Waits for the given time before the next step, for Actuators that
+     * can't tell when they have finished moving.
+     * @param milliseconds
+     * @return
+     */
+    public ActuatorMacro delay(long milliseconds) {
+        steps.add(new Step(Type.Delay, null, false, 0, milliseconds));
+        return this;
+    }
+
+    public List<Step> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * Runs each step in order on the calling thread.
+     * @throws Exception
+     */
+    public void run() throws Exception {
+        for (Step step : steps) {
+            step.run();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return steps.toString();
+    }
+}
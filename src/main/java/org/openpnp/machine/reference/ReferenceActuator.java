@@ -26,6 +26,7 @@ import javax.swing.Action;
 import org.openpnp.ConfigurationListener;
 import org.openpnp.gui.support.PropertySheetWizardAdapter;
 import org.openpnp.gui.support.Wizard;
+import org.openpnp.machine.reference.driver.DriverMetrics;
 import org.openpnp.machine.reference.wizards.ReferenceActuatorConfigurationWizard;
 import org.openpnp.model.Configuration;
 import org.openpnp.model.Length;
@@ -82,7 +83,10 @@ public class ReferenceActuator extends AbstractActuator implements ReferenceHead
 	@Override
 	public void actuate(boolean on) throws Exception {
 		logger.debug("{}.actuate({})", new Object[] { getName(), on } );
+		DriverMetrics metrics = driver.getMetrics();
+		long t = metrics.start();
 		driver.actuate(this, on);
+		metrics.record(DriverMetrics.Command.Actuate, t);
 		machine.fireMachineHeadActivity(head);
 	}
 	
@@ -94,14 +98,20 @@ public class ReferenceActuator extends AbstractActuator implements ReferenceHead
     @Override
     public void actuate(double value) throws Exception {
 		logger.debug("{}.actuate({})", new Object[] { getName(), value } );
+		DriverMetrics metrics = driver.getMetrics();
+		long t = metrics.start();
 		driver.actuate(this, value);
+		metrics.record(DriverMetrics.Command.Actuate, t);
         machine.fireMachineHeadActivity(head);
     }
 
     @Override
     public void moveTo(Location location, double speed) throws Exception {
 		logger.debug("{}.moveTo({}, {})", new Object[] { getName(), location, speed } );
+		DriverMetrics metrics = driver.getMetrics();
+		long t = metrics.start();
 		driver.moveTo(this, location, speed);
+		metrics.record(DriverMetrics.Command.Move, t);
         machine.fireMachineHeadActivity(head);
     }
 
@@ -111,7 +121,10 @@ public class ReferenceActuator extends AbstractActuator implements ReferenceHead
         Length safeZ = this.safeZ.convertToUnits(getLocation().getUnits());
         Location l = new Location(getLocation().getUnits(), Double.NaN,
                 Double.NaN, safeZ.getValue(), Double.NaN);
+        DriverMetrics metrics = driver.getMetrics();
+        long t = metrics.start();
         driver.moveTo(this, l, speed);
+        metrics.record(DriverMetrics.Command.Move, t);
         machine.fireMachineHeadActivity(head);
     }
 
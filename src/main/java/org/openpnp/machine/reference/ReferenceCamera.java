@@ -27,7 +27,11 @@ import java.awt.image.BufferedImage;
 import java.io.Closeable;
 import java.io.IOException;
 
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
 import org.openpnp.ConfigurationListener;
+import org.openpnp.machine.reference.driver.DriverMetrics;
 import org.openpnp.model.Configuration;
 import org.openpnp.model.Length;
 import org.openpnp.model.LengthUnit;
@@ -90,7 +94,10 @@ public abstract class ReferenceCamera extends AbstractCamera implements Referenc
     @Override
     public void moveTo(Location location, double speed) throws Exception {
         logger.debug("moveTo({}, {})", new Object[] { location, speed } );
+        DriverMetrics metrics = driver.getMetrics();
+        long t = metrics.start();
         driver.moveTo(this, location, speed);
+        metrics.record(DriverMetrics.Command.Move, t);
         machine.fireMachineHeadActivity(head);
     }
 
@@ -100,7 +107,10 @@ public abstract class ReferenceCamera extends AbstractCamera implements Referenc
         Length safeZ = this.safeZ.convertToUnits(getLocation().getUnits());
         Location l = new Location(getLocation().getUnits(), Double.NaN,
                 Double.NaN, safeZ.getValue(), Double.NaN);
+        DriverMetrics metrics = driver.getMetrics();
+        long t = metrics.start();
         driver.moveTo(this, l, speed);
+        metrics.record(DriverMetrics.Command.Move, t);
         machine.fireMachineHeadActivity(head);
     }
     
@@ -145,33 +155,94 @@ public abstract class ReferenceCamera extends AbstractCamera implements Referenc
 	}
 
 	protected BufferedImage transformImage(BufferedImage image) {
-        if (rotation == 0 && !flipX && !flipY && offsetX == 0 && offsetY == 0) {
+        AffineTransform xform = getTransform(image.getWidth(), image.getHeight());
+        if (xform == null) {
             return image;
         }
         
         BufferedImage out = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
         Graphics2D g2d = out.createGraphics();
+        g2d.drawImage(image, xform, null);
+        g2d.dispose();
+        return out;
+    }
+    
+    /**
+     * Same as transformImage() for cameras that capture into a Mat. Returns
+     * mat itself if there is nothing to do, otherwise a new Mat, and mat is
+     * released.
+     * @param mat
+     * @return
+     */
+    protected Mat transformMat(Mat mat) {
+        AffineTransform xform = getMatTransform(mat.cols(), mat.rows());
+        if (xform == null) {
+            return mat;
+        }
+        
+        double[] m = new double[6];
+        xform.getMatrix(m);
+        Mat matrix = new Mat(2, 3, CvType.CV_64F);
+        matrix.put(0, 0, m[0], m[2], m[4], m[1], m[3], m[5]);
+        
+        Mat out = new Mat();
+        Imgproc.warpAffine(mat, out, matrix, mat.size(), Imgproc.INTER_NEAREST);
+        matrix.release();
+        mat.release();
+        return out;
+    }
+    
+    /**
+     * Same as getTransform() but in OpenCV pixel coordinates, for warping a
+     * Mat. Java2D samples at pixel centers and OpenCV at pixel corners, so
+     * the transform is shifted by half a pixel on either side to land on
+     * the same pixels as transformImage().
+     * @param width
+     * @param height
+     * @return
+     */
+    protected AffineTransform getMatTransform(int width, int height) {
+        AffineTransform xform = getTransform(width, height);
+        if (xform == null) {
+            return null;
+        }
+        AffineTransform cvXform = AffineTransform.getTranslateInstance(-0.5, -0.5);
+        cvXform.concatenate(xform);
+        cvXform.translate(0.5, 0.5);
+        return cvXform;
+    }
+    
+    /**
+     * Returns the transform that applies rotation, flip and offset to an
+     * image of the given size, or null if they leave it unchanged.
+     * @param width
+     * @param height
+     * @return
+     */
+    protected AffineTransform getTransform(int width, int height) {
+        if (rotation == 0 && !flipX && !flipY && offsetX == 0 && offsetY == 0) {
+            return null;
+        }
+        
         AffineTransform xform = new AffineTransform();
 
         xform.translate(offsetX, offsetY);
         
         if (flipY) {
             xform.scale(-1, 1); 
-            xform.translate(-image.getWidth(), 0);
+            xform.translate(-width, 0);
         }
         
         if (flipX) {
             xform.scale(1, -1); 
-            xform.translate(0, -image.getHeight());
+            xform.translate(0, -height);
         }
         
         if (rotation != 0) {
-            xform.rotate(Math.toRadians(-rotation), image.getWidth() / 2.0D, image.getHeight() / 2.0D);
+            xform.rotate(Math.toRadians(-rotation), width / 2.0D, height / 2.0D);
         }
         
-        g2d.drawImage(image, xform, null);
-        g2d.dispose();
-        return out;
+        return xform;
     }
 
     @Override
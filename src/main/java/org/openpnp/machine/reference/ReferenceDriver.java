@@ -22,7 +22,10 @@
 package org.openpnp.machine.reference;
 
 import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 
+import org.openpnp.machine.reference.driver.DriverMetrics;
 import org.openpnp.model.Location;
 import org.openpnp.spi.PropertySheetHolder;
 import org.openpnp.spi.WizardConfigurable;
@@ -112,6 +115,35 @@ public interface ReferenceDriver extends WizardConfigurable, PropertySheetHolder
      */
     public void actuate(ReferenceActuator actuator, double value) throws Exception;
 
+    /**
+     * Runs the steps of the ActuatorMacro in order and returns a Future that
+     * completes when the last of them has. Drivers that can queue or batch
+     * actuator commands should return as soon as the macro is queued, so
+     * callers only wait when they need the result. The default runs the
+     * macro on the calling thread before returning.
+     * 
+     * @param macro
+     * @return
+     * @throws Exception
+     */
+    public default Future<Void> actuate(ActuatorMacro macro) throws Exception {
+        macro.run();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Waits until every command the driver has queued so far has finished.
+     * The job processor calls this where the work of one controller has to
+     * be done before another starts, such as a feeder presenting a part
+     * before the nozzle picks it. The default returns straight away, since
+     * most drivers are done with a command when the call that made it
+     * returns.
+     * 
+     * @throws Exception
+     */
+    public default void barrier() throws Exception {
+    }
+
     /**
      * Attempts to enable the Driver, turning on all outputs.
      * 
@@ -121,4 +153,30 @@ public interface ReferenceDriver extends WizardConfigurable, PropertySheetHolder
     public void setEnabled(boolean enabled) throws Exception;
     
     public void dispense(ReferencePasteDispenser dispenser, Location startLocation, Location endLocation, long dispenseTimeMilliseconds) throws Exception;
+    
+    /**
+     * Returns false if the driver knows that it can't move the
+     * ReferenceHeadMountable to the given Location, so that jobs can be
+     * checked before they are started. Drivers for machines without limits
+     * on their reach, or that don't know them, return true.
+     * 
+     * @param hm
+     * @param location
+     * @return
+     */
+    public default boolean isReachable(ReferenceHeadMountable hm, Location location) {
+        return true;
+    }
+
+    /**
+     * Returns the DriverMetrics that commands to and traffic from this
+     * driver are recorded in. The default returns DriverMetrics.SHARED, so
+     * drivers written before metrics existed keep working. Drivers should
+     * override this to return a final DriverMetrics of their own.
+     * 
+     * @return
+     */
+    public default DriverMetrics getMetrics() {
+        return DriverMetrics.SHARED;
+    }
 }
@@ -28,6 +28,7 @@ import javax.swing.Action;
 import org.openpnp.ConfigurationListener;
 import org.openpnp.gui.support.PropertySheetWizardAdapter;
 import org.openpnp.gui.support.Wizard;
+import org.openpnp.machine.reference.driver.DriverMetrics;
 import org.openpnp.machine.reference.wizards.ReferenceHeadConfigurationWizard;
 import org.openpnp.model.Configuration;
 import org.openpnp.spi.PropertySheetHolder;
@@ -57,7 +58,10 @@ public class ReferenceHead extends AbstractHead {
     @Override
     public void home() throws Exception {
 		logger.debug("{}.home()", getName());
+        DriverMetrics metrics = driver.getMetrics();
+        long t = metrics.start();
         driver.home(this);
+        metrics.record(DriverMetrics.Command.Home, t);
         machine.fireMachineHeadActivity(this);
     }
 
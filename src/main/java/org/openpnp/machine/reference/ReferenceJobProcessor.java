@@ -270,6 +270,16 @@ public class ReferenceJobProcessor extends AbstractJobProcessor {
             }
 		}
 		
+		// Let anything still queued on another controller, such as a feeder
+		// macro, finish before the job is reported done.
+		try {
+		    barrier(machine);
+		}
+		catch (Exception e) {
+		    fireJobEncounteredError(JobError.MachineMovementError, e.getMessage());
+		    return;
+		}
+		
 		fireDetailedStatusUpdated("Job complete.");
 		
 		state = JobState.Stopped;
@@ -505,9 +515,23 @@ public class ReferenceJobProcessor extends AbstractJobProcessor {
         // Request that the Feeder feeds the part
         feeder.feed(nozzle);
         
+        // The Feeder may be run by a different controller than the Nozzle,
+        // so make sure it is done presenting the part before picking it.
+        barrier(Configuration.get().getMachine());
+        
         return true;
 	}
 	
+	/**
+	 * Waits for the commands queued on every controller of the machine to
+	 * finish. See ReferenceDriver.barrier().
+	 */
+	private void barrier(Machine machine) throws Exception {
+	    if (machine instanceof ReferenceMachine) {
+	        ((ReferenceMachine) machine).getDriver().barrier();
+	    }
+	}
+	
 	protected boolean pick(Nozzle nozzle, Feeder feeder, BoardLocation bl, Placement placement) {
         // Now that the Feeder has done it's feed operation we can get
         // the pick location from it.
@@ -681,6 +705,7 @@ public class ReferenceJobProcessor extends AbstractJobProcessor {
 	 * 	Look for missing feeders.
 	 * 	Look for feeders that cannot feed the number of parts that
 	 * 		will be needed.
+	 * 	Look for picks, placements and Safe-Z hops the machine can't reach.
 	 * 	Calculate the base Safe-Z for the job.
 	 * 	Calculate the number of parts that need to be placed.
 	 * 	Calculate the total distance that will need to be traveled.
@@ -729,11 +754,56 @@ public class ReferenceJobProcessor extends AbstractJobProcessor {
                     fireJobEncounteredError(JobError.HeadError, "No viable NozzleTips found for Part / Feeder " + part.getId());
                     return;
                 }
-				
+                
+                if (!checkReachable(machine, nozzle, feeder, bl, placement)) {
+                    return;
+                }
 			}
 		}
 	}
 	
+	/**
+	 * Asks the driver whether the nozzle can reach the pick and place
+	 * locations for the placement, and Safe-Z above each of them. Fires
+	 * a job error and returns false if it can't.
+	 */
+	private boolean checkReachable(Machine machine, Nozzle nozzle, Feeder feeder, BoardLocation bl, Placement placement) {
+	    if (!(machine instanceof ReferenceMachine) || !(nozzle instanceof ReferenceNozzle)) {
+	        return true;
+	    }
+	    ReferenceDriver driver = ((ReferenceMachine) machine).getDriver();
+	    ReferenceNozzle referenceNozzle = (ReferenceNozzle) nozzle;
+	    
+	    Location pickLocation;
+	    try {
+	        pickLocation = feeder.getPickLocation();
+	    }
+	    catch (Exception e) {
+	        // Feeders that can't say until they have fed are checked when they
+	        // feed.
+	        pickLocation = null;
+	    }
+	    if (pickLocation != null && !isReachable(driver, referenceNozzle, pickLocation)) {
+	        fireJobEncounteredError(JobError.FeederError, String.format("Pick location %s for Feeder %s is out of reach of %s", pickLocation, feeder.getId(), nozzle.getName()));
+	        return false;
+	    }
+	    
+        Location placementLocation = Utils2D.calculateBoardPlacementLocation(bl, placement.getLocation());
+        Location boardLocation = bl.getLocation().convertToUnits(placementLocation.getUnits());
+        double partHeight = placement.getPart().getHeight().convertToUnits(placementLocation.getUnits()).getValue();
+        placementLocation = placementLocation.derive(null, null, boardLocation.getZ() + partHeight, null);
+        if (!isReachable(driver, referenceNozzle, placementLocation)) {
+            fireJobEncounteredError(JobError.PlaceError, String.format("Placement %s at %s is out of reach of %s", placement.getId(), placementLocation, nozzle.getName()));
+            return false;
+        }
+        return true;
+	}
+	
+	private static boolean isReachable(ReferenceDriver driver, ReferenceNozzle nozzle, Location location) {
+	    Location safeZ = location.derive(null, null, nozzle.getSafeZ().convertToUnits(location.getUnits()).getValue(), null);
+	    return driver.isReachable(nozzle, location) && driver.isReachable(nozzle, safeZ);
+	}
+	
     public boolean isDemoMode() {
         return demoMode;
     }
@@ -47,6 +47,7 @@ import org.openpnp.spi.JobProcessor;
 import org.openpnp.spi.PropertySheetHolder;
 import org.openpnp.spi.base.AbstractMachine;
 import org.openpnp.spi.base.SimplePropertySheetHolder;
+import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.Element;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,6 +60,13 @@ public class ReferenceMachine extends AbstractMachine {
 	@Element(required=false)
 	private ReferenceDriver driver = new NullDriver();
 	
+	/**
+	 * How often to log a summary of the driver's DriverMetrics while the
+	 * machine is enabled. 0 disables the summary.
+	 */
+	@Attribute(required=false)
+	private int driverMetricsLogIntervalSeconds = 300;
+	
 	private boolean enabled;
 	
 	private List<Class<? extends Feeder>> registeredFeederClasses = new ArrayList<>();
@@ -87,6 +95,9 @@ public class ReferenceMachine extends AbstractMachine {
 			try {
 				driver.setEnabled(true);
 				this.enabled = true;
+				driver.getMetrics().startSummaryLog(
+				        driver.getClass().getSimpleName(),
+				        driverMetricsLogIntervalSeconds);
 			}
 			catch (Exception e) {
 				fireMachineEnableFailed(e.getMessage());
@@ -98,6 +109,7 @@ public class ReferenceMachine extends AbstractMachine {
 			try {
 				driver.setEnabled(false);
 				this.enabled = false;
+				driver.getMetrics().stopSummaryLog();
 			}
 			catch (Exception e) {
 				fireMachineDisableFailed(e.getMessage());
@@ -7,6 +7,7 @@ import javax.swing.Action;
 import org.openpnp.ConfigurationListener;
 import org.openpnp.gui.support.PropertySheetWizardAdapter;
 import org.openpnp.gui.support.Wizard;
+import org.openpnp.machine.reference.driver.DriverMetrics;
 import org.openpnp.machine.reference.wizards.ReferenceNozzleConfigurationWizard;
 import org.openpnp.model.Configuration;
 import org.openpnp.model.Length;
@@ -115,7 +116,10 @@ public class ReferenceNozzle extends AbstractNozzle implements
 		if (nozzleTip == null) {
 		    throw new Exception("Can't pick, no nozzle tip loaded");
 		}
+		DriverMetrics metrics = driver.getMetrics();
+		long t = metrics.start();
 		driver.pick(this);
+		metrics.record(DriverMetrics.Command.PickPlace, t);
         machine.fireMachineHeadActivity(head);
         Thread.sleep(pickDwellMilliseconds);
     }
@@ -126,7 +130,10 @@ public class ReferenceNozzle extends AbstractNozzle implements
         if (nozzleTip == null) {
             throw new Exception("Can't place, no nozzle tip loaded");
         }
+		DriverMetrics metrics = driver.getMetrics();
+		long t = metrics.start();
 		driver.place(this);
+		metrics.record(DriverMetrics.Command.PickPlace, t);
         machine.fireMachineHeadActivity(head);
         Thread.sleep(placeDwellMilliseconds);
     }
@@ -142,7 +149,10 @@ public class ReferenceNozzle extends AbstractNozzle implements
                 location = location.derive(null, null, null, location.getRotation() - 360);
             }
         }
+        DriverMetrics metrics = driver.getMetrics();
+        long t = metrics.start();
         driver.moveTo(this, location, speed);
+        metrics.record(DriverMetrics.Command.Move, t);
         machine.fireMachineHeadActivity(head);
     }
 
@@ -152,7 +162,10 @@ public class ReferenceNozzle extends AbstractNozzle implements
         Length safeZ = this.safeZ.convertToUnits(getLocation().getUnits());
         Location l = new Location(getLocation().getUnits(), Double.NaN,
                 Double.NaN, safeZ.getValue(), Double.NaN);
+        DriverMetrics metrics = driver.getMetrics();
+        long t = metrics.start();
         driver.moveTo(this, l, speed);
+        metrics.record(DriverMetrics.Command.Move, t);
         machine.fireMachineHeadActivity(head);
     }
     
@@ -5,6 +5,7 @@ import javax.swing.Action;
 import org.openpnp.ConfigurationListener;
 import org.openpnp.gui.support.PropertySheetWizardAdapter;
 import org.openpnp.gui.support.Wizard;
+import org.openpnp.machine.reference.driver.DriverMetrics;
 import org.openpnp.machine.reference.wizards.ReferencePasteDispenserConfigurationWizard;
 import org.openpnp.model.Configuration;
 import org.openpnp.model.Length;
@@ -63,7 +64,10 @@ public class ReferencePasteDispenser extends AbstractPasteDispenser implements
     @Override
     public void moveTo(Location location, double speed) throws Exception {
         logger.debug("{}.moveTo({}, {})", new Object[] { getName(), location, speed } );
+        DriverMetrics metrics = driver.getMetrics();
+        long t = metrics.start();
         driver.moveTo(this, location, speed);
+        metrics.record(DriverMetrics.Command.Move, t);
         machine.fireMachineHeadActivity(head);
     }
 
@@ -73,7 +77,10 @@ public class ReferencePasteDispenser extends AbstractPasteDispenser implements
         Length safeZ = this.safeZ.convertToUnits(getLocation().getUnits());
         Location l = new Location(getLocation().getUnits(), Double.NaN,
                 Double.NaN, safeZ.getValue(), Double.NaN);
+        DriverMetrics metrics = driver.getMetrics();
+        long t = metrics.start();
         driver.moveTo(this, l, speed);
+        metrics.record(DriverMetrics.Command.Move, t);
         machine.fireMachineHeadActivity(head);
     }
     
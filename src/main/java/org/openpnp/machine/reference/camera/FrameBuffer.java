@@ -0,0 +1,158 @@
+/*
+ 	Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+ 	
+ 	This file is part of OpenPnP.
+ 	
+	OpenPnP is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    OpenPnP is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with OpenPnP.  If not, see <http://www.gnu.org/licenses/>.
+ 	
+ 	For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.machine.reference.camera;
+
+import java.util.function.BooleanSupplier;
+
+import org.opencv.core.Mat;
+
+/**
+ * A ring of the most recent frames from a camera, each stamped with the
+ * time the grabber finished reading it. A grabber thread puts frames in and
+ * any number of threads take copies out, so readers never wait for the
+ * device and never see a frame that is being written.
+ * 
+ * A frame that finished reading after some time may still have been
+ * exposed before it, because the read was already under way. The frame
+ * after it was read entirely after that time, so getAfter() skips one
+ * frame to be sure.
+ * 
+ * Timestamps are System.currentTimeMillis() values.
+ */
+public class FrameBuffer {
+    static {
+        nu.pattern.OpenCV.loadShared();
+        System.loadLibrary(org.opencv.core.Core.NATIVE_LIBRARY_NAME);
+    }
+    
+    private final Mat[] frames;
+    private final long[] timestamps;
+    private final long[] previousTimestamps;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private int newest = -1;
+    private int count;
+
+    public FrameBuffer(int size) {
+        frames = new Mat[size];
+        timestamps = new long[size];
+        previousTimestamps = new long[size];
+    }
+
+    /**
+     * Adds frame as the newest in the ring, stamped with the time its read
+     * finished. The buffer owns frame from now on. If the ring was full the
+     * oldest frame is dropped and returned so the grabber can read the next
+     * frame into it, otherwise null is returned.
+     * @param frame
+     * @param timestamp
+     * @return
+     */
+    public synchronized Mat put(Mat frame, long timestamp) {
+        newest = (newest + 1) % frames.length;
+        Mat dropped = frames[newest];
+        frames[newest] = frame;
+        timestamps[newest] = timestamp;
+        previousTimestamps[newest] = lastTimestamp;
+        lastTimestamp = timestamp;
+        count = Math.min(count + 1, frames.length);
+        notifyAll();
+        return dropped;
+    }
+
+    /**
+     * Returns a copy of the newest frame, waiting up to timeoutMillis for
+     * the first one if the ring is empty. Returns null on timeout. The
+     * caller owns the copy.
+     * @param timeoutMillis
+     * @return
+     * @throws InterruptedException
+     */
+    public synchronized Mat getLatest(long timeoutMillis) throws InterruptedException {
+        if (!await(() -> count > 0, timeoutMillis)) {
+            return null;
+        }
+        return frames[newest].clone();
+    }
+
+    /**
+     * Returns a copy of the oldest frame whose read started after timestamp,
+     * which is the second frame to finish reading after it. Waits up to
+     * timeoutMillis for one to arrive. Returns null on timeout. The caller
+     * owns the copy.
+     * @param timestamp
+     * @param timeoutMillis
+     * @return
+     * @throws InterruptedException
+     */
+    public synchronized Mat getAfter(long timestamp, long timeoutMillis) throws InterruptedException {
+        if (!await(() -> count > 0 && previousTimestamps[newest] > timestamp, timeoutMillis)) {
+            return null;
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            int index = (newest - i + frames.length) % frames.length;
+            if (previousTimestamps[index] > timestamp) {
+                return frames[index].clone();
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Returns the timestamp of the newest frame, or Long.MIN_VALUE if there
+     * are no frames.
+     * @return
+     */
+    public synchronized long getLatestTimestamp() {
+        return count == 0 ? Long.MIN_VALUE : timestamps[newest];
+    }
+
+    /**
+     * Releases every frame in the ring and empties it.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < frames.length; i++) {
+            if (frames[i] != null) {
+                frames[i].release();
+                frames[i] = null;
+            }
+        }
+        newest = -1;
+        count = 0;
+        lastTimestamp = Long.MIN_VALUE;
+    }
+
+    /**
+     * Waits until ready returns true. Returns false if timeoutMillis passes
+     * first.
+     */
+    private boolean await(BooleanSupplier ready, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!ready.getAsBoolean()) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                return false;
+            }
+            wait(wait);
+        }
+        return true;
+    }
+}
@@ -21,10 +21,13 @@
 
 package org.openpnp.machine.reference.camera;
 
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 
 import javax.swing.Action;
 
@@ -72,46 +75,214 @@ public class OpenCvCamera extends ReferenceCamera implements Runnable {
 	@Attribute(required=false)
 	private int preferredHeight;
 	
+	/**
+	 * Number of frames the grabber thread keeps for capture() and
+	 * captureAfter().
+	 */
+	private static final int FRAME_BUFFER_SIZE = 4;
+	
+	/**
+	 * How long a capture waits for a frame before giving up.
+	 */
+	private static final long FRAME_TIMEOUT_MILLIS = 2000;
+	
+	/**
+	 * How long the grabber waits before trying again when the device
+	 * doesn't return a frame.
+	 */
+	private static final long GRAB_RETRY_MILLIS = 10;
+	
 	private VideoCapture fg = new VideoCapture();
-	private Thread thread;
+	private final FrameBuffer frames = new FrameBuffer(FRAME_BUFFER_SIZE);
+	private volatile Thread thread;
+	private Thread grabberThread;
 	private boolean dirty = false;
+	private UndistortMaps undistortMaps;
+	private final Object undistortLock = new Object();
 	
 	public OpenCvCamera() {
 	}
 	
 	@Override
-	public synchronized BufferedImage capture() {
+	public BufferedImage capture() {
+	    return toBufferedImage(captureMat());
+	}
+	
+	@Override
+	public BufferedImage captureAfter(long timestamp) {
+	    return toBufferedImage(captureMatAfter(timestamp));
+	}
+	
+	/**
+	 * Returns the newest frame from the grabber thread with calibration and
+	 * the transform applied. Doesn't wait for the device unless no frame has
+	 * been grabbed yet.
+	 */
+	@Override
+	public Mat captureMat() {
+	    startGrabbing();
+	    try {
+	        return processFrame(frames.getLatest(FRAME_TIMEOUT_MILLIS));
+	    }
+	    catch (InterruptedException e) {
+	        Thread.currentThread().interrupt();
+	        return null;
+	    }
+	}
+	
+	/**
+	 * Returns the first frame the grabber thread started reading after
+	 * timestamp, waiting for it if need be. The frame that was being read
+	 * at timestamp is skipped since it may have been exposed before it.
+	 */
+	@Override
+	public Mat captureMatAfter(long timestamp) {
+	    startGrabbing();
+	    long timeout = Math.max(0, timestamp - System.currentTimeMillis()) + FRAME_TIMEOUT_MILLIS;
+	    try {
+	        return processFrame(frames.getAfter(timestamp, timeout));
+	    }
+	    catch (InterruptedException e) {
+	        Thread.currentThread().interrupt();
+	        return null;
+	    }
+	}
+	
+	private void startGrabbing() {
 	    if (thread == null) {
-	        setDeviceIndex(deviceIndex);
+	        synchronized (this) {
+	            if (thread == null) {
+	                setDeviceIndex(deviceIndex);
+	            }
+	        }
+	    }
+	}
+	
+	private Mat processFrame(Mat mat) {
+	    if (mat == null) {
+	        return null;
 	    }
 		try {
-		    Mat mat = new Mat();
-		    while (!fg.read(mat)) {
-		        //return null;
-		    }
             if (calibration.isEnabled()) {
-                mat = undistort(mat);
+                // The transform is part of the undistortion maps.
+                Mat undistorted = undistort(mat);
+                mat.release();
+                return undistorted;
             }
 //		    if (calibration.isEnabled()) {
 //		        mat = estimatePose(mat);
 //		    }
-		    BufferedImage img = OpenCvUtils.toBufferedImage(mat);
-		    mat.release();
-		    return transformImage(img);
+		    return transformMat(mat);
 		}
 		catch (Exception e) {
 			return null;
 		}
 	}
 	
+	private static BufferedImage toBufferedImage(Mat mat) {
+	    if (mat == null) {
+	        return null;
+	    }
+	    BufferedImage img = OpenCvUtils.toBufferedImage(mat);
+	    mat.release();
+	    return img;
+	}
+	
+	/**
+	 * Reads frames from the device into the frame buffer as fast as the
+	 * device delivers them. Each frame is stamped with the time its read
+	 * finished, and the Mats that drop out of the buffer are read into
+	 * again.
+	 */
+	private void grab() {
+	    Mat mat = new Mat();
+	    while (!Thread.interrupted()) {
+	        if (!fg.read(mat)) {
+	            try {
+	                Thread.sleep(GRAB_RETRY_MILLIS);
+	            }
+	            catch (InterruptedException e) {
+	                break;
+	            }
+	            continue;
+	        }
+	        Mat dropped = frames.put(mat, System.currentTimeMillis());
+	        mat = dropped == null ? new Mat() : dropped;
+	    }
+	    mat.release();
+	}
+	
+	/**
+	 * Undistorts mat and applies the rotation, flip and offset in a single
+	 * remap. The maps are made once and reused until the frame size, the
+	 * calibration or the transform changes.
+	 * @param mat
+	 * @return
+	 */
 	private Mat undistort(Mat mat) {
-        Mat dst = new Mat();
-        Imgproc.undistort(
-                mat, 
-                dst, 
-                calibration.getCameraMatrix(), 
-                calibration.getDistortionCoefficients());
-        return dst;
+	    synchronized (undistortLock) {
+	        UndistortMaps maps = getUndistortMaps(mat.cols(), mat.rows());
+	        Mat dst = new Mat();
+	        Imgproc.remap(mat, dst, maps.map1, maps.map2, Imgproc.INTER_LINEAR);
+	        return dst;
+	    }
+	}
+	
+	private UndistortMaps getUndistortMaps(int width, int height) {
+	    Mat cameraMatrix = calibration.getCameraMatrix();
+	    Mat distortionCoefficients = calibration.getDistortionCoefficients();
+	    double[] cameraMatrixArr = new double[9];
+	    cameraMatrix.get(0, 0, cameraMatrixArr);
+	    double[] distortionCoefficientsArr = new double[(int) distortionCoefficients.total()];
+	    distortionCoefficients.get(0, 0, distortionCoefficientsArr);
+	    AffineTransform xform = getMatTransform(width, height);
+	    if (undistortMaps != null 
+	            && undistortMaps.matches(width, height, cameraMatrixArr, distortionCoefficientsArr, xform)) {
+	        return undistortMaps;
+	    }
+	    if (undistortMaps != null) {
+	        undistortMaps.release();
+	    }
+	    
+	    // initUndistortRectifyMap maps each output pixel back through the
+	    // inverse of newCameraMatrix. Making that the transform times the
+	    // camera matrix puts the transform in front of the undistortion.
+	    double[] a;
+	    if (xform != null) {
+	        double[] m = new double[6];
+	        xform.getMatrix(m);
+	        a = new double[] { m[0], m[2], m[4], m[1], m[3], m[5], 0, 0, 1 };
+	    }
+	    else {
+	        a = new double[] { 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+	    }
+	    double[] k = cameraMatrixArr;
+	    double[] newK = new double[9];
+	    for (int row = 0; row < 3; row++) {
+	        for (int col = 0; col < 3; col++) {
+	            for (int i = 0; i < 3; i++) {
+	                newK[row * 3 + col] += a[row * 3 + i] * k[i * 3 + col];
+	            }
+	        }
+	    }
+	    Mat newCameraMatrix = new Mat(3, 3, CvType.CV_64FC1);
+	    newCameraMatrix.put(0, 0, newK);
+	    Mat r = Mat.eye(3, 3, CvType.CV_64FC1);
+	    Mat map1 = new Mat();
+	    Mat map2 = new Mat();
+	    Imgproc.initUndistortRectifyMap(
+	            cameraMatrix, 
+	            distortionCoefficients, 
+	            r, 
+	            newCameraMatrix, 
+	            new Size(width, height), 
+	            CvType.CV_16SC2, 
+	            map1, 
+	            map2);
+	    newCameraMatrix.release();
+	    r.release();
+	    undistortMaps = new UndistortMaps(width, height, cameraMatrixArr, distortionCoefficientsArr, xform, map1, map2);
+	    return undistortMaps;
 	}
 
 	/**
@@ -185,12 +356,18 @@ public class OpenCvCamera extends ReferenceCamera implements Runnable {
     }
 
     public void run() {
+        long lastTimestamp = Long.MIN_VALUE;
 		while (!Thread.interrupted()) {
 			try {
-				BufferedImage image = capture();
-				if (image != null) {
-					broadcastCapture(image);
-				}
+			    // Only broadcast frames the listeners haven't seen yet.
+			    long timestamp = frames.getLatestTimestamp();
+			    if (timestamp != lastTimestamp) {
+			        lastTimestamp = timestamp;
+			        BufferedImage image = capture();
+			        if (image != null) {
+			            broadcastCapture(image);
+			        }
+			    }
 			}
 			catch (Exception e) {
 				e.printStackTrace();
@@ -210,16 +387,8 @@ public class OpenCvCamera extends ReferenceCamera implements Runnable {
 
 	public synchronized void setDeviceIndex(int deviceIndex) {
 		this.deviceIndex = deviceIndex;
-		if (thread != null) {
-			thread.interrupt();
-			try {
-				thread.join();
-			}
-			catch (Exception e) {
-				e.printStackTrace();
-			}
-			thread = null;
-		}
+		stopThreads();
+		frames.clear();
 		try {
 		    setDirty(false);
 		    width = null;
@@ -236,10 +405,32 @@ public class OpenCvCamera extends ReferenceCamera implements Runnable {
 			e.printStackTrace();
 			return;
 		}
+		grabberThread = new Thread(this::grab, "OpenCvCamera " + deviceIndex + " grabber");
+		grabberThread.start();
 		thread = new Thread(this);
 		thread.start();
 	}
 	
+	/**
+	 * Stops the preview thread and then the grabber thread.
+	 */
+	private synchronized void stopThreads() {
+	    for (Thread t : new Thread[] { thread, grabberThread }) {
+	        if (t == null) {
+	            continue;
+	        }
+	        t.interrupt();
+	        try {
+	            t.join();
+	        }
+	        catch (Exception e) {
+	            e.printStackTrace();
+	        }
+	    }
+	    thread = null;
+	    grabberThread = null;
+	}
+	
 	public Calibration getCalibration() {
 	    return calibration;
 	}
@@ -303,18 +494,55 @@ public class OpenCvCamera extends ReferenceCamera implements Runnable {
     @Override
     public void close() throws IOException {
         super.close();
-        if (thread != null) {
-            thread.interrupt();
-            try {
-                thread.join();
-            }
-            catch (Exception e) {
-                
-            }
-        }
+        stopThreads();
         if (fg.isOpened()) {
             fg.release();
         }
+        frames.clear();
+        synchronized (undistortLock) {
+            if (undistortMaps != null) {
+                undistortMaps.release();
+                undistortMaps = null;
+            }
+        }
+    }
+    
+    /**
+     * Remap maps for one frame size, calibration and transform.
+     */
+    private static class UndistortMaps {
+        final int width;
+        final int height;
+        final double[] cameraMatrix;
+        final double[] distortionCoefficients;
+        final AffineTransform xform;
+        final Mat map1;
+        final Mat map2;
+        
+        UndistortMaps(int width, int height, double[] cameraMatrix, double[] distortionCoefficients, 
+                AffineTransform xform, Mat map1, Mat map2) {
+            this.width = width;
+            this.height = height;
+            this.cameraMatrix = cameraMatrix;
+            this.distortionCoefficients = distortionCoefficients;
+            this.xform = xform;
+            this.map1 = map1;
+            this.map2 = map2;
+        }
+        
+        boolean matches(int width, int height, double[] cameraMatrix, double[] distortionCoefficients, 
+                AffineTransform xform) {
+            return this.width == width 
+                    && this.height == height 
+                    && Arrays.equals(this.cameraMatrix, cameraMatrix) 
+                    && Arrays.equals(this.distortionCoefficients, distortionCoefficients) 
+                    && Objects.equals(this.xform, xform);
+        }
+        
+        void release() {
+            map1.release();
+            map2.release();
+        }
     }
 
     public static class Calibration {
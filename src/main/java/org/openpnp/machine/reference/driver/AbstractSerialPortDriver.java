@@ -1,8 +1,11 @@
 package org.openpnp.machine.reference.driver;
 
 import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.concurrent.TimeoutException;
 
@@ -32,11 +35,46 @@ public abstract class AbstractSerialPortDriver implements ReferenceDriver, Close
     protected int baud = 115200;
     
     protected SerialPort serialPort;
-    protected SerialInputStream input;
+    protected InputStream input;
     protected OutputStream output;
+    protected final DriverMetrics metrics = new DriverMetrics();
+    protected SerialTransport transport;
+    
+    /**
+     * Reusable buffer for building commands in hot paths such as moveTo.
+     * Only use it from the thread that issues commands to the driver.
+     */
+    protected final GcodeBuilder gcode = new GcodeBuilder();
+    private final GcodeBuilder lineBuffer = new GcodeBuilder();
     
     protected synchronized void connect() throws Exception {
         disconnect();
+        if (transport != null) {
+            input = new FilterInputStream(transport.getInputStream()) {
+                @Override
+                public int read() throws IOException {
+                    int ch = super.read();
+                    if (ch != -1) {
+                        metrics.addBytesIn(1);
+                    }
+                    return ch;
+                }
+            };
+            output = new FilterOutputStream(transport.getOutputStream()) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    metrics.addBytesOut(1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    metrics.addBytesOut(len);
+                }
+            };
+            return;
+        }
         serialPort = new SerialPort(portName);
         serialPort.openPort();
         serialPort.setParams(
@@ -46,12 +84,19 @@ public abstract class AbstractSerialPortDriver implements ReferenceDriver, Close
                 SerialPort.PARITY_NONE, 
                 false, 
                 false);
-        input = new SerialInputStream(serialPort);
+        SerialInputStream input = new SerialInputStream(serialPort);
         input.setTimeout(500);
+        this.input = input;
         output = new SerialOutputStream(serialPort);
     }
     
     protected synchronized void disconnect() throws Exception {
+        if (transport != null) {
+            // The transport belongs to whoever set it, so we just let go
+            // of it.
+            input = null;
+            output = null;
+        }
         if (serialPort != null && serialPort.isOpened()) {
             serialPort.closePort();
             input = null;
@@ -99,7 +144,8 @@ public abstract class AbstractSerialPortDriver implements ReferenceDriver, Close
                 }
             }
             catch (IOException ex) {
-                if (ex.getCause() instanceof SerialPortTimeoutException) {
+                if (ex.getCause() instanceof SerialPortTimeoutException
+                        || ex instanceof InterruptedIOException) {
                     throw new TimeoutException(ex.getMessage());
                 }
                 throw ex;
@@ -107,6 +153,29 @@ public abstract class AbstractSerialPortDriver implements ReferenceDriver, Close
         }
     }
 
+    /**
+     * Write a command followed by a newline to the serial port in a single
+     * write. A GcodeBuilder is written straight from its buffer, anything
+     * else is copied into a reusable buffer first.
+     * 
+     * @param command
+     * @throws IOException
+     */
+    protected void writeLine(CharSequence command) throws IOException {
+        if (command instanceof GcodeBuilder) {
+            ((GcodeBuilder) command).writeLine(output);
+            return;
+        }
+        synchronized (lineBuffer) {
+            lineBuffer.clear().append(command).writeLine(output);
+        }
+    }
+
+    @Override
+    public DriverMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public void close() throws IOException {
         try {
@@ -132,6 +201,20 @@ public abstract class AbstractSerialPortDriver implements ReferenceDriver, Close
     public void setBaud(int baud) {
         this.baud = baud;
     }
+    
+    public SerialTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets a transport to use instead of the serial port named by portName.
+     * Takes effect on the next connect. Set to null to go back to using the
+     * serial port.
+     * @param transport
+     */
+    public void setTransport(SerialTransport transport) {
+        this.transport = transport;
+    }
 
     @Override
     public Icon getPropertySheetHolderIcon() {
@@ -210,6 +293,7 @@ public abstract class AbstractSerialPortDriver implements ReferenceDriver, Close
                 } else {
                     buf = serialPort.readBytes(1);
                 }
+                metrics.addBytesIn(1);
                 return buf[0];
             } catch (Exception e) {
                 throw new IOException(e);
@@ -250,6 +334,7 @@ public abstract class AbstractSerialPortDriver implements ReferenceDriver, Close
             try {
                 byte[] readBuf = serialPort.readBytes(available);
                 System.arraycopy(readBuf, 0, buf, offset, length);
+                metrics.addBytesIn(readBuf.length);
                 return readBuf.length;
             } catch (Exception e) {
                 throw new IOException(e);
@@ -308,6 +393,7 @@ public abstract class AbstractSerialPortDriver implements ReferenceDriver, Close
             try {
                 byte[] readBuf = serialPort.readBytes(length, timeout);
                 System.arraycopy(readBuf, 0, buf, offset, length);
+                metrics.addBytesIn(readBuf.length);
                 return readBuf.length;
             } catch (Exception e) {
                 throw new IOException(e);
@@ -358,6 +444,7 @@ public abstract class AbstractSerialPortDriver implements ReferenceDriver, Close
         public void write(int b) throws IOException {
             try {
                 serialPort.writeInt(b);
+                metrics.addBytesOut(1);
             } catch (SerialPortException e) {
                 throw new IOException(e);
             }
@@ -371,10 +458,15 @@ public abstract class AbstractSerialPortDriver implements ReferenceDriver, Close
         
         @Override
         public void write(byte[] b, int off, int len) throws IOException {
-            byte[] buffer = new byte[len];
-            System.arraycopy(b, off, buffer, 0, len);
+            // jssc only writes whole arrays.
+            byte[] buffer = b;
+            if (off != 0 || len != b.length) {
+                buffer = new byte[len];
+                System.arraycopy(b, off, buffer, 0, len);
+            }
             try {
                 serialPort.writeBytes(buffer);
+                metrics.addBytesOut(len);
             } catch (SerialPortException e) {
                 throw new IOException(e);
             }
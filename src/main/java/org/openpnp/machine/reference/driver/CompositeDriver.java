@@ -0,0 +1,505 @@
+/*
+ 	Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+
+ 	This file is part of OpenPnP.
+
+	OpenPnP is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    OpenPnP is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with OpenPnP.  If not, see <http://www.gnu.org/licenses/>.
+
+ 	For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.machine.reference.driver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.swing.Action;
+import javax.swing.Icon;
+
+import org.openpnp.gui.support.Wizard;
+import org.openpnp.machine.reference.ActuatorMacro;
+import org.openpnp.machine.reference.ReferenceActuator;
+import org.openpnp.machine.reference.ReferenceDriver;
+import org.openpnp.machine.reference.ReferenceHead;
+import org.openpnp.machine.reference.ReferenceHeadMountable;
+import org.openpnp.machine.reference.ReferenceNozzle;
+import org.openpnp.machine.reference.ReferencePasteDispenser;
+import org.openpnp.model.Identifiable;
+import org.openpnp.model.Location;
+import org.openpnp.spi.PropertySheetHolder;
+import org.simpleframework.xml.Attribute;
+import org.simpleframework.xml.Element;
+import org.simpleframework.xml.ElementList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A ReferenceDriver made of several others, for machines whose gantry,
+ * feeders, vacuum and so on are run by separate controllers. Each
+ * HeadMountable and Actuator is routed by id to one of the sub-drivers, and
+ * anything without a route goes to the default sub-driver.
+ *
+ * Every sub-driver has its own command thread, and only that thread calls
+ * it. Commands for one sub-driver run one at a time and in order, while
+ * commands for different sub-drivers run at the same time, for instance
+ * an ActuatorMacro on a feeder controller while the gantry moves. Calls
+ * still block until their command is done, as ReferenceDriver requires,
+ * except for actuate(ActuatorMacro). ReferenceJobProcessor calls barrier()
+ * where a job needs everything queued on every controller to finish first,
+ * and home() and setEnabled() do that themselves.
+ *
+ * A sub-driver that calls back into the machine from its command thread
+ * must not wait on another sub-driver that is waiting on it.
+ *
+ * <pre>
+ * {@code
+ * <driver class="org.openpnp.machine.reference.driver.CompositeDriver" default-driver="gantry">
+ *     <drivers>
+ *         <sub-driver name="gantry">
+ *             <driver class="org.openpnp.machine.reference.driver.GrblDriver" ... />
+ *         </sub-driver>
+ *         <sub-driver name="feeders">
+ *             <driver class="..." ... />
+ *         </sub-driver>
+ *     </drivers>
+ *     <routes>
+ *         <route id="A1" driver="feeders"/>
+ *     </routes>
+ * </driver>
+ * }
+ * </pre>
+ */
+public class CompositeDriver implements ReferenceDriver {
+    private final static Logger logger = LoggerFactory.getLogger(CompositeDriver.class);
+
+    @Attribute(name = "default-driver", required = false)
+    private String defaultDriverName;
+
+    @ElementList(entry = "sub-driver", required = false)
+    private ArrayList<SubDriver> drivers = new ArrayList<>();
+
+    @ElementList(entry = "route", required = false)
+    private ArrayList<Route> routes = new ArrayList<>();
+
+    private volatile Map<String, SubDriver> routeMap;
+
+    private final DriverMetrics metrics = new DriverMetrics();
+
+    public void addDriver(String name, ReferenceDriver driver) {
+        drivers.add(new SubDriver(name, driver));
+        routeMap = null;
+    }
+
+    /**
+     * Sends commands for the HeadMountable or Actuator with the given id to
+     * the named sub-driver.
+     * @param id
+     * @param driverName
+     */
+    public void addRoute(String id, String driverName) {
+        routes.add(new Route(id, driverName));
+        routeMap = null;
+    }
+
+    public String getDefaultDriverName() {
+        return defaultDriverName;
+    }
+
+    public void setDefaultDriverName(String defaultDriverName) {
+        this.defaultDriverName = defaultDriverName;
+        routeMap = null;
+    }
+
+    /**
+     * Returns the sub-driver with the given name, or null.
+     * @param name
+     * @return
+     */
+    public ReferenceDriver getDriver(String name) {
+        SubDriver driver = findSubDriver(name);
+        return driver == null ? null : driver.driver;
+    }
+
+    /**
+     * Returns the sub-driver that commands for the given object go to.
+     * @param o A HeadMountable or Actuator.
+     * @return
+     */
+    public ReferenceDriver getDriverFor(Object o) {
+        return getSubDriver(o).driver;
+    }
+
+    /**
+     * Waits until every command queued on every sub-driver so far has
+     * finished.
+     * @throws Exception
+     */
+    @Override
+    public void barrier() throws Exception {
+        List<Future<Object>> futures = new ArrayList<>();
+        for (SubDriver driver : drivers) {
+            if (Thread.currentThread() != driver.thread) {
+                futures.add(driver.getExecutor().submit(() -> null));
+            }
+        }
+        waitFor(futures);
+    }
+
+    @Override
+    public void home(ReferenceHead head) throws Exception {
+        barrier();
+        List<Future<Object>> futures = new ArrayList<>();
+        for (SubDriver driver : drivers) {
+            futures.add(driver.getExecutor().submit(() -> {
+                driver.driver.home(head);
+                return null;
+            }));
+        }
+        waitFor(futures);
+    }
+
+    @Override
+    public void moveTo(ReferenceHeadMountable hm, Location location, double speed)
+            throws Exception {
+        SubDriver driver = getSubDriver(hm);
+        call(driver, () -> {
+            driver.driver.moveTo(hm, location, speed);
+            return null;
+        });
+    }
+
+    @Override
+    public Location getLocation(ReferenceHeadMountable hm) {
+        // Drivers report the last position they were sent, so this doesn't
+        // need to wait behind queued commands.
+        return getSubDriver(hm).driver.getLocation(hm);
+    }
+
+    @Override
+    public void pick(ReferenceNozzle nozzle) throws Exception {
+        SubDriver driver = getSubDriver(nozzle);
+        call(driver, () -> {
+            driver.driver.pick(nozzle);
+            return null;
+        });
+    }
+
+    @Override
+    public void place(ReferenceNozzle nozzle) throws Exception {
+        SubDriver driver = getSubDriver(nozzle);
+        call(driver, () -> {
+            driver.driver.place(nozzle);
+            return null;
+        });
+    }
+
+    @Override
+    public void actuate(ReferenceActuator actuator, boolean on) throws Exception {
+        SubDriver driver = getSubDriver(actuator);
+        call(driver, () -> {
+            driver.driver.actuate(actuator, on);
+            return null;
+        });
+    }
+
+    @Override
+    public void actuate(ReferenceActuator actuator, double value) throws Exception {
+        SubDriver driver = getSubDriver(actuator);
+        call(driver, () -> {
+            driver.driver.actuate(actuator, value);
+            return null;
+        });
+    }
+
+    /**
+     * Queues the macro on the sub-driver its Actuators are routed to and
+     * returns without waiting for it. A macro whose Actuators are routed to
+     * more than one sub-driver runs on the calling thread instead, one step
+     * at a time.
+     */
+    @Override
+    public Future<Void> actuate(ActuatorMacro macro) throws Exception {
+        SubDriver target = null;
+        for (ActuatorMacro.Step step : macro.getSteps()) {
+            if (step.getActuator() == null) {
+                continue;
+            }
+            SubDriver driver = getSubDriver(step.getActuator());
+            if (target != null && target != driver) {
+                macro.run();
+                return CompletableFuture.completedFuture(null);
+            }
+            target = driver;
+        }
+        if (target == null) {
+            macro.run();
+            return CompletableFuture.completedFuture(null);
+        }
+        SubDriver driver = target;
+        if (Thread.currentThread() == driver.thread) {
+            return driver.driver.actuate(macro);
+        }
+        return driver.getExecutor().submit(() -> {
+            // Stay on this thread until the sub-driver is done, so the
+            // macro finishes before the next command for it starts.
+            driver.driver.actuate(macro).get();
+            return null;
+        });
+    }
+
+    @Override
+    public void dispense(ReferencePasteDispenser dispenser, Location startLocation,
+            Location endLocation, long dispenseTimeMilliseconds) throws Exception {
+        SubDriver driver = getSubDriver(dispenser);
+        call(driver, () -> {
+            driver.driver.dispense(dispenser, startLocation, endLocation, dispenseTimeMilliseconds);
+            return null;
+        });
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) throws Exception {
+        barrier();
+        List<Future<Object>> futures = new ArrayList<>();
+        for (SubDriver driver : drivers) {
+            futures.add(driver.getExecutor().submit(() -> {
+                driver.driver.setEnabled(enabled);
+                return null;
+            }));
+        }
+        waitFor(futures);
+    }
+
+    @Override
+    public boolean isReachable(ReferenceHeadMountable hm, Location location) {
+        return getSubDriver(hm).driver.isReachable(hm, location);
+    }
+
+    @Override
+    public DriverMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (SubDriver driver : drivers) {
+            driver.shutdown();
+            try {
+                driver.driver.close();
+            }
+            catch (Exception e) {
+                logger.error("close() " + driver.name, e);
+            }
+        }
+    }
+
+    @Override
+    public Wizard getConfigurationWizard() {
+        return null;
+    }
+
+    @Override
+    public String getPropertySheetHolderTitle() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public PropertySheetHolder[] getChildPropertySheetHolders() {
+        PropertySheetHolder[] children = new PropertySheetHolder[drivers.size()];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = drivers.get(i).driver;
+        }
+        return children;
+    }
+
+    @Override
+    public PropertySheet[] getPropertySheets() {
+        return null;
+    }
+
+    @Override
+    public Icon getPropertySheetHolderIcon() {
+        return null;
+    }
+
+    @Override
+    public Action[] getPropertySheetHolderActions() {
+        return null;
+    }
+
+    private SubDriver getSubDriver(Object o) {
+        Map<String, SubDriver> routeMap = this.routeMap;
+        if (routeMap == null) {
+            routeMap = buildRouteMap();
+        }
+        SubDriver driver = null;
+        if (o instanceof Identifiable) {
+            driver = routeMap.get(((Identifiable) o).getId());
+        }
+        if (driver == null) {
+            driver = routeMap.get(null);
+        }
+        if (driver == null) {
+            throw new IllegalStateException("CompositeDriver has no driver for " + o);
+        }
+        return driver;
+    }
+
+    private synchronized Map<String, SubDriver> buildRouteMap() {
+        Map<String, SubDriver> routeMap = new HashMap<>();
+        for (Route route : routes) {
+            SubDriver driver = findSubDriver(route.driver);
+            if (driver == null) {
+                logger.warn("No driver named {} for route {}", route.driver, route.id);
+                continue;
+            }
+            routeMap.put(route.id, driver);
+        }
+        SubDriver defaultDriver = defaultDriverName == null ? null : findSubDriver(defaultDriverName);
+        if (defaultDriver == null && !drivers.isEmpty()) {
+            defaultDriver = drivers.get(0);
+        }
+        routeMap.put(null, defaultDriver);
+        this.routeMap = routeMap;
+        return routeMap;
+    }
+
+    private SubDriver findSubDriver(String name) {
+        for (SubDriver driver : drivers) {
+            if (driver.name.equals(name)) {
+                return driver;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs callable on the sub-driver's command thread and waits for it.
+     */
+    private static <T> T call(SubDriver driver, Callable<T> callable) throws Exception {
+        if (Thread.currentThread() == driver.thread) {
+            return callable.call();
+        }
+        return unwrap(driver.getExecutor().submit(callable));
+    }
+
+    private static void waitFor(List<Future<Object>> futures) throws Exception {
+        Exception first = null;
+        for (Future<Object> future : futures) {
+            try {
+                unwrap(future);
+            }
+            catch (Exception e) {
+                if (first == null) {
+                    first = e;
+                }
+            }
+        }
+        if (first != null) {
+            throw first;
+        }
+    }
+
+    private static <T> T unwrap(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public static class SubDriver {
+        @Attribute
+        private String name;
+
+        @Element
+        private ReferenceDriver driver;
+
+        private ExecutorService executor;
+        private volatile Thread thread;
+
+        private SubDriver() {
+        }
+
+        private SubDriver(String name, ReferenceDriver driver) {
+            this.name = name;
+            this.driver = driver;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ReferenceDriver getDriver() {
+            return driver;
+        }
+
+        private synchronized ExecutorService getExecutor() {
+            if (executor == null) {
+                executor = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "CompositeDriver " + name);
+                    thread.setDaemon(true);
+                    this.thread = thread;
+                    return thread;
+                });
+            }
+            return executor;
+        }
+
+        private synchronized void shutdown() {
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+                thread = null;
+            }
+        }
+    }
+
+    public static class Route {
+        @Attribute
+        private String id;
+
+        @Attribute
+        private String driver;
+
+        private Route() {
+        }
+
+        private Route(String id, String driver) {
+            this.id = id;
+            this.driver = driver;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getDriver() {
+            return driver;
+        }
+    }
+}
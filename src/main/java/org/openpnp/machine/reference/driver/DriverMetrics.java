@@ -0,0 +1,222 @@
+/*
+ 	Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+
+ 	This file is part of OpenPnP.
+
+	OpenPnP is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    OpenPnP is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with OpenPnP.  If not, see <http://www.gnu.org/licenses/>.
+
+ 	For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.machine.reference.driver;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openpnp.util.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters and latency histograms for the commands a ReferenceDriver
+ * executes, along with the traffic it generates on the wire. Recording
+ * never allocates and never blocks, so it is safe to call from the hot
+ * path of a driver.
+ *
+ * The commands issued to a driver are recorded by the Reference objects
+ * that call it, so every driver is covered. Drivers that talk to firmware
+ * additionally record dwells, bytes in and out, the number of commands
+ * waiting on a reply and the time spent waiting on acknowledgements.
+ */
+public class DriverMetrics {
+    private static final Logger logger = LoggerFactory.getLogger(DriverMetrics.class);
+
+    /**
+     * Recorded in by drivers that don't keep DriverMetrics of their own. See
+     * ReferenceDriver.getMetrics().
+     */
+    public static final DriverMetrics SHARED = new DriverMetrics();
+
+    private static ScheduledExecutorService summaryExecutor;
+
+    public enum Command {
+        Move,
+        Dwell,
+        Actuate,
+        PickPlace,
+        Home
+    }
+
+    private final Histogram[] commands = new Histogram[Command.values().length];
+    private final Histogram acknowledgementWait = new Histogram();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private ScheduledFuture<?> summaryLog;
+    private long lastSummaryCount;
+
+    public DriverMetrics() {
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Returns a start time to be passed to one of the record methods once
+     * the operation being measured has finished.
+     * @return
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void record(Command command, long startNanos) {
+        commands[command.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    public void recordAcknowledgementWait(long startNanos) {
+        acknowledgementWait.record(System.nanoTime() - startNanos);
+    }
+
+    public void addBytesIn(long count) {
+        bytesIn.addAndGet(count);
+    }
+
+    public void addBytesOut(long count) {
+        bytesOut.addAndGet(count);
+    }
+
+    /**
+     * Records the number of commands currently waiting on a reply from the
+     * firmware.
+     * @param depth
+     */
+    public void setQueueDepth(int depth) {
+        queueDepth.set(depth);
+        int max;
+        while (depth > (max = maxQueueDepth.get())) {
+            if (maxQueueDepth.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+    }
+
+    public Histogram getLatency(Command command) {
+        return commands[command.ordinal()];
+    }
+
+    public long getCount(Command command) {
+        return commands[command.ordinal()].getCount();
+    }
+
+    public Histogram getAcknowledgementWait() {
+        return acknowledgementWait;
+    }
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public void reset() {
+        for (Histogram histogram : commands) {
+            histogram.reset();
+        }
+        acknowledgementWait.reset();
+        bytesIn.set(0);
+        bytesOut.set(0);
+        maxQueueDepth.set(queueDepth.get());
+    }
+
+    /**
+     * Starts logging a summary every intervalSeconds, replacing any summary
+     * log that was already running. Intervals in which no commands were
+     * recorded are skipped. An interval of 0 or less just stops the log.
+     * @param name Name of the driver, used in the log message.
+     * @param intervalSeconds
+     */
+    public synchronized void startSummaryLog(final String name, long intervalSeconds) {
+        stopSummaryLog();
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        synchronized (DriverMetrics.class) {
+            if (summaryExecutor == null) {
+                summaryExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "DriverMetrics");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+        }
+        summaryLog = summaryExecutor.scheduleAtFixedRate(() -> {
+            long count = getTotalCount();
+            if (count != lastSummaryCount) {
+                lastSummaryCount = count;
+                logger.info("{} {}", name, getSummary());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopSummaryLog() {
+        if (summaryLog != null) {
+            summaryLog.cancel(false);
+            summaryLog = null;
+        }
+    }
+
+    private long getTotalCount() {
+        long count = 0;
+        for (Histogram histogram : commands) {
+            count += histogram.getCount();
+        }
+        return count;
+    }
+
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Command command : Command.values()) {
+            Histogram histogram = getLatency(command);
+            if (histogram.getCount() > 0) {
+                sb.append(command).append(": ").append(histogram).append(", ");
+            }
+        }
+        sb.append("Ack Wait: ").append(acknowledgementWait).append(", ");
+        sb.append(String.format(Locale.US, "Bytes In: %d, Bytes Out: %d, Queue Depth: %d (max %d)",
+                getBytesIn(), getBytesOut(), getQueueDepth(), getMaxQueueDepth()));
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getSummary();
+    }
+}
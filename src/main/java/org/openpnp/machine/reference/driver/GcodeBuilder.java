@@ -0,0 +1,187 @@
+/*
+ 	Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+
+ 	This file is part of OpenPnP.
+
+	OpenPnP is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    OpenPnP is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with OpenPnP.  If not, see <http://www.gnu.org/licenses/>.
+
+ 	For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.machine.reference.driver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * A reusable buffer for building a line of G-code as ASCII bytes. Numbers
+ * are written in fixed point straight into the buffer, so once the buffer
+ * has grown to fit the longest command a driver sends, building and writing
+ * a command allocates nothing.
+ *
+ * Output matches String.format(Locale.US, "%.Nf", value) except that values
+ * exactly half way between two representable results may round differently,
+ * and values that round to zero are never written with a minus sign.
+ *
+ * A GcodeBuilder is a CharSequence so it can be passed anywhere a command
+ * String is logged or compared. Like a StringBuilder it is not thread safe.
+ */
+public class GcodeBuilder implements CharSequence {
+    private static final long[] POWERS_OF_TEN = new long[] {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L
+    };
+
+    private static final double MAX_FIXED_POINT = 1e15;
+
+    private byte[] buffer;
+    private int length;
+
+    public GcodeBuilder() {
+        this(64);
+    }
+
+    public GcodeBuilder(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    public GcodeBuilder clear() {
+        length = 0;
+        return this;
+    }
+
+    public GcodeBuilder append(char c) {
+        ensureCapacity(length + 1);
+        buffer[length++] = (byte) c;
+        return this;
+    }
+
+    public GcodeBuilder append(CharSequence s) {
+        int n = s.length();
+        ensureCapacity(length + n);
+        for (int i = 0; i < n; i++) {
+            buffer[length++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    public GcodeBuilder append(long value) {
+        if (value < 0) {
+            append('-');
+            if (value == Long.MIN_VALUE) {
+                return append(Long.toString(value).substring(1));
+            }
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        ensureCapacity(length + digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        length += digits;
+        return this;
+    }
+
+    /**
+     * Appends value with exactly the given number of decimal places.
+     * @param value
+     * @param decimals Between 0 and 8.
+     * @return
+     */
+    public GcodeBuilder append(double value, int decimals) {
+        long scale = POWERS_OF_TEN[decimals];
+        double scaled = value * scale;
+        if (Double.isNaN(scaled) || Math.abs(scaled) >= MAX_FIXED_POINT) {
+            // Not worth doing by hand, and never seen in practice.
+            return append(String.format(Locale.US, "%." + decimals + "f", value));
+        }
+        long fixed = Math.round(scaled);
+        if (fixed < 0) {
+            append('-');
+            fixed = -fixed;
+        }
+        append(fixed / scale);
+        if (decimals > 0) {
+            append('.');
+            long fraction = fixed % scale;
+            ensureCapacity(length + decimals);
+            for (int i = length + decimals - 1; i >= length; i--) {
+                buffer[i] = (byte) ('0' + (fraction % 10));
+                fraction /= 10;
+            }
+            length += decimals;
+        }
+        return this;
+    }
+
+    /**
+     * Appends a word such as X12.50, made of a letter and a value with
+     * the given number of decimal places.
+     * @param letter
+     * @param value
+     * @param decimals
+     * @return
+     */
+    public GcodeBuilder appendWord(char letter, double value, int decimals) {
+        return append(letter).append(value, decimals);
+    }
+
+    /**
+     * Writes the contents of the buffer followed by a newline to out, in a
+     * single write.
+     * @param out
+     * @throws IOException
+     */
+    public void writeLine(OutputStream out) throws IOException {
+        ensureCapacity(length + 1);
+        buffer[length] = '\n';
+        out.write(buffer, 0, length + 1);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+        return (char) (buffer[index] & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            byte[] b = new byte[Math.max(capacity, buffer.length * 2)];
+            System.arraycopy(buffer, 0, b, 0, length);
+            buffer = b;
+        }
+    }
+}
@@ -24,7 +24,6 @@ package org.openpnp.machine.reference.driver;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeoutException;
@@ -111,22 +110,22 @@ public class GrblDriver extends AbstractSerialPortDriver implements Runnable {
         double z = location.getZ();
         double c = location.getRotation();
         
-		StringBuffer sb = new StringBuffer();
+		int start = gcode.clear().append("G1 ").length();
 		if (!Double.isNaN(x) && x != this.x) {
-			sb.append(String.format(Locale.US, "X%2.2f ", x));
+			gcode.appendWord('X', x, 2).append(' ');
 		}
 		if (!Double.isNaN(y) && y != this.y) {
-			sb.append(String.format(Locale.US, "Y%2.2f ", y));
+			gcode.appendWord('Y', y, 2).append(' ');
 		}
 		if (!Double.isNaN(z) && z != this.z) {
-			sb.append(String.format(Locale.US, "Z%2.2f ", z));
+			gcode.appendWord('Z', z, 2).append(' ');
 		}
 		if (!Double.isNaN(c) && c != this.c) {
-			sb.append(String.format(Locale.US, "C%2.2f ", c));
+			gcode.appendWord('C', c, 2).append(' ');
 		}
-		if (sb.length() > 0) {
-			sb.append(String.format(Locale.US, "F%2.2f", feedRateMmPerMinute));
-			sendCommand("G1 " + sb.toString());
+		if (gcode.length() > start) {
+			gcode.appendWord('F', feedRateMmPerMinute, 2);
+			sendCommand(gcode);
 			dwell();
 		}
         if (!Double.isNaN(x)) {
@@ -257,24 +256,25 @@ public class GrblDriver extends AbstractSerialPortDriver implements Runnable {
 		disconnectRequested = false;
 	}
 
-	private List<String> sendCommand(String command) throws Exception {
+	private List<String> sendCommand(CharSequence command) throws Exception {
 		return sendCommand(command, -1);
 	}
 	
-	private List<String> sendCommand(String command, long timeout) throws Exception {
+	private List<String> sendCommand(CharSequence command, long timeout) throws Exception {
 		synchronized (commandLock) {
 			if (command != null) {
 				logger.debug("sendCommand({}, {})", command, timeout);
-				logger.debug(">> " + command);
-				output.write(command.getBytes());
-				output.write("\n".getBytes());
+				logger.debug(">> {}", command);
+				writeLine(command);
 			}
+			long waitStart = metrics.start();
 			if (timeout == -1) {
 				commandLock.wait();
 			}
 			else {
 				commandLock.wait(timeout);
 			}
+			metrics.recordAcknowledgementWait(waitStart);
 		}
 		List<String> responses = drainResponseQueue();
 		return responses;
@@ -310,7 +310,9 @@ public class GrblDriver extends AbstractSerialPortDriver implements Runnable {
 	 * @throws Exception
 	 */
 	private void dwell() throws Exception {
+		long t = metrics.start();
 		sendCommand("G4 P0");
+		metrics.record(DriverMetrics.Command.Dwell, t);
 	}
 
 	private List<String> drainResponseQueue() {
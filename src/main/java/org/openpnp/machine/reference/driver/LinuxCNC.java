@@ -63,18 +63,23 @@
 package org.openpnp.machine.reference.driver;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.Queue;
-import java.util.Scanner;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.swing.Action;
 import javax.swing.Icon;
@@ -95,6 +100,22 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * All socket I/O is done by a single reader thread using a non-blocking
+ * channel and a Selector. Commands are pipelined: each command is queued
+ * along with a pending reply and written out by the reader thread, and
+ * replies are matched to commands in the order they arrive. linuxcncrsh
+ * handles the commands on a connection one at a time, so replies always
+ * come back in the order the commands were sent.
+ * 
+ * With set_wait done, linuxcncrsh only replies to an MDI command once it
+ * has finished executing, so no dwell is needed after a move. If
+ * pipelineMoves is set, moveTo() returns as soon as the move is queued and
+ * moves are sent back to back. Any command that is not a move still waits
+ * for its reply, and therefore for every move queued before it.
+ * 
+ * When idle, the reader thread polls the machine position in the
+ * background. The result is available from getReportedLocation().
+ * 
  * TODO: Consider adding some type of heartbeat to the firmware.
  */
 public class LinuxCNC implements ReferenceDriver, Runnable {
@@ -108,23 +129,35 @@ public class LinuxCNC implements ReferenceDriver, Runnable {
     private int port = 502;
     @Attribute(required=false)
     private double feedRateMmPerMinute;
+    @Attribute(required=false)
+    private boolean pipelineMoves = false;
+    @Attribute(required=false)
+    private int maxPendingCommands = 32;
+    @Attribute(required=false)
+    private long statusPollIntervalMs = 250;
 
     private double x, y, z, c;
-    private Socket socket;
-    private InputStream input;
-    private OutputStream output;
+    private SocketChannel channel;
+    private Selector selector;
+    private SelectionKey selectionKey;
     private Thread readerThread;
-    private boolean disconnectRequested;
-    private Object commandLock = new Object();
-    private boolean connected;
+    private volatile boolean disconnectRequested;
+    private volatile boolean connected;
     private double connectedVersion;
-    private Queue<String> responseQueue = new ConcurrentLinkedQueue<>();
+    private final Object pendingLock = new Object();
+    private final Deque<PendingCommand> pendingCommands = new ArrayDeque<>();
+    private final Deque<ByteBuffer> writeQueue = new ArrayDeque<>();
+    private Semaphore pendingPermits;
+    private volatile Throwable pipelineError;
+    private volatile Location reportedLocation;
+    private volatile boolean statusPollPending;
+    private long lastStatusPollTime;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+    private final StringBuilder line = new StringBuilder();
+    private final DriverMetrics metrics = new DriverMetrics();
     private final static int CONNECT_TIMOUT = 5; // 5 second time-out for
                                                  // connection
 
-    private static Scanner in;
-    private static PrintWriter out;
-    
     public LinuxCNC() {
     }
     
@@ -165,8 +198,19 @@ public class LinuxCNC implements ReferenceDriver, Runnable {
         }
         if (sb.length() > 0) {
             sb.append(String.format(Locale.US, "F%2.2f", feedRateMmPerMinute * speed));
-            sendCommand("set mdi G1 " + sb.toString());
-            dwell();
+            String command = "set mdi G1 " + sb.toString();
+            if (pipelineMoves) {
+                // Nobody waits on this reply, so remember a failure and
+                // report it from the next command that is sent.
+                queueCommand(command).whenComplete((response, t) -> {
+                    if (t != null) {
+                        pipelineError = t;
+                    }
+                });
+            }
+            else {
+                sendCommand(command);
+            }
         }
         if (!Double.isNaN(x)) {
             this.x = x;
@@ -189,13 +233,22 @@ public class LinuxCNC implements ReferenceDriver, Runnable {
         return new Location(LengthUnit.Millimeters, x, y, z, c).add(hm
                 .getHeadOffsets());
     }
+    
+    /**
+     * Returns the machine position most recently reported by the background
+     * status poll, in Millimeters, or null if none has been received yet.
+     * This never blocks.
+     * @return
+     */
+    public Location getReportedLocation() {
+        return reportedLocation;
+    }
 
 
 
     @Override
     public void pick(ReferenceNozzle nozzle) throws Exception {
         sendCommand("set mdi m3 s100");
-        dwell();
     }
 
 
@@ -203,7 +256,6 @@ public class LinuxCNC implements ReferenceDriver, Runnable {
     @Override
     public void place(ReferenceNozzle nozzle) throws Exception {
         sendCommand("set mdi m5");
-        dwell();
     }
 
 
@@ -213,7 +265,6 @@ public class LinuxCNC implements ReferenceDriver, Runnable {
             throws Exception {
         // if (index == 0) {
         // sendCommand(on ? "M8" : "M9");
-        // dwell();
         // }
     }
 
@@ -240,53 +291,52 @@ public class LinuxCNC implements ReferenceDriver, Runnable {
             throws Exception {
         // disconnect();
         logger.debug("connect({}, {})", serverIp, port);
-        SocketAddress sa = new InetSocketAddress(serverIp, port);
-        socket = new Socket();
-        socket.connect(sa, CONNECT_TIMOUT * 1000);
-        input = socket.getInputStream();
-        output = socket.getOutputStream();
-
-        List<String> responses;
-        synchronized (commandLock) {
-            // Start the reader thread with the commandLock held. This will
-            // keep the thread from quickly parsing any responses messages
-            // and notifying before we get a change to wait.
-            readerThread = new Thread(this);
-            readerThread.start();
-            // Wait up to 3 seconds for Grbl to say Hi
-            // If we get anything at this point it will have been the settings
-            // dump that is sent after reset.
-            // responses = sendCommand(null, 3000);
-        }
-        connected = true;
-
-        responses = sendCommand("hello EMC x 1.1");
-        responses.addAll(sendCommand("set enable EMCTOO"));
-
-        responses.addAll(sendCommand("set estop off"));
-        responses.addAll(sendCommand("set mode mdi"));
+        channel = SocketChannel.open();
+        channel.socket().connect(new InetSocketAddress(serverIp, port),
+                CONNECT_TIMOUT * 1000);
+        channel.socket().setTcpNoDelay(true);
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        selectionKey = channel.register(selector, SelectionKey.OP_READ);
+        pendingPermits = new Semaphore(maxPendingCommands);
+        pipelineError = null;
+        reportedLocation = null;
+
+        readerThread = new Thread(this);
+        readerThread.start();
+
+        processConnectionResponse(awaitHandshake("hello EMC x 1.1"));
+        if (!connected) {
+            disconnect();
+            throw new Exception(
+                    "Unable to receive connection response from LinuxCNC ver 1.1. Check your server ip and port in machine.xml");
+        }
+
+        // verbose on -- all commands will be replied with ACK or NAK
+        // linuxcncrsh starts with verbose off and sends nothing back for a
+        // set that succeeds, so this has to be in effect before any other
+        // set is sent or the replies can't be matched to the commands.
+        awaitHandshake("set verbose on");
+
+        // The rest of the handshake is pipelined. Replies come back in
+        // order, so we queue everything up front and then collect them.
+        List<String> commands = new ArrayList<>();
+        commands.add("set enable EMCTOO");
+        commands.add("set estop off");
+        commands.add("set mode mdi");
         
         // set_wait done -- will respond after the commanded move is completed
         // The default behavior is to respond when received which causes 
         // OpenPnP to spit out gcode full-bore.
-        responses.addAll(sendCommand("set set_wait done"));
-        responses.addAll(sendCommand("set echo off"));
-        // verbose on -- all commands will be replied with ACK or NAK
-        // This will be used later to determine the return status.
-        responses.addAll(sendCommand("set verbose on"));
+        commands.add("set set_wait done");
+        commands.add("set echo off");
         
-        processConnectionResponses(responses);
-
-        if (!connected) {
-            throw new Exception(
-                    "Unable to receive connection response from LinuxCNC ver 1.1. Check your server ip and port in machine.xml");
+        List<CompletableFuture<String>> replies = new ArrayList<>();
+        for (String command : commands) {
+            replies.add(queueCommand(command));
         }
-
-        if (!connected) {
-            throw new Exception(
-                    String.format(
-                            "Unable to receive connection response from LinuxCNC. Check your server ip and port in machine.xml and that you are running at least version %f of LinuxCNCrsh",
-                            minimumRequiredVersion));
+        for (int i = 0; i < replies.size(); i++) {
+            awaitHandshake(commands.get(i), replies.get(i));
         }
 
         if (connectedVersion < minimumRequiredVersion) {
@@ -310,16 +360,42 @@ public class LinuxCNC implements ReferenceDriver, Runnable {
         sendCommand("set mdi G92 X0 Y0 Z0 A0");
     }
 
-    private void processConnectionResponses(List<String> responses) {
-        for (String response : responses) {
-            if (response.startsWith("HELLO ACK EMCNETSVR 1.1")) {
+    private String awaitHandshake(String command) throws Exception {
+        return awaitHandshake(command, queueCommand(command));
+    }
 
-                connectedVersion = 1.1;
-                connected = true;
-                logger.debug(String.format(
-                        "Connected to LinuxCNCrsh Version: %.2f",
-                        connectedVersion));
-            }
+    /**
+     * Waits up to CONNECT_TIMOUT seconds for the reply to a handshake
+     * command. A rejected command is logged and null is returned. If no
+     * reply arrives in time the connection is closed and the connect fails.
+     */
+    private String awaitHandshake(String command,
+            CompletableFuture<String> reply) throws Exception {
+        try {
+            return reply.get(CONNECT_TIMOUT, TimeUnit.SECONDS);
+        }
+        catch (ExecutionException e) {
+            logger.warn("connect()", e.getCause());
+            return null;
+        }
+        catch (TimeoutException e) {
+            disconnect();
+            throw new Exception(String.format(
+                    "LinuxCNC did not reply to \"%s\" within %d seconds. Check that linuxcncrsh is running and accepting commands.",
+                    command, CONNECT_TIMOUT));
+        }
+    }
+
+    private void processConnectionResponse(String response) {
+        if (response == null) {
+            return;
+        }
+        if (response.startsWith("HELLO ACK EMCNETSVR 1.1")) {
+            connectedVersion = 1.1;
+            connected = true;
+            logger.debug(String.format(
+                    "Connected to LinuxCNCrsh Version: %.2f",
+                    connectedVersion));
         }
     }
 
@@ -328,113 +404,263 @@ public class LinuxCNC implements ReferenceDriver, Runnable {
         connected = false;
 
         try {
+            if (selector != null) {
+                selector.wakeup();
+            }
             if (readerThread != null && readerThread.isAlive()) {
                 readerThread.join();
             }
-            input.close();
-            output.close();
-
-            socket.close();
+            if (channel != null) {
+                channel.close();
+            }
+            if (selector != null) {
+                selector.close();
+            }
         }
         catch (Exception e) {
             logger.error("disconnect()", e);
         }
+        channel = null;
+        selector = null;
+        readerThread = null;
 
         disconnectRequested = false;
     }
 
-    private List<String> sendCommand(String command) throws Exception {
-        return sendCommand(command, -1);
+    /**
+     * Sends the command and waits for its reply. Since replies are matched
+     * in order, this also waits for every command queued before it.
+     */
+    private String sendCommand(String command) throws Exception {
+        CompletableFuture<String> reply = queueCommand(command);
+        long waitStart = metrics.start();
+        try {
+            return reply.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        finally {
+            metrics.recordAcknowledgementWait(waitStart);
+            throwPipelineError();
+        }
     }
 
-    private List<String> sendCommand(String command, long timeout)
+    /**
+     * Queues the command for sending and returns immediately. The returned
+     * future completes with the reply, or exceptionally if linuxcncrsh
+     * rejects the command or the connection is lost. Blocks only if
+     * maxPendingCommands commands are already awaiting a reply.
+     */
+    private CompletableFuture<String> queueCommand(String command)
             throws Exception {
-        synchronized (commandLock) {
-            if (command != null) {
-                logger.debug("sendCommand({}, {})", command, timeout);
-                output.write(command.getBytes());
-                output.write("\r\n".getBytes());
-
-            }
-            if (timeout == -1) {
-                commandLock.wait();
-            }
-            else {
-                commandLock.wait(timeout);
-            }
+        throwPipelineError();
+        if (pendingPermits == null) {
+            throw new Exception("Not connected to LinuxCNC.");
+        }
+        pendingPermits.acquire();
+        CompletableFuture<String> reply = enqueueCommand(command, true);
+        Selector selector = this.selector;
+        if (selector != null) {
+            selector.wakeup();
         }
-        List<String> responses = drainResponseQueue();
-        return responses;
+        return reply;
     }
 
-    public void run() {
-        while (!disconnectRequested) {
-            String line = readLine().trim();
-            logger.debug(line);
-            responseQueue.offer(line);
-            synchronized (commandLock) {
-                commandLock.notify();
-
+    private CompletableFuture<String> enqueueCommand(String command,
+            boolean permit) {
+        PendingCommand pending = new PendingCommand(command, permit);
+        synchronized (pendingLock) {
+            if (disconnectRequested || readerThread == null
+                    || !readerThread.isAlive()) {
+                if (permit) {
+                    pendingPermits.release();
+                }
+                pending.reply.completeExceptionally(new Exception(
+                        "Not connected to LinuxCNC."));
+                return pending.reply;
             }
+            logger.debug(">> {}", command);
+            pendingCommands.add(pending);
+            writeQueue.add(ByteBuffer.wrap((command + "\r\n")
+                    .getBytes(StandardCharsets.US_ASCII)));
+            metrics.setQueueDepth(pendingCommands.size());
         }
+        return pending.reply;
     }
 
-    /**
-     * Causes Grbl to block until all commands are complete.
-     * 
-     * @throws Exception
-     */
-    private void dwell() throws Exception {
-        sendCommand("set mdi G4 P0");
+    private void throwPipelineError() throws Exception {
+        Throwable t = pipelineError;
+        if (t != null) {
+            pipelineError = null;
+            throw new Exception("A queued command failed: " + t.getMessage(), t);
+        }
     }
 
-    private List<String> drainResponseQueue() {
-        List<String> responses = new ArrayList<>();
-        String response;
-        while ((response = responseQueue.poll()) != null) {
-            responses.add(response);
+    public void run() {
+        try {
+            while (!disconnectRequested) {
+                selector.select(statusPollIntervalMs > 0 ? statusPollIntervalMs : 0);
+                if (disconnectRequested) {
+                    break;
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isReadable()) {
+                        processReads();
+                    }
+                }
+                pollStatus();
+                processWrites();
+            }
+        }
+        catch (Exception e) {
+            if (!disconnectRequested) {
+                logger.error("Read error", e);
+            }
         }
-        return responses;
+        failPendingCommands();
     }
 
-    private String readLine() {
-        StringBuffer line = new StringBuffer();
-        try {
-            while (true) {
-                int ch = readChar();
-                if (ch == -1) {
-                    return null;
+    private void processWrites() throws IOException {
+        synchronized (pendingLock) {
+            while (!writeQueue.isEmpty()) {
+                ByteBuffer buffer = writeQueue.peek();
+                metrics.addBytesOut(channel.write(buffer));
+                if (buffer.hasRemaining()) {
+                    break;
                 }
-                else if (ch == '\n' || ch == '\r') {
+                writeQueue.poll();
+            }
+            selectionKey.interestOps(writeQueue.isEmpty() ? SelectionKey.OP_READ
+                    : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void processReads() throws IOException {
+        int count;
+        while ((count = channel.read(readBuffer)) > 0) {
+            metrics.addBytesIn(count);
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                char ch = (char) readBuffer.get();
+                if (ch == '\n' || ch == '\r') {
                     if (line.length() > 0) {
-                        return line.toString();
+                        processResponse(line.toString().trim());
+                        line.setLength(0);
                     }
                 }
                 else {
-                    line.append((char) ch);
+                    line.append(ch);
                 }
             }
+            readBuffer.clear();
         }
-        catch (Exception e) {
-            logger.error("readLine()", e);
+        if (count == -1) {
+            throw new IOException("Connection closed by LinuxCNC.");
         }
-        return null;
     }
 
-    private int readChar() {
-        try {
-            int ch = -1;
-            while (ch == -1 && !disconnectRequested) {
-                ch = input.read();
+    private void processResponse(String response) {
+        logger.debug("<< {}", response);
+        PendingCommand pending;
+        synchronized (pendingLock) {
+            pending = pendingCommands.peek();
+            if (pending == null) {
+                logger.warn("Unexpected response from LinuxCNC: {}", response);
+                return;
+            }
+            // linuxcncrsh echoes each command back until echo is turned off.
+            if (response.equalsIgnoreCase(pending.command)) {
+                return;
             }
-            return ch;
+            pendingCommands.poll();
+            metrics.setQueueDepth(pendingCommands.size());
         }
-        catch (Exception e) {
-            logger.error("readChar()", e);
-            return -1;
+        if (pending.permit) {
+            pendingPermits.release();
+        }
+        if (response.contains("NAK")) {
+            pending.reply.completeExceptionally(new Exception(String.format(
+                    "LinuxCNC rejected command %s: %s", pending.command,
+                    response)));
+        }
+        else {
+            pending.reply.complete(response);
+        }
+    }
+
+    /**
+     * Queues a position request if the connection has been idle for the
+     * poll interval. Runs on the reader thread, so it must never block.
+     */
+    private void pollStatus() {
+        if (!connected || statusPollIntervalMs <= 0 || statusPollPending) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastStatusPollTime < statusPollIntervalMs) {
+            return;
+        }
+        synchronized (pendingLock) {
+            if (!pendingCommands.isEmpty()) {
+                return;
+            }
+        }
+        lastStatusPollTime = now;
+        statusPollPending = true;
+        enqueueCommand("get abs_act_pos", false).whenComplete((response, t) -> {
+            statusPollPending = false;
+            if (response != null) {
+                processStatusResponse(response);
+            }
+        });
+    }
+
+    private void processStatusResponse(String response) {
+        // Expect something like: ABS_ACT_POS 1.0000 2.0000 3.0000 4.0000 ...
+        String[] parts = response.split("\\s+");
+        if (parts.length < 5 || !parts[0].equalsIgnoreCase("ABS_ACT_POS")) {
+            return;
+        }
+        try {
+            reportedLocation = new Location(LengthUnit.Millimeters,
+                    Double.parseDouble(parts[1]),
+                    Double.parseDouble(parts[2]),
+                    Double.parseDouble(parts[3]),
+                    Double.parseDouble(parts[4]));
+        }
+        catch (NumberFormatException e) {
+            logger.debug("Unable to parse status response: {}", response);
+        }
+    }
+
+    private void failPendingCommands() {
+        List<PendingCommand> failed = new ArrayList<>();
+        synchronized (pendingLock) {
+            failed.addAll(pendingCommands);
+            pendingCommands.clear();
+            writeQueue.clear();
+        }
+        for (PendingCommand pending : failed) {
+            if (pending.permit) {
+                pendingPermits.release();
+            }
+            pending.reply.completeExceptionally(new Exception(
+                    "Disconnected from LinuxCNC."));
         }
     }
     
+    @Override
+    public DriverMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public void close() throws IOException {
         try {
@@ -444,6 +670,38 @@ public class LinuxCNC implements ReferenceDriver, Runnable {
             throw new IOException(e);
         }
     }
+    
+    public String getServerIp() {
+        return serverIp;
+    }
+
+    public void setServerIp(String serverIp) {
+        this.serverIp = serverIp;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public boolean isPipelineMoves() {
+        return pipelineMoves;
+    }
+
+    public void setPipelineMoves(boolean pipelineMoves) {
+        this.pipelineMoves = pipelineMoves;
+    }
+
+    public long getStatusPollIntervalMs() {
+        return statusPollIntervalMs;
+    }
+
+    public void setStatusPollIntervalMs(long statusPollIntervalMs) {
+        this.statusPollIntervalMs = statusPollIntervalMs;
+    }
 
     @Override
     public Wizard getConfigurationWizard() {
@@ -488,4 +746,15 @@ public class LinuxCNC implements ReferenceDriver, Runnable {
         // TODO Auto-generated method stub
         
     }
+    
+    private static class PendingCommand {
+        final String command;
+        final boolean permit;
+        final CompletableFuture<String> reply = new CompletableFuture<>();
+        
+        public PendingCommand(String command, boolean permit) {
+            this.command = command;
+            this.permit = permit;
+        }
+    }
 }
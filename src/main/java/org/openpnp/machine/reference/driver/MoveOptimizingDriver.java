@@ -0,0 +1,292 @@
+/*
+ 	Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+
+ 	This file is part of OpenPnP.
+
+	OpenPnP is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    OpenPnP is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with OpenPnP.  If not, see <http://www.gnu.org/licenses/>.
+
+ 	For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.machine.reference.driver;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.Action;
+import javax.swing.Icon;
+
+import org.openpnp.gui.support.Wizard;
+import org.openpnp.machine.reference.ActuatorMacro;
+import org.openpnp.machine.reference.ReferenceActuator;
+import org.openpnp.machine.reference.ReferenceDriver;
+import org.openpnp.machine.reference.ReferenceHead;
+import org.openpnp.machine.reference.ReferenceHeadMountable;
+import org.openpnp.machine.reference.ReferenceNozzle;
+import org.openpnp.machine.reference.ReferencePasteDispenser;
+import org.openpnp.model.Length;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.spi.PropertySheetHolder;
+import org.simpleframework.xml.Attribute;
+import org.simpleframework.xml.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sits in front of another ReferenceDriver and removes the parts of each
+ * move that wouldn't move anything. An axis that is already within
+ * tolerance of its target is left out of the move, as if it had been given
+ * as NaN, and a move with nothing left is not sent at all. This takes care
+ * of the back to back moveToSafeZ() calls that feeders and the job
+ * processor make, and of head.moveToSafeZ() moving every HeadMountable when
+ * only one of them left safe Z.
+ *
+ * Moves are still sent as soon as they are made, so the machine is where
+ * the caller asked when moveTo() returns. Moves are not held back to merge
+ * them with the next one, since cameras capture straight after a move
+ * without telling the driver.
+ *
+ * Until the first home(), and after a move fails, the driver's idea of
+ * where the machine is can't be trusted, so every move is sent as is.
+ *
+ * <pre>
+ * {@code
+ * <driver class="org.openpnp.machine.reference.driver.MoveOptimizingDriver">
+ *     <driver class="org.openpnp.machine.reference.driver.GrblDriver" ... />
+ * </driver>
+ * }
+ * </pre>
+ */
+public class MoveOptimizingDriver implements ReferenceDriver {
+    private final static Logger logger = LoggerFactory.getLogger(MoveOptimizingDriver.class);
+
+    @Element
+    private ReferenceDriver driver;
+
+    /**
+     * Distance in millimeters, and angle in degrees, within which an axis is
+     * considered to already be at its target.
+     */
+    @Attribute(required = false)
+    private double tolerance = 0.0001;
+
+    private final AtomicLong moves = new AtomicLong();
+    private final AtomicLong eliminatedMoves = new AtomicLong();
+    private final AtomicLong eliminatedAxes = new AtomicLong();
+    private volatile boolean locationKnown;
+
+    public MoveOptimizingDriver() {
+    }
+
+    public MoveOptimizingDriver(ReferenceDriver driver) {
+        this.driver = driver;
+    }
+
+    public ReferenceDriver getDriver() {
+        return driver;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Returns the number of moves that have been requested.
+     * @return
+     */
+    public long getMoveCount() {
+        return moves.get();
+    }
+
+    /**
+     * Returns the number of moves that were not sent because every axis was
+     * already at its target.
+     * @return
+     */
+    public long getEliminatedMoveCount() {
+        return eliminatedMoves.get();
+    }
+
+    /**
+     * Returns the number of axes left out of moves that were sent.
+     * @return
+     */
+    public long getEliminatedAxisCount() {
+        return eliminatedAxes.get();
+    }
+
+    @Override
+    public void home(ReferenceHead head) throws Exception {
+        locationKnown = false;
+        driver.home(head);
+        locationKnown = true;
+    }
+
+    @Override
+    public void moveTo(ReferenceHeadMountable hm, Location location, double speed)
+            throws Exception {
+        moves.incrementAndGet();
+        if (locationKnown) {
+            location = optimize(hm, location);
+            if (location == null) {
+                logger.trace("moveTo({}) eliminated", hm);
+                eliminatedMoves.incrementAndGet();
+                return;
+            }
+        }
+        try {
+            driver.moveTo(hm, location, speed);
+        }
+        catch (Exception e) {
+            locationKnown = false;
+            throw e;
+        }
+    }
+
+    /**
+     * Returns location with every axis that is already at its target set to
+     * NaN, or null if that is all of them.
+     */
+    private Location optimize(ReferenceHeadMountable hm, Location location) {
+        Location current = driver.getLocation(hm);
+        if (current == null) {
+            return location;
+        }
+        current = current.convertToUnits(location.getUnits());
+        double tolerance = new Length(this.tolerance, LengthUnit.Millimeters)
+                .convertToUnits(location.getUnits()).getValue();
+        double x = strip(location.getX(), current.getX(), tolerance);
+        double y = strip(location.getY(), current.getY(), tolerance);
+        double z = strip(location.getZ(), current.getZ(), tolerance);
+        double c = strip(location.getRotation(), current.getRotation(), this.tolerance);
+        if (Double.isNaN(x) && Double.isNaN(y) && Double.isNaN(z) && Double.isNaN(c)) {
+            return null;
+        }
+        return new Location(location.getUnits(), x, y, z, c);
+    }
+
+    private double strip(double target, double current, double tolerance) {
+        if (Double.isNaN(target)) {
+            return target;
+        }
+        if (Math.abs(target - current) <= tolerance) {
+            eliminatedAxes.incrementAndGet();
+            return Double.NaN;
+        }
+        return target;
+    }
+
+    @Override
+    public Location getLocation(ReferenceHeadMountable hm) {
+        return driver.getLocation(hm);
+    }
+
+    @Override
+    public void pick(ReferenceNozzle nozzle) throws Exception {
+        driver.pick(nozzle);
+    }
+
+    @Override
+    public void place(ReferenceNozzle nozzle) throws Exception {
+        driver.place(nozzle);
+    }
+
+    @Override
+    public void actuate(ReferenceActuator actuator, boolean on) throws Exception {
+        driver.actuate(actuator, on);
+    }
+
+    @Override
+    public void actuate(ReferenceActuator actuator, double value) throws Exception {
+        driver.actuate(actuator, value);
+    }
+
+    @Override
+    public Future<Void> actuate(ActuatorMacro macro) throws Exception {
+        return driver.actuate(macro);
+    }
+
+    @Override
+    public void barrier() throws Exception {
+        driver.barrier();
+    }
+
+    @Override
+    public void dispense(ReferencePasteDispenser dispenser, Location startLocation,
+            Location endLocation, long dispenseTimeMilliseconds) throws Exception {
+        driver.dispense(dispenser, startLocation, endLocation, dispenseTimeMilliseconds);
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) throws Exception {
+        driver.setEnabled(enabled);
+    }
+
+    @Override
+    public boolean isReachable(ReferenceHeadMountable hm, Location location) {
+        return driver.isReachable(hm, location);
+    }
+
+    /**
+     * Moves are recorded with the wrapped driver's traffic, so there is one
+     * set of metrics per machine.
+     */
+    @Override
+    public DriverMetrics getMetrics() {
+        return driver.getMetrics();
+    }
+
+    @Override
+    public void close() throws IOException {
+        logger.debug("{} moves, {} eliminated, {} axes eliminated",
+                new Object[] { getMoveCount(), getEliminatedMoveCount(), getEliminatedAxisCount() });
+        driver.close();
+    }
+
+    @Override
+    public Wizard getConfigurationWizard() {
+        return null;
+    }
+
+    @Override
+    public String getPropertySheetHolderTitle() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public PropertySheetHolder[] getChildPropertySheetHolders() {
+        return new PropertySheetHolder[] { driver };
+    }
+
+    @Override
+    public PropertySheet[] getPropertySheets() {
+        return null;
+    }
+
+    @Override
+    public Icon getPropertySheetHolderIcon() {
+        return null;
+    }
+
+    @Override
+    public Action[] getPropertySheetHolderActions() {
+        return null;
+    }
+}
@@ -57,9 +57,28 @@ public class NullDriver implements ReferenceDriver {
     @Attribute(required = false)
     private double feedRateMmPerMinute = 5000;
     
+    /**
+     * When set, simulated motion and actuation advance a VirtualClock
+     * instead of sleeping, so a job runs as fast as the host allows and
+     * the clock reports how long it would have taken.
+     */
+    @Attribute(required = false)
+    private boolean virtualTime = false;
+    
+    /**
+     * Acceleration used to time moves in virtual time mode. 0 means moves
+     * run at the feed rate from start to finish.
+     */
+    @Attribute(required = false)
+    private double accelerationMmPerSecond2 = 1000;
+    
+    private final VirtualClock virtualClock = new VirtualClock();
+    
     private HashMap<Head, Location> headLocations = new HashMap<>();
     
     private boolean enabled;
+    
+    private final DriverMetrics metrics = new DriverMetrics();
 
     /**
      * Gets the Location object being tracked for a specific Head. This is the
@@ -122,7 +141,11 @@ public class NullDriver implements ReferenceDriver {
         // Get the current location of the Head that we'll move
         Location hl = getHeadLocation(hm.getHead());
         
-        if (feedRateMmPerMinute > 0) {
+        if (virtualTime) {
+            virtualClock.advance(VirtualClock.getMoveNanos(hl, location,
+                    feedRateMmPerMinute * speed / 60.0, accelerationMmPerSecond2));
+        }
+        else if (feedRateMmPerMinute > 0) {
             simulateMovement(hm, location, hl, speed);
         }
         
@@ -233,18 +256,14 @@ public class NullDriver implements ReferenceDriver {
     public void pick(ReferenceNozzle nozzle) throws Exception {
         logger.debug("pick({})", nozzle);
         checkEnabled();
-        if (feedRateMmPerMinute > 0) {
-            Thread.sleep(500);
-        }
+        delay(500);
     }
 
     @Override
     public void place(ReferenceNozzle nozzle) throws Exception {
         logger.debug("place({})", nozzle);
         checkEnabled();
-        if (feedRateMmPerMinute > 0) {
-            Thread.sleep(500);
-        }
+        delay(500);
     }
 
     @Override
@@ -252,9 +271,7 @@ public class NullDriver implements ReferenceDriver {
             throws Exception {
         logger.debug("actuate({}, {})", actuator, value);
         checkEnabled();
-        if (feedRateMmPerMinute > 0) {
-            Thread.sleep(500);
-        }
+        delay(500);
     }
 
     @Override
@@ -262,9 +279,7 @@ public class NullDriver implements ReferenceDriver {
             throws Exception {
         logger.debug("actuate({}, {})", actuator, on);
         checkEnabled();
-        if (feedRateMmPerMinute > 0) {
-            Thread.sleep(500);
-        }
+        delay(500);
     }
     
     @Override
@@ -273,12 +288,20 @@ public class NullDriver implements ReferenceDriver {
             long dispenseTimeMilliseconds) throws Exception {
         logger.debug("dispense({}, {}, {}, {})", new Object[] { dispenser, startLocation, endLocation, dispenseTimeMilliseconds });
         checkEnabled();
-        Thread.sleep(dispenseTimeMilliseconds);
+        if (virtualTime) {
+            virtualClock.advanceMillis(dispenseTimeMilliseconds);
+        }
+        else {
+            Thread.sleep(dispenseTimeMilliseconds);
+        }
     }
 
     @Override
     public void setEnabled(boolean enabled) throws Exception {
         logger.debug("setEnabled({})", enabled);
+        if (virtualTime && this.enabled && !enabled) {
+            logger.info("Simulated time: {} seconds", virtualClock.getTimeSeconds());
+        }
         this.enabled = enabled;
     }
 
@@ -318,6 +341,20 @@ public class NullDriver implements ReferenceDriver {
         return null;
     }
 
+    /**
+     * Simulates a fixed length operation such as a pick. Advances the
+     * VirtualClock in virtual time mode, otherwise sleeps unless motion
+     * simulation is turned off.
+     */
+    private void delay(long milliseconds) throws InterruptedException {
+        if (virtualTime) {
+            virtualClock.advanceMillis(milliseconds);
+        }
+        else if (feedRateMmPerMinute > 0) {
+            Thread.sleep(milliseconds);
+        }
+    }
+
     private void checkEnabled() throws Exception {
         if (!enabled) {
             throw new Exception("Driver is not yet enabled!");
@@ -332,6 +369,37 @@ public class NullDriver implements ReferenceDriver {
 		this.feedRateMmPerMinute = feedRateMmPerMinute;
 	}
 
+	public boolean isVirtualTime() {
+	    return virtualTime;
+	}
+
+	public void setVirtualTime(boolean virtualTime) {
+	    this.virtualTime = virtualTime;
+	}
+
+	public double getAccelerationMmPerSecond2() {
+	    return accelerationMmPerSecond2;
+	}
+
+	public void setAccelerationMmPerSecond2(double accelerationMmPerSecond2) {
+	    this.accelerationMmPerSecond2 = accelerationMmPerSecond2;
+	}
+
+	/**
+	 * Returns the clock advanced by simulated operations in virtual time
+	 * mode. Reset it before a job and read it afterwards to get the
+	 * simulated job duration.
+	 * @return
+	 */
+	public VirtualClock getVirtualClock() {
+	    return virtualClock;
+	}
+
+    @Override
+    public DriverMetrics getMetrics() {
+        return metrics;
+    }
+
 	@Override
     public void close() throws IOException {
         // TODO Auto-generated method stub
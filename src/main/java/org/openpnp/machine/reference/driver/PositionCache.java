@@ -0,0 +1,248 @@
+/*
+ 	Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+
+ 	This file is part of OpenPnP.
+
+	OpenPnP is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    OpenPnP is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with OpenPnP.  If not, see <http://www.gnu.org/licenses/>.
+
+ 	For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.machine.reference.driver;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Where a driver last commanded the machine to be, next to where the
+ * firmware last said it was. getCommanded() never waits, so getLocation()
+ * can be answered from it however often the DROs and the job processor
+ * ask. Positions reported by the firmware, either in asynchronous status
+ * reports or from a background poll, are compared against it once the
+ * machine has stopped, and the cache is flagged as drifted when an axis
+ * disagrees by more than the tolerance.
+ *
+ * All Locations are in millimeters and degrees, in driver coordinates. In a
+ * reported Location, NaN means the firmware didn't say, and the axis keeps
+ * its last reported value.
+ */
+public class PositionCache {
+    private final static Logger logger = LoggerFactory.getLogger(PositionCache.class);
+
+    private final String name;
+    private volatile double tolerance = 0.01;
+    private volatile Location commanded = new Location(LengthUnit.Millimeters, 0, 0, 0, 0);
+    private volatile Location reported;
+    private volatile long reportedNanos;
+    private volatile boolean moving;
+    private volatile long moveStartedNanos;
+    private volatile long settledNanos;
+    private volatile boolean drifted;
+    private final AtomicLong driftCount = new AtomicLong();
+    private ScheduledExecutorService poller;
+
+    public PositionCache(String name) {
+        this.name = name;
+    }
+
+    public Location getCommanded() {
+        return commanded;
+    }
+
+    /**
+     * Replaces the commanded position and forgets everything the firmware
+     * reported, for when the machine's coordinates are set rather than
+     * moved to, such as on homing.
+     * @param commanded
+     */
+    public void reset(Location commanded) {
+        this.commanded = commanded;
+        reported = null;
+        drifted = false;
+        settledNanos = System.nanoTime();
+    }
+
+    /**
+     * Call before sending a move. Reports received until moveFinished() are
+     * kept but not compared, since the machine is on its way.
+     */
+    public void moveStarted() {
+        moveStartedNanos = System.nanoTime();
+        moving = true;
+    }
+
+    /**
+     * Call once a move is complete with the position it was sent to. The
+     * last report is compared against it if it arrived after the move
+     * started, since firmware that reports on its own usually reports as it
+     * stops.
+     * @param commanded
+     */
+    public void moveFinished(Location commanded) {
+        this.commanded = commanded;
+        moving = false;
+        settledNanos = System.nanoTime();
+        Location reported = this.reported;
+        if (reported != null && reportedNanos - moveStartedNanos >= 0) {
+            check(reported);
+        }
+    }
+
+    /**
+     * Records a position from the firmware.
+     * @param location
+     */
+    public void report(Location location) {
+        report(location, System.nanoTime());
+    }
+
+    /**
+     * Records a position from the firmware that was asked for at
+     * sampledNanos. It is compared against the commanded position unless a
+     * move was started or still running since then.
+     * @param location
+     * @param sampledNanos
+     */
+    public void report(Location location, long sampledNanos) {
+        Location previous = reported;
+        if (previous != null) {
+            location = location.derive(
+                    Double.isNaN(location.getX()) ? previous.getX() : null,
+                    Double.isNaN(location.getY()) ? previous.getY() : null,
+                    Double.isNaN(location.getZ()) ? previous.getZ() : null,
+                    Double.isNaN(location.getRotation()) ? previous.getRotation() : null);
+        }
+        reported = location;
+        reportedNanos = sampledNanos;
+        if (!moving && sampledNanos - settledNanos >= 0) {
+            check(location);
+        }
+    }
+
+    private void check(Location reported) {
+        Location commanded = this.commanded;
+        boolean drift = differs(reported.getX(), commanded.getX())
+                || differs(reported.getY(), commanded.getY())
+                || differs(reported.getZ(), commanded.getZ())
+                || differs(reported.getRotation(), commanded.getRotation());
+        if (drift && !drifted) {
+            driftCount.incrementAndGet();
+            logger.warn("{} position drifted: commanded {}, reported {}",
+                    new Object[] { name, commanded, reported });
+        }
+        else if (!drift && drifted) {
+            logger.info("{} position agrees with firmware again", name);
+        }
+        drifted = drift;
+    }
+
+    private boolean differs(double reported, double commanded) {
+        return !Double.isNaN(reported) && !Double.isNaN(commanded)
+                && Math.abs(reported - commanded) > tolerance;
+    }
+
+    /**
+     * Returns the last position the firmware reported, or null if it hasn't
+     * reported one since the last reset().
+     * @return
+     */
+    public Location getReported() {
+        return reported;
+    }
+
+    /**
+     * Returns true if the last comparison found the firmware somewhere other
+     * than where it was commanded to be.
+     * @return
+     */
+    public boolean isDrifted() {
+        return drifted;
+    }
+
+    /**
+     * Returns the number of times the position has been found to drift.
+     * @return
+     */
+    public long getDriftCount() {
+        return driftCount.get();
+    }
+
+    public boolean isMoving() {
+        return moving;
+    }
+
+    /**
+     * Returns the nanoTime at which the machine last stopped.
+     * @return
+     */
+    public long getSettledNanos() {
+        return settledNanos;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Sets the difference, in millimeters or degrees, above which an axis
+     * is considered to have drifted.
+     * @param tolerance
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Calls query every intervalMs on a background thread and records what
+     * it returns. query should return null when it can't ask the firmware
+     * without getting in the way, for instance while a move is running.
+     * @param intervalMs
+     * @param query
+     */
+    public synchronized void startPolling(long intervalMs, Callable<Location> query) {
+        stopPolling();
+        poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name + " position poll");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(() -> {
+            long sampledNanos = System.nanoTime();
+            try {
+                Location location = query.call();
+                if (location != null) {
+                    report(location, sampledNanos);
+                }
+            }
+            catch (Exception e) {
+                logger.debug(name + " position poll failed", e);
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopPolling() {
+        if (poller != null) {
+            poller.shutdownNow();
+            poller = null;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.openpnp.machine.reference.driver;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * A byte stream to a controller that an AbstractSerialPortDriver can use in
+ * place of a physical serial port, for instance to run a driver against a
+ * firmware simulator.
+ */
+public interface SerialTransport extends Closeable {
+    /**
+     * Returns the stream of bytes coming from the controller. Like the
+     * serial port, read() must not block forever when nothing arrives: it
+     * should throw an {@link InterruptedIOException} after a short time so
+     * that reader threads get a chance to notice a disconnect.
+     * @return
+     */
+    public InputStream getInputStream();
+
+    /**
+     * Returns the stream of bytes going to the controller.
+     * @return
+     */
+    public OutputStream getOutputStream();
+}
@@ -21,12 +21,16 @@
 
 package org.openpnp.machine.reference.driver;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.net.Socket;
 import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 
 import javax.swing.Action;
 import javax.swing.Icon;
@@ -54,17 +58,57 @@ public class SimulatorDriver implements ReferenceDriver {
     @Attribute(required = false)
     private double feedRateMmPerMinute;
     
+    /**
+     * When set, pick, place and actuate advance a VirtualClock instead of
+     * sleeping, and moves advance it by the time they would take at the
+     * feed rate and acceleration. The simulator still animates moves.
+     */
+    @Attribute(required = false)
+    private boolean virtualTime = false;
+    
+    @Attribute(required = false)
+    private double accelerationMmPerSecond2 = 1000;
+    
+    @Attribute(required = false)
+    private String host = "localhost";
+    
+    @Attribute(required = false)
+    private int port = 9037;
+    
+    /**
+     * When set, commands are sent with the framed binary protocol described
+     * in SimulatorProtocol instead of one text line each.
+     */
+    @Attribute(required = false)
+    private boolean binaryProtocol = false;
+    
+    /**
+     * With the binary protocol, moves are held back and sent this many to a
+     * frame. Any other command, barrier() or flushMoves() sends the held
+     * moves first.
+     * The driver's own idea of where the head is does not depend on this, so
+     * only the simulator's animation lags behind.
+     */
+    @Attribute(required = false)
+    private int maxBatchMoves = 1;
+    
+    private final VirtualClock virtualClock = new VirtualClock();
+    
     private HashMap<Head, Location> headLocations = new HashMap<>();
     
     private boolean enabled;
     
+    private final DriverMetrics metrics = new DriverMetrics();
+    
     private Socket socket;
     private DataInputStream in;
     private PrintStream out;
+    private DataOutputStream binaryOut;
     
-    public SimulatorDriver() throws Exception {
-        connect();
-    }
+    private final Map<ReferenceHeadMountable, Integer> movableIds = new HashMap<>();
+    private final ByteArrayOutputStream pendingMoves = new ByteArrayOutputStream();
+    private final DataOutputStream pendingMovesOut = new DataOutputStream(pendingMoves);
+    private int pendingMoveCount;
 
     /**
      * Gets the Location object being tracked for a specific Head. This is the
@@ -90,7 +134,13 @@ public class SimulatorDriver implements ReferenceDriver {
     public void home(ReferenceHead head) throws Exception {
         logger.debug("home()");
         checkEnabled();
-        send("h");
+        if (binaryProtocol) {
+            flushMoves();
+            sendFrame(SimulatorProtocol.FRAME_HOME, null);
+        }
+        else {
+            send("h");
+        }
         setHeadLocation(head, getHeadLocation(head).derive(0.0, 0.0, 0.0, 0.0));
     }
 
@@ -128,24 +178,17 @@ public class SimulatorDriver implements ReferenceDriver {
         // Get the current location of the Head that we'll move
         Location hl = getHeadLocation(hm.getHead());
         
-        String movable;
-        if (hm.toString().equals("N1")) {
-            movable = "Nozzle1";
-        }
-        else if (hm.toString().equals("N2")) {
-            movable = "Nozzle2";
-        }
-        else if (hm.toString().contains("Camera")) {
-            movable = "Camera";
-        }
-        else if (hm.toString().equals("A1")) {
-            movable = "Actuator";
+        if (binaryProtocol) {
+            queueMove(hm, location);
         }
         else {
-            throw new Exception("Don't know what " + hm.toString() + " is.");
+            send(String.format(Locale.US,"m,%s,%f,%f,%f,%f", getMovableName(hm), location.getX(), location.getY(), location.getZ(), location.getRotation()));
         }
         
-        send(String.format(Locale.US,"m,%s,%f,%f,%f,%f", movable, location.getX(), location.getY(), location.getZ(), location.getRotation()));
+        if (virtualTime) {
+            virtualClock.advance(VirtualClock.getMoveNanos(hl, location,
+                    feedRateMmPerMinute * speed / 60.0, accelerationMmPerSecond2));
+        }
         
         // Now that movement is complete, update the stored Location to the new
         // Location, unless the incoming Location specified an axis with a value
@@ -165,18 +208,16 @@ public class SimulatorDriver implements ReferenceDriver {
     public void pick(ReferenceNozzle nozzle) throws Exception {
         logger.debug("pick({})", nozzle);
         checkEnabled();
-        if (feedRateMmPerMinute > 0) {
-            Thread.sleep(500);
-        }
+        flushMoves();
+        delay(500);
     }
 
     @Override
     public void place(ReferenceNozzle nozzle) throws Exception {
         logger.debug("place({})", nozzle);
         checkEnabled();
-        if (feedRateMmPerMinute > 0) {
-            Thread.sleep(500);
-        }
+        flushMoves();
+        delay(500);
     }
 
     @Override
@@ -184,9 +225,8 @@ public class SimulatorDriver implements ReferenceDriver {
             throws Exception {
         logger.debug("actuate({}, {})", actuator, value);
         checkEnabled();
-        if (feedRateMmPerMinute > 0) {
-            Thread.sleep(500);
-        }
+        flushMoves();
+        delay(500);
     }
 
     @Override
@@ -194,9 +234,8 @@ public class SimulatorDriver implements ReferenceDriver {
             throws Exception {
         logger.debug("actuate({}, {})", actuator, on);
         checkEnabled();
-        if (feedRateMmPerMinute > 0) {
-            Thread.sleep(500);
-        }
+        flushMoves();
+        delay(500);
     }
     
     @Override
@@ -208,15 +247,104 @@ public class SimulatorDriver implements ReferenceDriver {
     @Override
     public void setEnabled(boolean enabled) throws Exception {
         logger.debug("setEnabled({})", enabled);
+        if (!enabled) {
+            flushMoves();
+        }
         this.enabled = enabled;
     }
 
+    /**
+     * Sends any moves held back for the next batch, so the last moves of a
+     * job don't wait for an unrelated later command.
+     */
+    @Override
+    public void barrier() throws Exception {
+        flushMoves();
+    }
+
+    private void delay(long milliseconds) throws InterruptedException {
+        if (virtualTime) {
+            virtualClock.advanceMillis(milliseconds);
+        }
+        else if (feedRateMmPerMinute > 0) {
+            Thread.sleep(milliseconds);
+        }
+    }
+
+    /**
+     * Returns the clock advanced by simulated operations in virtual time
+     * mode.
+     * @return
+     */
+    public VirtualClock getVirtualClock() {
+        return virtualClock;
+    }
+
+    public boolean isVirtualTime() {
+        return virtualTime;
+    }
+
+    public void setVirtualTime(boolean virtualTime) {
+        this.virtualTime = virtualTime;
+    }
+
+    public boolean isBinaryProtocol() {
+        return binaryProtocol;
+    }
+
+    public void setBinaryProtocol(boolean binaryProtocol) {
+        this.binaryProtocol = binaryProtocol;
+    }
+
+    public int getMaxBatchMoves() {
+        return maxBatchMoves;
+    }
+
+    public void setMaxBatchMoves(int maxBatchMoves) {
+        this.maxBatchMoves = maxBatchMoves;
+    }
+
     private void checkEnabled() throws Exception {
         if (!enabled) {
             throw new Exception("Driver is not yet enabled!");
         }
     }
     
+    /**
+     * Connects to the simulator at the given address, replacing any existing
+     * connection. If the connection is not made here it is made, using the
+     * host and port attributes, by the first command that needs it.
+     * @param host
+     * @param port
+     * @throws Exception
+     */
+    public synchronized void connect(String host, int port) throws Exception {
+        disconnect();
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(socket.getInputStream());
+        out = new PrintStream(socket.getOutputStream());
+        binaryOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        if (binaryProtocol) {
+            sendFrame(SimulatorProtocol.FRAME_HELLO, new byte[] { SimulatorProtocol.VERSION });
+        }
+    }
+    
+    public synchronized void disconnect() {
+        movableIds.clear();
+        pendingMoves.reset();
+        pendingMoveCount = 0;
+        if (socket != null) {
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+                logger.debug("disconnect()", e);
+            }
+            socket = null;
+        }
+    }
+    
     // TODO: This reconnect stuff totally doesn't work
     private void connect() {
         if (socket == null || !socket.isConnected()) {
@@ -224,9 +352,7 @@ public class SimulatorDriver implements ReferenceDriver {
         }
         while (socket == null || !socket.isConnected()) {
             try {
-                socket = new Socket("localhost", 9037);
-                in = new DataInputStream(socket.getInputStream());
-                out = new PrintStream(socket.getOutputStream());
+                connect(host, port);
                 System.out.println("Connected!");
             }
             catch (Exception e) {
@@ -235,6 +361,94 @@ public class SimulatorDriver implements ReferenceDriver {
         }
     }
     
+    private String getMovableName(ReferenceHeadMountable hm) throws Exception {
+        if (hm.toString().equals("N1")) {
+            return "Nozzle1";
+        }
+        else if (hm.toString().equals("N2")) {
+            return "Nozzle2";
+        }
+        else if (hm.toString().contains("Camera")) {
+            return "Camera";
+        }
+        else if (hm.toString().equals("A1")) {
+            return "Actuator";
+        }
+        throw new Exception("Don't know what " + hm.toString() + " is.");
+    }
+    
+    /**
+     * Returns the id the simulator knows hm by on this connection,
+     * registering it the first time hm is seen.
+     */
+    private int getMovableId(ReferenceHeadMountable hm) throws Exception {
+        Integer id = movableIds.get(hm);
+        if (id == null) {
+            if (movableIds.size() == SimulatorProtocol.MAX_MOVABLES) {
+                throw new Exception("Too many movables for the simulator.");
+            }
+            id = movableIds.size();
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream payloadOut = new DataOutputStream(payload);
+            payloadOut.writeByte(id);
+            payloadOut.writeUTF(getMovableName(hm));
+            sendFrame(SimulatorProtocol.FRAME_REGISTER, payload.toByteArray());
+            movableIds.put(hm, id);
+        }
+        return id;
+    }
+    
+    private synchronized void queueMove(ReferenceHeadMountable hm, Location location) throws Exception {
+        connect();
+        int id = getMovableId(hm);
+        pendingMovesOut.writeByte(id);
+        pendingMovesOut.writeFloat((float) location.getX());
+        pendingMovesOut.writeFloat((float) location.getY());
+        pendingMovesOut.writeFloat((float) location.getZ());
+        pendingMovesOut.writeFloat((float) location.getRotation());
+        pendingMoveCount++;
+        if (pendingMoveCount >= Math.min(Math.max(maxBatchMoves, 1), SimulatorProtocol.MAX_MOVES)) {
+            flushMoves();
+        }
+    }
+    
+    /**
+     * Sends any moves being held back for the next batch.
+     * @throws Exception
+     */
+    public synchronized void flushMoves() throws Exception {
+        if (pendingMoveCount == 0) {
+            return;
+        }
+        byte[] moves = pendingMoves.toByteArray();
+        int count = pendingMoveCount;
+        pendingMoves.reset();
+        pendingMoveCount = 0;
+        byte[] payload = new byte[2 + moves.length];
+        payload[0] = (byte) (count >> 8);
+        payload[1] = (byte) count;
+        System.arraycopy(moves, 0, payload, 2, moves.length);
+        sendFrame(SimulatorProtocol.FRAME_MOVES, payload);
+    }
+    
+    /**
+     * Sends a single binary frame and waits for the simulator to accept it.
+     */
+    private synchronized void sendFrame(int type, byte[] payload) throws Exception {
+        connect();
+        int length = payload == null ? 0 : payload.length;
+        binaryOut.writeByte(type);
+        binaryOut.writeShort(length);
+        if (length > 0) {
+            binaryOut.write(payload);
+        }
+        binaryOut.flush();
+        int status = in.readUnsignedByte();
+        if (status != SimulatorProtocol.STATUS_OK) {
+            throw new Exception("Simulator error: " + in.readUTF());
+        }
+    }
+    
     private void send(String s) {
         try {
             connect();
@@ -286,9 +500,13 @@ public class SimulatorDriver implements ReferenceDriver {
         return null;
     }
 
+    @Override
+    public DriverMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public void close() throws IOException {
-        // TODO Auto-generated method stub
-        
+        disconnect();
     }  
 }
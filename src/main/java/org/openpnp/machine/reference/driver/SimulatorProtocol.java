@@ -0,0 +1,77 @@
+/*
+ 	Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+
+ 	This file is part of OpenPnP.
+
+	OpenPnP is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    OpenPnP is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with OpenPnP.  If not, see <http://www.gnu.org/licenses/>.
+
+ 	For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.machine.reference.driver;
+
+/**
+ * The binary protocol spoken by SimulatorDriver when binaryProtocol is set.
+ * All values are big endian, as written by DataOutputStream.
+ *
+ * Every frame is a one byte type, an unsigned two byte payload length and
+ * the payload. The simulator answers each frame with a one byte status,
+ * followed by a DataOutputStream UTF message if the status is not
+ * STATUS_OK.
+ *
+ * <pre>
+ * HELLO     version:u8
+ * REGISTER  id:u8 name:utf
+ * HOME
+ * MOVES     count:u16 { id:u8 x:f32 y:f32 z:f32 c:f32 } * count
+ * </pre>
+ *
+ * HELLO is sent once after connecting. REGISTER binds a movable name, such
+ * as Nozzle1 or Camera, to the id used for it in MOVES. Coordinates are in
+ * millimeters and degrees, and NaN means the axis does not move.
+ *
+ * The first byte of a frame is never printable, so a simulator can tell a
+ * binary client from a text client by it.
+ */
+public final class SimulatorProtocol {
+    public static final int VERSION = 1;
+
+    public static final int FRAME_HELLO = 0x01;
+    public static final int FRAME_REGISTER = 0x02;
+    public static final int FRAME_HOME = 0x03;
+    public static final int FRAME_MOVES = 0x04;
+
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_ERROR = 1;
+
+    public static final int MAX_PAYLOAD = 0xffff;
+
+    /**
+     * Bytes taken by each move in a MOVES payload.
+     */
+    public static final int MOVE_SIZE = 1 + 4 * 4;
+
+    /**
+     * The most moves that fit in a single MOVES frame.
+     */
+    public static final int MAX_MOVES = (MAX_PAYLOAD - 2) / MOVE_SIZE;
+
+    /**
+     * The most movables that can be registered on one connection.
+     */
+    public static final int MAX_MOVABLES = 256;
+
+    private SimulatorProtocol() {
+    }
+}
@@ -24,7 +24,6 @@ package org.openpnp.machine.reference.driver;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeoutException;
@@ -197,23 +196,22 @@ public class SprinterDriver extends AbstractSerialPortDriver implements Runnable
         double z = location.getZ();
         double c = location.getRotation();
 
-        StringBuffer sb = new StringBuffer();
+        int start = gcode.clear().append("G1").length();
         if (!Double.isNaN(x) && x != this.x) {
-            sb.append(String.format(Locale.US, "X%2.4f ", x));
+            gcode.appendWord('X', x, 4).append(' ');
         }
         if (!Double.isNaN(y) && y != this.y) {
-            sb.append(String.format(Locale.US, "Y%2.4f ", y));
+            gcode.appendWord('Y', y, 4).append(' ');
         }
         if (!Double.isNaN(z) && z != this.z) {
-            sb.append(String.format(Locale.US, "Z%2.4f ", z));
+            gcode.appendWord('Z', z, 4).append(' ');
         }
         if (!Double.isNaN(c) && c != this.c) {
-            sb.append(String.format(Locale.US, "E%2.4f ", c));
+            gcode.appendWord('E', c, 4).append(' ');
         }
-        if (sb.length() > 0) {
-            sb.append(String.format(Locale.US, "F%2.4f ", feedRateMmPerMinute
-                    * speed));
-            sendCommand("G1" + sb.toString());
+        if (gcode.length() > start) {
+            gcode.appendWord('F', feedRateMmPerMinute * speed, 4).append(' ');
+            sendCommand(gcode);
             dwell();
         }
         if (!Double.isNaN(x)) {
@@ -363,24 +361,25 @@ public class SprinterDriver extends AbstractSerialPortDriver implements Runnable
         disconnectRequested = false;
 	}
 
-	protected List<String> sendCommand(String command) throws Exception {
+	protected List<String> sendCommand(CharSequence command) throws Exception {
 		return sendCommand(command, -1);
 	}
 	
-	private List<String> sendCommand(String command, long timeout) throws Exception {
+	private List<String> sendCommand(CharSequence command, long timeout) throws Exception {
 		synchronized (commandLock) {
 			if (command != null) {
-				logger.debug("> " + command);
-				output.write(command.getBytes());
-				output.write("\n".getBytes());
+				logger.debug("> {}", command);
+				writeLine(command);
 			}
 			long t = System.currentTimeMillis();
+			long waitStart = metrics.start();
 			if (timeout == -1) {
 				commandLock.wait();
 			}
 			else {
 				commandLock.wait(timeout);
 			}
+			metrics.recordAcknowledgementWait(waitStart);
 			logger.debug("Waited {} ms for command to return.", (System.currentTimeMillis() - t));
 		}
 		List<String> responses = drainResponseQueue();
@@ -420,7 +419,9 @@ public class SprinterDriver extends AbstractSerialPortDriver implements Runnable
 	 * @throws Exception
 	 */
 	protected void dwell() throws Exception {
+		long t = metrics.start();
 		sendCommand("M400");
+		metrics.record(DriverMetrics.Command.Dwell, t);
 	}
 
 	private List<String> drainResponseQueue() {
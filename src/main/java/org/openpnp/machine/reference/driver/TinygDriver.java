@@ -72,6 +72,7 @@ public class TinygDriver extends AbstractSerialPortDriver implements Runnable {
     private boolean connected;
     private double connectedVersion;
     private JsonParser parser = new JsonParser();
+    private final PositionCache positionCache = new PositionCache("TinyG");
 
     public TinygDriver() {
     }
@@ -154,6 +155,7 @@ public class TinygDriver extends AbstractSerialPortDriver implements Runnable {
         y = homeLocation.getY();
         z = homeLocation.getZ();
         c = homeLocation.getRotation();
+        positionCache.reset(new Location(LengthUnit.Millimeters, x, y, z, c));
     }
 
     @Override
@@ -168,26 +170,27 @@ public class TinygDriver extends AbstractSerialPortDriver implements Runnable {
         double z = location.getZ();
         double c = location.getRotation();
 
-        StringBuffer sb = new StringBuffer();
+        int start = gcode.clear().append("G1 ").length();
         if (!Double.isNaN(x) && x != this.x) {
-            sb.append(String.format(Locale.US, "X%2.2f ", x));
+            gcode.appendWord('X', x, 2).append(' ');
         }
         if (!Double.isNaN(y) && y != this.y) {
-            sb.append(String.format(Locale.US, "Y%2.2f ", y));
+            gcode.appendWord('Y', y, 2).append(' ');
         }
         if (!Double.isNaN(z) && z != this.z) {
-            sb.append(String.format(Locale.US, "Z%2.2f ", z));
+            gcode.appendWord('Z', z, 2).append(' ');
         }
         if (!Double.isNaN(c) && c != this.c) {
-            sb.append(String.format(Locale.US, "A%2.2f ", c));
+            gcode.appendWord('A', c, 2).append(' ');
         }
-        if (sb.length() > 0) {
-            sb.append(String.format(Locale.US, "F%2.2f", feedRateMmPerMinute
-                    * speed));
+        boolean moved = gcode.length() > start;
+        if (moved) {
+            gcode.appendWord('F', feedRateMmPerMinute * speed, 2);
+            positionCache.moveStarted();
             // TODO: Move this type of op into it's own method
             // sendCommandAndWaitForMovementComplete()
             synchronized (movementWaitLock) {
-                JsonObject response = sendCommand("G1 " + sb.toString());
+                JsonObject response = sendCommand(gcode);
                 if (getResponseStatusCode(response) == 0) {
                     waitForMovementComplete();
                 }
@@ -205,6 +208,9 @@ public class TinygDriver extends AbstractSerialPortDriver implements Runnable {
         if (!Double.isNaN(c)) {
             this.c = c;
         }
+        if (moved) {
+            positionCache.moveFinished(new Location(LengthUnit.Millimeters, this.x, this.y, this.z, this.c));
+        }
     }
 
     @Override
@@ -264,26 +270,27 @@ public class TinygDriver extends AbstractSerialPortDriver implements Runnable {
         disconnectRequested = false;
     }
 
-    public JsonObject sendCommand(String command) throws Exception {
+    public JsonObject sendCommand(CharSequence command) throws Exception {
         return sendCommand(command, -1);
     }
 
-    public synchronized JsonObject sendCommand(String command, long timeout)
+    public synchronized JsonObject sendCommand(CharSequence command, long timeout)
             throws Exception {
         JsonObject response;
         synchronized (commandLock) {
             lastResponse = null;
             if (command != null) {
                 logger.debug("sendCommand({}, {})", command, timeout);
-                output.write(command.getBytes());
-                output.write("\n".getBytes());
+                writeLine(command);
             }
+            long waitStart = metrics.start();
             if (timeout == -1) {
                 commandLock.wait();
             }
             else {
                 commandLock.wait(timeout);
             }
+            metrics.recordAcknowledgementWait(waitStart);
             response = lastResponse;
         }
         if (response == null) {
@@ -343,7 +350,24 @@ public class TinygDriver extends AbstractSerialPortDriver implements Runnable {
         }
     }
 
+    /**
+     * Returns the positions commanded and reported by TinyG. Status reports
+     * that include posx, posy, posz or posa are checked against where the
+     * driver sent the machine.
+     * @return
+     */
+    public PositionCache getPositionCache() {
+        return positionCache;
+    }
+
     private void processStatusReport(JsonObject o) {
+        if (o.has("posx") || o.has("posy") || o.has("posz") || o.has("posa")) {
+            positionCache.report(new Location(LengthUnit.Millimeters, 
+                    getReportedPosition(o, "posx"), 
+                    getReportedPosition(o, "posy"),
+                    getReportedPosition(o, "posz"), 
+                    getReportedPosition(o, "posa")));
+        }
         if (o.has("stat")) {
             int stat = o.get("stat").getAsInt();
             if (stat == 3) {
@@ -354,6 +378,10 @@ public class TinygDriver extends AbstractSerialPortDriver implements Runnable {
         }
     }
 
+    private static double getReportedPosition(JsonObject o, String name) {
+        return o.has(name) ? o.get(name).getAsDouble() : Double.NaN;
+    }
+
     // TODO: If no movement is happening this will never return. We may want to
     // have it issue a status report request now and then so it doesn't sit
     // forever.
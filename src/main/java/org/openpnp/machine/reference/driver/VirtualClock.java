@@ -0,0 +1,105 @@
+/*
+ 	Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+
+ 	This file is part of OpenPnP.
+
+	OpenPnP is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    OpenPnP is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with OpenPnP.  If not, see <http://www.gnu.org/licenses/>.
+
+ 	For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.machine.reference.driver;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openpnp.model.Location;
+
+/**
+ * A logical clock for simulated drivers. Instead of sleeping for as long as
+ * the real machine would take, a simulated driver advances the clock by that
+ * amount and returns right away. Reading the clock at the end of a job gives
+ * the time the job would have taken on the machine.
+ */
+public class VirtualClock {
+    private final AtomicLong nanos = new AtomicLong();
+
+    public void advance(long nanos) {
+        this.nanos.addAndGet(nanos);
+    }
+
+    public void advanceMillis(long millis) {
+        advance(millis * 1000000L);
+    }
+
+    public long getTimeNanos() {
+        return nanos.get();
+    }
+
+    public double getTimeSeconds() {
+        return nanos.get() / 1e9;
+    }
+
+    public void reset() {
+        nanos.set(0);
+    }
+
+    /**
+     * Returns the time it takes to move from one Location to another. XY, Z
+     * and C move at the same time, each at the given feed rate with C at ten
+     * times the feed rate, and each plane accelerates and decelerates at the
+     * given rate. Both Locations must be in the same units, and NaN axes in
+     * the destination don't move.
+     * @param from
+     * @param to
+     * @param feedRatePerSecond
+     * @param accelerationPerSecond2 Acceleration, or 0 to move at the feed
+     * rate from start to finish.
+     * @return
+     */
+    public static long getMoveNanos(Location from, Location to, double feedRatePerSecond,
+            double accelerationPerSecond2) {
+        double vx = Double.isNaN(to.getX()) ? 0 : to.getX() - from.getX();
+        double vy = Double.isNaN(to.getY()) ? 0 : to.getY() - from.getY();
+        double vz = Double.isNaN(to.getZ()) ? 0 : to.getZ() - from.getZ();
+        double vc = Double.isNaN(to.getRotation()) ? 0 : (to.getRotation() % 360.0) - from.getRotation();
+        double seconds = Math.max(
+                getMoveSeconds(Math.sqrt(vx * vx + vy * vy), feedRatePerSecond, accelerationPerSecond2),
+                Math.max(
+                        getMoveSeconds(Math.abs(vz), feedRatePerSecond, accelerationPerSecond2),
+                        getMoveSeconds(Math.abs(vc), feedRatePerSecond * 10, accelerationPerSecond2 * 10)));
+        return (long) (seconds * 1e9);
+    }
+
+    /**
+     * Returns the time a move of the given distance takes with a trapezoidal
+     * velocity profile, starting and ending at rest. Moves too short to reach
+     * the feed rate get a triangular profile instead.
+     * @param distance
+     * @param feedRate
+     * @param acceleration
+     * @return
+     */
+    public static double getMoveSeconds(double distance, double feedRate, double acceleration) {
+        if (distance <= 0 || feedRate <= 0) {
+            return 0;
+        }
+        if (acceleration <= 0) {
+            return distance / feedRate;
+        }
+        if (distance >= feedRate * feedRate / acceleration) {
+            return distance / feedRate + feedRate / acceleration;
+        }
+        return 2 * Math.sqrt(distance / acceleration);
+    }
+}
@@ -249,7 +249,8 @@ public class ReferenceStripFeeder extends ReferenceFeeder {
 	    			getHoleDiameterMin(),
 	    			getHoleDiameterMax(), 
 	    			getHolePitchMin())
-	    	.convertCirclesToLocations(holeLocations);
+	    	.convertCirclesToLocations(holeLocations)
+	    	.release();
 	    if (holeLocations.isEmpty()) {
 	    	return null;
 	    }
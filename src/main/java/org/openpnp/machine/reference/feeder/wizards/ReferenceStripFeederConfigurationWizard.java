@@ -537,7 +537,8 @@ public class ReferenceStripFeederConfigurationWizard extends
 					feeder.getHoleDistanceMin(), 
 					feeder.getHoleDistanceMax())
 			.filterCirclesToLine(feeder.getHoleLineDistanceMax())
-			.convertCirclesToLocations(holeLocations);
+			.convertCirclesToLocations(holeLocations)
+			.release();
 	    return holeLocations;
 	}
 	
@@ -550,45 +551,51 @@ public class ReferenceStripFeederConfigurationWizard extends
 	 * @return
 	 */
 	private BufferedImage showHoles(Camera camera, BufferedImage image, boolean showDetails) {
-		if (showDetails) {
-			return new FluentCv()
-				.setCamera(camera)
-				.toMat(image, "original")
-				.toGray()
-				.blurGaussian(feeder.getHoleBlurKernelSize())
-				.findCirclesHough( 
-	                    feeder.getHoleDiameterMin(), 
-	                    feeder.getHoleDiameterMax(), 
-	                    feeder.getHolePitchMin(),
-	                    "houghUnfiltered")
-				.drawCircles("original", Color.red, "unfiltered")
-				.recall("houghUnfiltered")
-				.filterCirclesByDistance(
-						feeder.getHoleDistanceMin(), 
-						feeder.getHoleDistanceMax(), 
-						"houghDistanceFiltered")
-				.drawCircles("unfiltered", Color.blue, "distanceFiltered")
-				.recall("houghDistanceFiltered")
-				.filterCirclesToLine(feeder.getHoleLineDistanceMax())
-				.drawCircles("distanceFiltered", Color.green)
-				.toBufferedImage();
+		FluentCv cv = new FluentCv();
+		try {
+			if (showDetails) {
+				return cv
+					.setCamera(camera)
+					.toMat(image, "original")
+					.toGray()
+					.blurGaussian(feeder.getHoleBlurKernelSize())
+					.findCirclesHough( 
+		                    feeder.getHoleDiameterMin(), 
+		                    feeder.getHoleDiameterMax(), 
+		                    feeder.getHolePitchMin(),
+		                    "houghUnfiltered")
+					.drawCircles("original", Color.red, "unfiltered")
+					.recall("houghUnfiltered")
+					.filterCirclesByDistance(
+							feeder.getHoleDistanceMin(), 
+							feeder.getHoleDistanceMax(), 
+							"houghDistanceFiltered")
+					.drawCircles("unfiltered", Color.blue, "distanceFiltered")
+					.recall("houghDistanceFiltered")
+					.filterCirclesToLine(feeder.getHoleLineDistanceMax())
+					.drawCircles("distanceFiltered", Color.green)
+					.toBufferedImage();
+			}
+			else {
+				return cv
+					.setCamera(camera)
+					.toMat(image, "original")
+					.toGray()
+					.blurGaussian(feeder.getHoleBlurKernelSize())
+					.findCirclesHough( 
+		                    feeder.getHoleDiameterMin(), 
+		                    feeder.getHoleDiameterMax(), 
+		                    feeder.getHolePitchMin())
+					.filterCirclesByDistance(
+							feeder.getHoleDistanceMin(), 
+							feeder.getHoleDistanceMax())
+					.filterCirclesToLine(feeder.getHoleLineDistanceMax())
+					.drawCircles("original", Color.green)
+					.toBufferedImage();
+			}
 		}
-		else {
-			return new FluentCv()
-				.setCamera(camera)
-				.toMat(image, "original")
-				.toGray()
-				.blurGaussian(feeder.getHoleBlurKernelSize())
-				.findCirclesHough( 
-	                    feeder.getHoleDiameterMin(), 
-	                    feeder.getHoleDiameterMax(), 
-	                    feeder.getHolePitchMin())
-				.filterCirclesByDistance(
-						feeder.getHoleDistanceMin(), 
-						feeder.getHoleDistanceMax())
-				.filterCirclesToLine(feeder.getHoleLineDistanceMax())
-				.drawCircles("original", Color.green)
-				.toBufferedImage();
+		finally {
+			cv.release();
 		}
 	}
 	
@@ -25,11 +25,18 @@ import java.awt.Point;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
 
@@ -46,11 +53,11 @@ import org.openpnp.model.Configuration;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
 import org.openpnp.model.Part;
+import org.openpnp.model.Rectangle;
 import org.openpnp.spi.Camera;
 import org.openpnp.spi.Camera.Looking;
 import org.openpnp.spi.Nozzle;
 import org.openpnp.spi.VisionProvider;
-import org.openpnp.util.ImageUtils;
 import org.openpnp.util.OpenCvUtils;
 import org.openpnp.util.VisionUtils;
 import org.simpleframework.xml.Attribute;
@@ -59,6 +66,28 @@ import org.slf4j.LoggerFactory;
 
 public class OpenCvVisionProvider implements VisionProvider {
 	private final static Logger logger = LoggerFactory.getLogger(OpenCvVisionProvider.class);
+
+	/**
+	 * The smallest a template is allowed to get on either side when it is
+	 * scaled down for pyramid matching.
+	 */
+	private static final int MIN_PYRAMID_TEMPLATE_SIZE = 8;
+
+	/**
+	 * Scaled down images correlate less well than full size ones, so the
+	 * coarse search keeps peaks down to this fraction of the threshold.
+	 */
+	private static final double COARSE_THRESHOLD_SCALE = 0.8;
+
+	private static ExecutorService visionExecutor;
+
+	/**
+	 * Template Mats by the image they were made from. The keys are weak, so
+	 * an entry goes away with the last reference to its template image.
+	 */
+	private static final Map<BufferedImage, TemplateMats> grayTemplates = new WeakHashMap<>();
+	private static final Map<BufferedImage, TemplateMats> colorTemplates = new WeakHashMap<>();
+	private static final ThreadLocal<MatchBuffers> matchBuffers = ThreadLocal.withInitial(MatchBuffers::new);
 	private int debugCount = 0;
 
 	static {
@@ -71,6 +100,20 @@ public class OpenCvVisionProvider implements VisionProvider {
 	@Attribute(required = false)
 	private String dummy;
 
+	/**
+	 * If set, template matches are found on scaled down images first and
+	 * only refined at full resolution around the peaks found there.
+	 */
+	@Attribute(required = false)
+	private boolean pyramidMatching = false;
+
+	/**
+	 * The number of times the images are halved in size for pyramid
+	 * matching.
+	 */
+	@Attribute(required = false)
+	private int pyramidLevels = 2;
+
 	protected Camera camera;
 
 	@Override
@@ -78,117 +121,120 @@ public class OpenCvVisionProvider implements VisionProvider {
 		this.camera = camera;
 	}
 
+	public boolean isPyramidMatching() {
+		return pyramidMatching;
+	}
+
+	public void setPyramidMatching(boolean pyramidMatching) {
+		this.pyramidMatching = pyramidMatching;
+	}
+
+	public int getPyramidLevels() {
+		return pyramidLevels;
+	}
+
+	public void setPyramidLevels(int pyramidLevels) {
+		this.pyramidLevels = pyramidLevels;
+	}
+
 	@Override
 	public Wizard getConfigurationWizard() {
 		return new OpenCvVisionProviderConfigurationWizard(this);
 	}
 
 	protected Mat getCameraImage() {
-		BufferedImage image_ = camera.capture();
-		Mat image = OpenCvUtils.toMat(image_);
-		return image;
+		return camera.captureMat();
 	}
 
 	public List<TemplateMatch> getTemplateMatches(BufferedImage template) {
-		return getTemplateMatches(template, 0, 0, 0.65, 0.85);
+		return getTemplateMatches(template, null);
+	}
+
+	public List<TemplateMatch> getTemplateMatches(BufferedImage template, Rectangle roi) {
+		return getTemplateMatches(template, roi, 0, 0, 0.65, 0.85);
+	}
+
+	public List<TemplateMatch> getTemplateMatches(BufferedImage template, double maxRotation, double rotStepSize, double threshold, double corr) {
+		return getTemplateMatches(template, null, maxRotation, rotStepSize, threshold, corr);
 	}
 
 	/**
-	 * Attempt to find matches of the given template within the current camera frame. Matches are returned as TemplateMatch objects which contain a Location in Camera
-	 * coordinates. The results are sorted best score to worst score.
+	 * Attempt to find matches of the given template within roi of the current camera frame. Matches are returned as TemplateMatch objects which contain a
+	 * Location in Camera coordinates. The results are sorted best score to worst score.
 	 * 
 	 * @param template
+	 * @param roi
 	 * @return
 	 */
-	public List<TemplateMatch> getTemplateMatches(BufferedImage template, double maxRotation, double rotStepSize, double threshold, double corr) {
-		// TODO: ROI
-		BufferedImage image = camera.capture();
-
-		// Convert the camera image and template image to the same type. This
-		// is required by the cvMatchTemplate call.
-		template = ImageUtils.convertBufferedImage(template, BufferedImage.TYPE_BYTE_GRAY);
-		image = ImageUtils.convertBufferedImage(image, BufferedImage.TYPE_BYTE_GRAY);
-
-		Mat templateMat = OpenCvUtils.toMat(template);
-		Mat imageMat = OpenCvUtils.toMat(image);
+	public List<TemplateMatch> getTemplateMatches(BufferedImage template, Rectangle roi, double maxRotation, double rotStepSize, double threshold, double corr) {
+		Mat image = camera.captureMat();
+		Rect rect = getRoi(roi, image.cols(), image.rows());
 
-		int result_cols = imageMat.cols() - templateMat.cols() + 1;
-		int result_rows = imageMat.rows() - templateMat.rows() + 1;
-
-		org.opencv.core.Point src_center = new org.opencv.core.Point(imageMat.cols() / 2.0, imageMat.rows() / 2.0);
-		org.opencv.core.Point res_center = new org.opencv.core.Point(result_cols / 2.0, result_rows / 2.0);
+		if (rect.width < template.getWidth() || rect.height < template.getHeight()) {
+			image.release();
+			return new ArrayList<>();
+		}
 
-		HashMap<Double, Mat> resultMat = new HashMap<>();
+		// Convert the camera image and template image to the same type. This
+		// is required by the cvMatchTemplate call. Only the ROI of the camera
+		// image is converted, and the template is converted once and cached.
+		TemplateMats templateMats = getTemplateMats(grayTemplates, template, 1);
+		Mat templateMat = templateMats.mat;
+		Mat imageMat = convertRoi(image, rect, 1);
+		image.release();
 
 		Mat debugMat = null;
 		if (logger.isDebugEnabled()) {
 			debugMat = imageMat.clone();
 		}
 
-		ArrayList<Thread> threads = new ArrayList<>();
-
-		if (maxRotation > 0) {
-			for (double angle = -maxRotation; angle <= maxRotation; angle += rotStepSize) {
-				final double ang = angle;
-				Thread t = new Thread() {
-					public void run() {
-						Mat rotMat = Imgproc.getRotationMatrix2D(src_center, ang, 1.0);
-						Mat antiRotMat = Imgproc.getRotationMatrix2D(res_center, -ang, 1.0);
-						Mat rotImgMat = new Mat();
-						Imgproc.warpAffine(imageMat, rotImgMat, rotMat, imageMat.size());
-
-						Mat rotResultMat = new Mat();
-
-						Imgproc.matchTemplate(rotImgMat, templateMat, rotResultMat, Imgproc.TM_CCOEFF_NORMED);
-
-						Mat rMat = new Mat();
-						Imgproc.warpAffine(rotResultMat, rMat, antiRotMat, rotResultMat.size());
-						synchronized (resultMat) {
-							resultMat.put(ang, rMat);
-						}
-					}
-				};
-				t.start();
-				threads.add(t);
-			}
-
-			for (Thread t : threads)
-				try {
-					t.join();
-				} catch (InterruptedException e) {
-				}
+		// Candidates are found against threshold first and against the best
+		// score over every angle once all of them are in.
+		List<RotationResult> results = new ArrayList<>();
+		List<Candidate> candidates;
+		int levels = pyramidMatching ? getPyramidLevels(templateMat) : 0;
+		if (levels > 0) {
+			candidates = findPyramidCandidates(imageMat, templateMats, levels, maxRotation, rotStepSize, threshold, corr);
 		} else {
-			Mat rMat = new Mat();
-			Imgproc.matchTemplate(imageMat, templateMat, rMat, Imgproc.TM_CCOEFF_NORMED);
-			resultMat.put(0.0, rMat);
+			results = matchRotations(imageMat, templateMat, getAngles(-maxRotation, maxRotation, rotStepSize), threshold, logger.isDebugEnabled());
+			candidates = new ArrayList<>();
+			for (RotationResult result : results) {
+				for (int i = 0; i < result.maxima.size(); i++) {
+					Point point = result.maxima.get(i);
+					candidates.add(new Candidate(point.x, point.y, result.angle, result.scores[i]));
+				}
+			}
 		}
 
 		double maxVal = Double.MIN_VALUE;
 
-		for (Mat m : resultMat.values()) {
-			MinMaxLocResult mmr = Core.minMaxLoc(m);
-			maxVal = Math.max(mmr.maxVal, maxVal);
+		for (RotationResult result : results) {
+			maxVal = Math.max(result.maxVal, maxVal);
+		}
+		for (Candidate candidate : candidates) {
+			maxVal = Math.max(candidate.score, maxVal);
 		}
 
 		double rangeMin = Math.max(threshold, corr * maxVal);
 		double rangeMax = maxVal;
 
 		List<TemplateMatch> matches = new ArrayList<>();
-		for (Map.Entry<Double, Mat> entry : resultMat.entrySet()) {
-			Mat rMat = entry.getValue();
-			for (Point point : matMaxima(rMat, rangeMin, rangeMax)) {
-				TemplateMatch match = new TemplateMatch();
-				int x = point.x;
-				int y = point.y;
-				match.score = rMat.get(y, x)[0] / maxVal;
-				if (logger.isDebugEnabled()) {
-					Core.rectangle(debugMat, new org.opencv.core.Point(x, y), new org.opencv.core.Point(x + templateMat.cols(), y + templateMat.rows()), new Scalar(255));
-					Core.putText(debugMat, "" + match.score, new org.opencv.core.Point(x + templateMat.cols(), y + templateMat.rows()), Core.FONT_HERSHEY_PLAIN, 1.0,
-							new Scalar(255));
-				}
-				match.location = VisionUtils.getPixelLocation(camera, x + (templateMat.cols() / 2), y + (templateMat.rows() / 2)).derive(null, null, null, entry.getKey());
-				matches.add(match);
+		for (Candidate candidate : candidates) {
+			if (candidate.score < rangeMin || candidate.score > rangeMax) {
+				continue;
 			}
+			TemplateMatch match = new TemplateMatch();
+			double x = candidate.x;
+			double y = candidate.y;
+			match.score = candidate.score / maxVal;
+			if (logger.isDebugEnabled()) {
+				Core.rectangle(debugMat, new org.opencv.core.Point(x, y), new org.opencv.core.Point(x + templateMat.cols(), y + templateMat.rows()), new Scalar(255));
+				Core.putText(debugMat, "" + match.score, new org.opencv.core.Point(x + templateMat.cols(), y + templateMat.rows()), Core.FONT_HERSHEY_PLAIN, 1.0,
+						new Scalar(255));
+			}
+			match.location = VisionUtils.getPixelLocation(camera, rect.x + x + (templateMat.cols() / 2), rect.y + y + (templateMat.rows() / 2)).derive(null, null,
+					null, candidate.angle);
+			matches.add(match);
 		}
 
 		mergeNearbyMatches(matches, 1.0); // merge matches closer than 1mm keeping the best one
@@ -203,114 +249,571 @@ public class OpenCvVisionProvider implements VisionProvider {
 		if (logger.isDebugEnabled()) {
 			saveDebugImage(debugCount + "_template", templateMat);
 			saveDebugImage(debugCount + "_camera", imageMat);
-			for (Map.Entry<Double, Mat> entry : resultMat.entrySet())
-				saveDebugImage(debugCount + "_result_" + entry.getKey(), entry.getValue());
+			for (RotationResult result : results) {
+				saveDebugImage(debugCount + "_result_" + result.angle, result.resultMat);
+				result.resultMat.release();
+			}
 			saveDebugImage(debugCount + "_debug", debugMat);
+			debugMat.release();
 			debugCount++;
 		}
 
+		imageMat.release();
+
 		return matches;
 	}
 
-	private void mergeNearbyMatches(List<TemplateMatch> matches, double mergeDist) {
-		if (matches.size() <= 1)
-			return;
-		
-		ArrayList<ArrayList<TemplateMatch>> groups = new ArrayList<>();
-		for (int i = 0; i < matches.size() - 1; i++) {
-			TemplateMatch cur = matches.get(i);
-			double dist = Double.MAX_VALUE;
-			TemplateMatch neighbor = null;
-			for (int j = i + 1; j < matches.size(); j++) {
-				TemplateMatch m = matches.get(j);
-				double pDist = m.location.getLinearDistanceTo(cur.location);
-				if (pDist < dist) {
-					neighbor = m;
-					dist = pDist;
+	/**
+	 * Returns the cached TemplateMats for template converted to type, making
+	 * them if they aren't in cache yet.
+	 */
+	private static TemplateMats getTemplateMats(Map<BufferedImage, TemplateMats> cache, BufferedImage template, int channels) {
+		synchronized (cache) {
+			TemplateMats templateMats = cache.get(template);
+			if (templateMats == null) {
+				// Converted the same way as the camera image so that both
+				// come out with the same gray levels.
+				Mat mat = OpenCvUtils.toMat(template);
+				templateMats = new TemplateMats(convertRoi(mat, new Rect(0, 0, mat.cols(), mat.rows()), channels));
+				mat.release();
+				cache.put(template, templateMats);
+			}
+			return templateMats;
+		}
+	}
+
+	/**
+	 * Returns a new Mat holding rect of mat, which is 8 bit BGR or gray,
+	 * with the given number of channels. Only rect is copied or converted.
+	 */
+	private static Mat convertRoi(Mat mat, Rect rect, int channels) {
+		Mat roi = mat.submat(rect);
+		Mat out = new Mat();
+		if (roi.channels() == channels) {
+			roi.copyTo(out);
+		} else if (channels == 1) {
+			Imgproc.cvtColor(roi, out, Imgproc.COLOR_BGR2GRAY);
+		} else {
+			Imgproc.cvtColor(roi, out, Imgproc.COLOR_GRAY2BGR);
+		}
+		roi.release();
+		return out;
+	}
+
+	/**
+	 * Returns roi clipped to an image of the given size, or the whole image
+	 * if roi is null or empty.
+	 */
+	private static Rect getRoi(Rectangle roi, int width, int height) {
+		if (roi == null || roi.getWidth() <= 0 || roi.getHeight() <= 0) {
+			return new Rect(0, 0, width, height);
+		}
+		int left = Math.max(0, roi.getX());
+		int top = Math.max(0, roi.getY());
+		int right = Math.min(width, roi.getX() + roi.getWidth());
+		int bottom = Math.min(height, roi.getY() + roi.getHeight());
+		return new Rect(left, top, Math.max(0, right - left), Math.max(0, bottom - top));
+	}
+
+	/**
+	 * Returns the angles from min to max, inclusive, in steps of step. A
+	 * step of zero or less returns min alone.
+	 */
+	private static List<Double> getAngles(double min, double max, double step) {
+		List<Double> angles = new ArrayList<>();
+		if (step <= 0 || max <= min) {
+			angles.add(min <= 0 && max >= 0 ? 0.0 : min);
+			return angles;
+		}
+		for (double angle = min; angle <= max; angle += step) {
+			angles.add(angle);
+		}
+		return angles;
+	}
+
+	/**
+	 * Runs matchRotation for each angle on the vision executor and returns
+	 * the results in the same order. A single angle is matched on the
+	 * calling thread.
+	 */
+	private static List<RotationResult> matchRotations(Mat imageMat, Mat templateMat, List<Double> angles, double threshold, boolean keepResults) {
+		List<RotationResult> results = new ArrayList<>();
+		if (angles.size() == 1) {
+			results.add(matchRotation(imageMat, templateMat, angles.get(0), threshold, keepResults));
+			return results;
+		}
+		List<Future<RotationResult>> futures = new ArrayList<>();
+		for (double angle : angles) {
+			futures.add(getVisionExecutor().submit(() -> matchRotation(imageMat, templateMat, angle, threshold, keepResults)));
+		}
+		return getAll(futures);
+	}
+
+	private static <T> List<T> getAll(List<Future<T>> futures) {
+		List<T> results = new ArrayList<>();
+		try {
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+		}
+		catch (Exception e) {
+			for (Future<T> future : futures) {
+				future.cancel(false);
+			}
+			if (e instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			}
+			throw new RuntimeException("Template match failed", e);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the number of pyramid levels to use for templateMat. This is
+	 * pyramidLevels, less any levels that would shrink the template below
+	 * MIN_PYRAMID_TEMPLATE_SIZE pixels on a side.
+	 */
+	private int getPyramidLevels(Mat templateMat) {
+		int size = Math.min(templateMat.cols(), templateMat.rows());
+		int levels = Math.max(0, pyramidLevels);
+		while (levels > 0 && (size >> levels) < MIN_PYRAMID_TEMPLATE_SIZE) {
+			levels--;
+		}
+		return levels;
+	}
+
+	/**
+	 * Returns a new Mat holding mat halved in size levels times.
+	 */
+	private static Mat pyramidDown(Mat mat, int levels) {
+		Mat down = mat.clone();
+		for (int i = 0; i < levels; i++) {
+			Mat next = new Mat();
+			Imgproc.pyrDown(down, next);
+			down.release();
+			down = next;
+		}
+		return down;
+	}
+
+	/**
+	 * Searches the image and template scaled down by 2^levels at a
+	 * correspondingly coarser angle step, then refines each coarse peak in a
+	 * small region of the full resolution image at rotStepSize. Returns the
+	 * refined candidates in full resolution pixels.
+	 */
+	private static List<Candidate> findPyramidCandidates(Mat imageMat, TemplateMats templateMats, int levels, double maxRotation, double rotStepSize, double threshold,
+			double corr) {
+		int scale = 1 << levels;
+		Mat templateMat = templateMats.mat;
+		Mat coarseImage = pyramidDown(imageMat, levels);
+		Mat coarseTemplate = templateMats.getPyramid(levels);
+		double coarseStep = maxRotation > 0 ? Math.min(rotStepSize * scale, maxRotation) : 0;
+		double coarseThreshold = threshold * COARSE_THRESHOLD_SCALE;
+		List<RotationResult> coarseResults = matchRotations(coarseImage, coarseTemplate, getAngles(-maxRotation, maxRotation, coarseStep), coarseThreshold, false);
+		coarseImage.release();
+
+		double coarseMax = Double.MIN_VALUE;
+		for (RotationResult result : coarseResults) {
+			coarseMax = Math.max(result.maxVal, coarseMax);
+		}
+		coarseThreshold = Math.max(coarseThreshold, corr * coarseMax * COARSE_THRESHOLD_SCALE);
+
+		// Keep the best angle for each coarse location.
+		Map<Point, Candidate> coarse = new LinkedHashMap<>();
+		for (RotationResult result : coarseResults) {
+			for (int i = 0; i < result.maxima.size(); i++) {
+				if (result.scores[i] < coarseThreshold) {
+					continue;
+				}
+				Point point = result.maxima.get(i);
+				Candidate candidate = coarse.get(point);
+				if (candidate == null || candidate.score < result.scores[i]) {
+					coarse.put(point, new Candidate(point.x, point.y, result.angle, result.scores[i]));
 				}
 			}
+		}
 
-			int selfGroup = 0;
-			for (; selfGroup < groups.size(); selfGroup++) {
-				if (groups.get(selfGroup).contains(cur))
-					break;
+		List<Future<Candidate>> futures = new ArrayList<>();
+		for (Candidate candidate : coarse.values()) {
+			List<Double> angles = getAngles(Math.max(-maxRotation, candidate.angle - coarseStep), Math.min(maxRotation, candidate.angle + coarseStep), rotStepSize);
+			futures.add(getVisionExecutor().submit(() -> refineCandidate(imageMat, templateMat, candidate.x * scale, candidate.y * scale, scale, angles)));
+		}
+		List<Candidate> candidates = new ArrayList<>();
+		for (Candidate candidate : getAll(futures)) {
+			if (candidate != null && candidate.score >= threshold) {
+				candidates.add(candidate);
 			}
+		}
+		return candidates;
+	}
 
-			int group = 0;
-			for (; group < groups.size(); group++) {
-				if (groups.get(group).contains(neighbor))
-					break;
+	/**
+	 * Matches templateMat at each of angles in a region of imageMat around
+	 * the estimated top left corner x, y, and returns the best match with its
+	 * position interpolated to sub-pixel accuracy, or null if the region is
+	 * cut down by the edge of the image to less than the template.
+	 */
+	private static Candidate refineCandidate(Mat imageMat, Mat templateMat, double x, double y, int scale, List<Double> angles) {
+		int margin = 2 * scale;
+		int halfWidth = templateMat.cols() / 2 + margin;
+		int halfHeight = templateMat.rows() / 2 + margin;
+		if (angles.size() > 1 || angles.get(0) != 0) {
+			// Leave room for the corners of the template to rotate into.
+			halfWidth = halfHeight = (int) Math.ceil(Math.hypot(templateMat.cols(), templateMat.rows()) / 2) + margin;
+		}
+		int centerX = (int) Math.round(x) + templateMat.cols() / 2;
+		int centerY = (int) Math.round(y) + templateMat.rows() / 2;
+		int left = Math.max(0, centerX - halfWidth);
+		int top = Math.max(0, centerY - halfHeight);
+		int right = Math.min(imageMat.cols(), centerX + halfWidth);
+		int bottom = Math.min(imageMat.rows(), centerY + halfHeight);
+		if (right - left < templateMat.cols() || bottom - top < templateMat.rows()) {
+			return null;
+		}
+		Mat roi = imageMat.submat(top, bottom, left, right);
+
+		MatchBuffers buffers = matchBuffers.get();
+		Candidate best = null;
+		for (double angle : angles) {
+			Mat result = rotateAndMatch(roi, templateMat, angle, buffers);
+			MinMaxLocResult mmr = Core.minMaxLoc(result);
+			if (best != null && mmr.maxVal <= best.score) {
+				continue;
 			}
+			buffers.data = getFloatData(result, buffers.data);
+			double[] peak = subPixelPeak(buffers.data, result.rows(), result.cols(), (int) mmr.maxLoc.x, (int) mmr.maxLoc.y);
+			best = new Candidate(left + peak[0], top + peak[1], angle, mmr.maxVal);
+		}
+		roi.release();
+		return best;
+	}
+
+	/**
+	 * Returns the position of the peak at x, y in a rows by cols image,
+	 * stored row by row in data, refined to sub-pixel accuracy by fitting a
+	 * parabola through it and its neighbours on each axis. An axis is left
+	 * as is at the edge of the image or if the peak isn't higher than its
+	 * neighbours on that axis.
+	 */
+	public static double[] subPixelPeak(float[] data, int rows, int cols, int x, int y) {
+		int i = y * cols + x;
+		double dx = 0, dy = 0;
+		if (x > 0 && x < cols - 1) {
+			dx = parabolaPeak(data[i - 1], data[i], data[i + 1]);
+		}
+		if (y > 0 && y < rows - 1) {
+			dy = parabolaPeak(data[i - cols], data[i], data[i + cols]);
+		}
+		return new double[] { x + dx, y + dy };
+	}
+
+	private static double parabolaPeak(double before, double peak, double after) {
+		double curvature = before - 2 * peak + after;
+		if (curvature >= 0) {
+			return 0;
+		}
+		double offset = (before - after) / (2 * curvature);
+		return Math.max(-0.5, Math.min(0.5, offset));
+	}
+
+	/**
+	 * Returns the executor that template matching at several rotations is
+	 * spread over, with one thread per core.
+	 */
+	private static synchronized ExecutorService getVisionExecutor() {
+		if (visionExecutor == null) {
+			AtomicInteger count = new AtomicInteger();
+			visionExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+				Thread thread = new Thread(runnable, "Vision " + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return visionExecutor;
+	}
+
+	/**
+	 * Matches templateMat against imageMat rotated by angle and returns the
+	 * peaks scoring at least threshold, in the coordinates of the unrotated
+	 * image. The intermediate Mats belong to the calling thread and are
+	 * reused by its next call. If keepResult is set a copy of the result is
+	 * returned too, which the caller must release.
+	 */
+	private static RotationResult matchRotation(Mat imageMat, Mat templateMat, double angle, double threshold, boolean keepResult) {
+		MatchBuffers buffers = matchBuffers.get();
+		Mat result = rotateAndMatch(imageMat, templateMat, angle, buffers);
+
+		RotationResult rotationResult = new RotationResult(angle);
+		rotationResult.maxVal = Core.minMaxLoc(result).maxVal;
+		buffers.data = getFloatData(result, buffers.data);
+		rotationResult.maxima = matMaxima(buffers.data, result.rows(), result.cols(), threshold, Double.MAX_VALUE);
+		rotationResult.scores = new double[rotationResult.maxima.size()];
+		for (int i = 0; i < rotationResult.scores.length; i++) {
+			Point point = rotationResult.maxima.get(i);
+			rotationResult.scores[i] = buffers.data[point.y * result.cols() + point.x];
+		}
+		if (keepResult) {
+			rotationResult.resultMat = result.clone();
+		}
+		return rotationResult;
+	}
+
+	/**
+	 * Matches templateMat against imageMat rotated by angle about its center
+	 * and rotates the result back. Returns one of the Mats in buffers, so it
+	 * is only good until the next call on this thread.
+	 */
+	private static Mat rotateAndMatch(Mat imageMat, Mat templateMat, double angle, MatchBuffers buffers) {
+		if (angle == 0) {
+			Imgproc.matchTemplate(imageMat, templateMat, buffers.result, Imgproc.TM_CCOEFF_NORMED);
+			return buffers.result;
+		}
+		int result_cols = imageMat.cols() - templateMat.cols() + 1;
+		int result_rows = imageMat.rows() - templateMat.rows() + 1;
+
+		org.opencv.core.Point src_center = new org.opencv.core.Point(imageMat.cols() / 2.0, imageMat.rows() / 2.0);
+		org.opencv.core.Point res_center = new org.opencv.core.Point(result_cols / 2.0, result_rows / 2.0);
+
+		Mat rotMat = Imgproc.getRotationMatrix2D(src_center, angle, 1.0);
+		Mat antiRotMat = Imgproc.getRotationMatrix2D(res_center, -angle, 1.0);
+		Imgproc.warpAffine(imageMat, buffers.rotImg, rotMat, imageMat.size());
+		Imgproc.matchTemplate(buffers.rotImg, templateMat, buffers.rotResult, Imgproc.TM_CCOEFF_NORMED);
+		Imgproc.warpAffine(buffers.rotResult, buffers.result, antiRotMat, buffers.rotResult.size());
+		rotMat.release();
+		antiRotMat.release();
+		return buffers.result;
+	}
+
+	/**
+	 * A template converted to a Mat, along with its scaled down copies for
+	 * pyramid matching, which are made as they are first asked for. These
+	 * are shared between calls and threads and must not be modified or
+	 * released.
+	 */
+	private static class TemplateMats {
+		final Mat mat;
+		private final Map<Integer, Mat> pyramid = new HashMap<>();
+
+		TemplateMats(Mat mat) {
+			this.mat = mat;
+		}
+
+		synchronized Mat getPyramid(int levels) {
+			Mat down = pyramid.get(levels);
+			if (down == null) {
+				down = pyramidDown(mat, levels);
+				pyramid.put(levels, down);
+			}
+			return down;
+		}
+	}
+
+	private static class Candidate {
+		final double x;
+		final double y;
+		final double angle;
+		final double score;
+
+		Candidate(double x, double y, double angle, double score) {
+			this.x = x;
+			this.y = y;
+			this.angle = angle;
+			this.score = score;
+		}
+	}
 
-			if (dist <= mergeDist) { // close enough
-				if (selfGroup >= groups.size()) { // no self group
-					if (group >= groups.size()) { // neighbor no group
-						ArrayList<TemplateMatch> gList = new ArrayList<>(); // new group
-						gList.add(cur);
-						gList.add(neighbor);
-						groups.add(gList);
-					} else { // neighbor has group
-						groups.get(group).add(cur);
+	/**
+	 * The Mats and buffer one thread uses for matchRotation.
+	 */
+	private static class MatchBuffers {
+		final Mat rotImg = new Mat();
+		final Mat rotResult = new Mat();
+		final Mat result = new Mat();
+		float[] data;
+	}
+
+	private static class RotationResult {
+		final double angle;
+		double maxVal;
+		List<Point> maxima;
+		double[] scores;
+		Mat resultMat;
+
+		RotationResult(double angle) {
+			this.angle = angle;
+		}
+	}
+
+	/**
+	 * Replaces matches with the best scoring match of each cluster. Matches
+	 * are taken best first, and each joins the cluster of the nearest better
+	 * match within mergeDist that heads a cluster, or heads a new one.
+	 * Comparing against the best match rather than any member keeps a chain
+	 * of weak maxima running between two parts from merging them. The
+	 * cluster heads are put in a grid of mergeDist sized cells, so only the
+	 * heads in neighbouring cells need to be compared, and the clusters are
+	 * joined with union-find. Clusters are kept in the order of their first
+	 * match.
+	 */
+	public static void mergeNearbyMatches(List<TemplateMatch> matches, double mergeDist) {
+		int count = matches.size();
+		if (count <= 1)
+			return;
+
+		LengthUnit units = matches.get(0).location.getUnits();
+		double[] xs = new double[count];
+		double[] ys = new double[count];
+		for (int i = 0; i < count; i++) {
+			Location location = matches.get(i).location.convertToUnits(units);
+			xs[i] = location.getX();
+			ys[i] = location.getY();
+		}
+
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(matches.get(b).score, matches.get(a).score));
+
+		double cellSize = mergeDist > 0 ? mergeDist : 1;
+		Map<Long, List<Integer>> cells = new HashMap<>();
+		int[] parents = new int[count];
+		for (int i = 0; i < count; i++) {
+			parents[i] = i;
+		}
+		for (int i : order) {
+			long cellX = (long) Math.floor(xs[i] / cellSize);
+			long cellY = (long) Math.floor(ys[i] / cellSize);
+			int head = -1;
+			double headDist = mergeDist;
+			for (long cx = cellX - 1; cx <= cellX + 1; cx++) {
+				for (long cy = cellY - 1; cy <= cellY + 1; cy++) {
+					List<Integer> cell = cells.get(getCellKey(cx, cy));
+					if (cell == null) {
+						continue;
 					}
-				} else { // have existing group
-					if (group >= groups.size()) { // neighbor no group
-						groups.get(selfGroup).add(neighbor);
-					} else { // neighbor has group
-						groups.get(group).addAll(groups.get(selfGroup)); // merge groups
-						groups.get(selfGroup).clear();
+					for (int j : cell) {
+						double dist = Math.hypot(xs[i] - xs[j], ys[i] - ys[j]);
+						if (dist <= headDist) {
+							head = j;
+							headDist = dist;
+						}
 					}
 				}
-			} else {
-				if (selfGroup >= groups.size()) { // no self group
-					ArrayList<TemplateMatch> gList = new ArrayList<>(); // new group
-					gList.add(cur);
-					groups.add(gList);
+			}
+			if (head != -1) {
+				union(parents, i, head);
+			}
+			else {
+				cells.computeIfAbsent(getCellKey(cellX, cellY), k -> new ArrayList<>()).add(i);
+			}
+		}
 
-				}
+		// Find the best match of each cluster, then keep them in order.
+		int[] best = new int[count];
+		Arrays.fill(best, -1);
+		for (int i = 0; i < count; i++) {
+			int root = find(parents, i);
+			if (best[root] == -1 || matches.get(i).score > matches.get(best[root]).score) {
+				best[root] = i;
+			}
+		}
+		List<TemplateMatch> merged = new ArrayList<>();
+		boolean[] added = new boolean[count];
+		for (int i = 0; i < count; i++) {
+			int root = find(parents, i);
+			if (!added[root]) {
+				added[root] = true;
+				merged.add(matches.get(best[root]));
 			}
 		}
 
 		matches.clear();
+		matches.addAll(merged);
+	}
 
-		for (ArrayList<TemplateMatch> list : groups) {
-			if (list.size() > 0) {
-				TemplateMatch best = list.get(0);
-				for (int i = 1; i < list.size(); i++)
-					if (list.get(i).score > best.score)
-						best = list.get(i);
-				matches.add(best);
-			}
+	private static long getCellKey(long cellX, long cellY) {
+		return (cellX << 32) ^ (cellY & 0xffffffffL);
+	}
+
+	private static int find(int[] parents, int i) {
+		while (parents[i] != i) {
+			parents[i] = parents[parents[i]];
+			i = parents[i];
+		}
+		return i;
+	}
+
+	private static void union(int[] parents, int a, int b) {
+		a = find(parents, a);
+		b = find(parents, b);
+		if (a != b) {
+			parents[Math.max(a, b)] = Math.min(a, b);
 		}
 	}
 
 	@Override
 	public Point[] locateTemplateMatches(int roiX, int roiY, int roiWidth, int roiHeight, int coiX, int coiY, BufferedImage templateImage_) throws Exception {
-		BufferedImage cameraImage_ = camera.capture();
+		Mat cameraImage = camera.captureMat();
+		Rect rect = getRoi(new Rectangle(roiX, roiY, roiWidth, roiHeight), cameraImage.cols(), cameraImage.rows());
 
 		// Convert the camera image and template image to the same type. This
-		// is required by the cvMatchTemplate call.
-		templateImage_ = ImageUtils.convertBufferedImage(templateImage_, BufferedImage.TYPE_INT_ARGB);
-		cameraImage_ = ImageUtils.convertBufferedImage(cameraImage_, BufferedImage.TYPE_INT_ARGB);
-
-		Mat templateImage = OpenCvUtils.toMat(templateImage_);
-		Mat cameraImage = OpenCvUtils.toMat(cameraImage_);
-		Mat roiImage = new Mat(cameraImage, new Rect(roiX, roiY, roiWidth, roiHeight));
-
-		// http://stackoverflow.com/questions/17001083/opencv-template-matching-example-in-android
-		Mat resultImage = new Mat(roiImage.cols() - templateImage.cols() + 1, roiImage.rows() - templateImage.rows() + 1, CvType.CV_32FC1);
-		Imgproc.matchTemplate(roiImage, templateImage, resultImage, Imgproc.TM_CCOEFF);
+		// is required by the cvMatchTemplate call. Only the ROI of the camera
+		// image is converted.
+		TemplateMats templateMats = getTemplateMats(colorTemplates, templateImage_, 3);
+		Mat templateImage = templateMats.mat;
+		Mat roiImage = convertRoi(cameraImage, rect, 3);
+		cameraImage.release();
+
+		org.opencv.core.Point matchLoc;
+		double matchValue;
+		int levels = pyramidMatching ? getPyramidLevels(templateImage) : 0;
+		if (levels > 0) {
+			// Find the peak in the scaled down region, then look for it again
+			// at full resolution in a small window around where it should be.
+			int scale = 1 << levels;
+			Mat coarseRoi = pyramidDown(roiImage, levels);
+			Mat coarseTemplate = templateMats.getPyramid(levels);
+			Mat coarseResult = new Mat();
+			Imgproc.matchTemplate(coarseRoi, coarseTemplate, coarseResult, Imgproc.TM_CCOEFF);
+			org.opencv.core.Point coarseLoc = Core.minMaxLoc(coarseResult).maxLoc;
+			coarseRoi.release();
+			coarseResult.release();
+
+			int margin = 2 * scale;
+			int left = Math.max(0, (int) coarseLoc.x * scale - margin);
+			int top = Math.max(0, (int) coarseLoc.y * scale - margin);
+			int right = Math.min(roiImage.cols(), (int) coarseLoc.x * scale + templateImage.cols() + margin);
+			int bottom = Math.min(roiImage.rows(), (int) coarseLoc.y * scale + templateImage.rows() + margin);
+			Mat fineRoi = roiImage.submat(top, bottom, left, right);
+			Mat resultImage = new Mat();
+			Imgproc.matchTemplate(fineRoi, templateImage, resultImage, Imgproc.TM_CCOEFF);
+			MinMaxLocResult mmr = Core.minMaxLoc(resultImage);
+			double[] peak = subPixelPeak(getFloatData(resultImage, null), resultImage.rows(), resultImage.cols(), (int) mmr.maxLoc.x, (int) mmr.maxLoc.y);
+			matchLoc = new org.opencv.core.Point(left + peak[0], top + peak[1]);
+			matchValue = mmr.maxVal;
+			fineRoi.release();
+			resultImage.release();
+		} else {
+			// http://stackoverflow.com/questions/17001083/opencv-template-matching-example-in-android
+			Mat resultImage = new Mat(roiImage.cols() - templateImage.cols() + 1, roiImage.rows() - templateImage.rows() + 1, CvType.CV_32FC1);
+			Imgproc.matchTemplate(roiImage, templateImage, resultImage, Imgproc.TM_CCOEFF);
 
-		MinMaxLocResult mmr = Core.minMaxLoc(resultImage);
+			MinMaxLocResult mmr = Core.minMaxLoc(resultImage);
 
-		org.opencv.core.Point matchLoc = mmr.maxLoc;
-		double matchValue = mmr.maxVal;
+			matchLoc = mmr.maxLoc;
+			matchValue = mmr.maxVal;
+		}
 
 		// TODO: Figure out certainty and how to filter on it.
 
 		logger.debug(String.format("locateTemplateMatches certainty %f at %f, %f", matchValue, matchLoc.x, matchLoc.y));
 		locateTemplateMatchesDebug(roiImage, templateImage, matchLoc);
 
-		return new Point[] { new Point(((int) matchLoc.x) + roiX, ((int) matchLoc.y) + roiY) };
+		roiImage.release();
+
+		return new Point[] { new Point(((int) Math.round(matchLoc.x)) + rect.x, ((int) Math.round(matchLoc.y)) + rect.y) };
 	}
 
 	protected void saveDebugImage(String name, Mat mat) {
@@ -377,47 +880,78 @@ public class OpenCvVisionProvider implements VisionProvider {
 		BEFORE_INFLECTION, AFTER_INFLECTION
 	}
 
-	static List<Point> matMaxima(Mat mat, double rangeMin, double rangeMax) {
+	/**
+	 * Returns the local maxima of a single channel Mat whose values are
+	 * between rangeMin and rangeMax. The Mat is copied into a float[] once
+	 * and the search is done on that.
+	 */
+	public static List<Point> matMaxima(Mat mat, double rangeMin, double rangeMax) {
+		return matMaxima(getFloatData(mat, null), mat.rows(), mat.cols(), rangeMin, rangeMax);
+	}
+
+	/**
+	 * Copies a single channel Mat into buffer, converting it to float first
+	 * if needed, and returns buffer. If buffer is null or too small a new one
+	 * is allocated and returned instead.
+	 */
+	public static float[] getFloatData(Mat mat, float[] buffer) {
+		if (mat.type() != CvType.CV_32FC1) {
+			Mat tmp = new Mat();
+			mat.convertTo(tmp, CvType.CV_32FC1);
+			mat = tmp;
+		}
+		else if (!mat.isContinuous()) {
+			mat = mat.clone();
+		}
+		int size = (int) mat.total();
+		if (buffer == null || buffer.length < size) {
+			buffer = new float[size];
+		}
+		mat.get(0, 0, buffer);
+		return buffer;
+	}
+
+	/**
+	 * Returns the local maxima of a rows by cols image, stored row by row in
+	 * data, whose values are between rangeMin and rangeMax. Each row is
+	 * scanned for maxima, and a row maximum is kept if none of its
+	 * neighbours in the rows above and below or the column before it is
+	 * higher. Neighbours outside the image are ignored.
+	 */
+	public static List<Point> matMaxima(float[] data, int rows, int cols, double rangeMin, double rangeMax) {
 		List<Point> locations = new ArrayList<>();
 
-		int rEnd = mat.rows() - 1;
-		int cEnd = mat.cols() - 1;
+		int rEnd = rows - 1;
+		int cEnd = cols - 1;
 
 		// CHECK EACH ROW MAXIMA FOR LOCAL 2D MAXIMA
 		for (int r = 0; r <= rEnd; r++) {
+			int row = r * cols;
+			int above = row - cols;
+			int below = row + cols;
 			MinMaxState state = MinMaxState.BEFORE_INFLECTION;
-			double curVal = mat.get(r, 0)[0];
+			float curVal = data[row];
 			for (int c = 1; c <= cEnd; c++) {
-				double val = mat.get(r, c)[0];
+				float val = data[row + c];
 
 				if (val == curVal) {
 					continue;
 				} else if (curVal < val) {
-					if (state == MinMaxState.BEFORE_INFLECTION) {
-						// n/a
-					} else {
-						state = MinMaxState.BEFORE_INFLECTION;
-					}
+					state = MinMaxState.BEFORE_INFLECTION;
 				} else { // curVal > val
 					if (state == MinMaxState.BEFORE_INFLECTION) {
 						if (rangeMin <= curVal && curVal <= rangeMax) { // ROW
 																		// MAXIMA
-							if (0 < r && (mat.get(r - 1, c - 1)[0] >= curVal || mat.get(r - 1, c)[0] >= curVal)) {
-								// cout << "reject:r-1 " << r << "," << c-1 <<
-								// endl;
+							if (0 < r && (data[above + c - 1] >= curVal || data[above + c] >= curVal)) {
 								// - x x
 								// - - -
 								// - - -
-							} else if (r < rEnd && (mat.get(r + 1, c - 1)[0] > curVal || mat.get(r + 1, c)[0] > curVal)) {
-								// cout << "reject:r+1 " << r << "," << c-1 <<
-								// endl;
+							} else if (r < rEnd && (data[below + c - 1] > curVal || data[below + c] > curVal)) {
 								// - - -
 								// - - -
 								// - x x
 							} else if (1 < c
-									&& (0 < r && mat.get(r - 1, c - 2)[0] >= curVal || mat.get(r, c - 2)[0] > curVal || r < rEnd && mat.get(r + 1, c - 2)[0] > curVal)) {
-								// cout << "reject:c-2 " << r << "," << c-1 <<
-								// endl;
+									&& (0 < r && data[above + c - 2] >= curVal || data[row + c - 2] > curVal || r < rEnd && data[below + c - 2] > curVal)) {
 								// x - -
 								// x - -
 								// x - -
@@ -426,8 +960,6 @@ public class OpenCvVisionProvider implements VisionProvider {
 							}
 						}
 						state = MinMaxState.AFTER_INFLECTION;
-					} else {
-						// n/a
 					}
 				}
 
@@ -437,21 +969,15 @@ public class OpenCvVisionProvider implements VisionProvider {
 			// PROCESS END OF ROW
 			if (state == MinMaxState.BEFORE_INFLECTION) {
 				if (rangeMin <= curVal && curVal <= rangeMax) { // ROW MAXIMA
-					if (0 < r && (mat.get(r - 1, cEnd - 1)[0] >= curVal || mat.get(r - 1, cEnd)[0] >= curVal)) {
-						// cout << "rejectEnd:r-1 " << r << "," << cEnd-1 <<
-						// endl;
+					if (0 < r && ((0 < cEnd && data[above + cEnd - 1] >= curVal) || data[above + cEnd] >= curVal)) {
 						// - x x
 						// - - -
 						// - - -
-					} else if (r < rEnd && (mat.get(r + 1, cEnd - 1)[0] > curVal || mat.get(r + 1, cEnd)[0] > curVal)) {
-						// cout << "rejectEnd:r+1 " << r << "," << cEnd-1 <<
-						// endl;
+					} else if (r < rEnd && ((0 < cEnd && data[below + cEnd - 1] > curVal) || data[below + cEnd] > curVal)) {
 						// - - -
 						// - - -
 						// - x x
-					} else if (1 < r && mat.get(r - 1, cEnd - 2)[0] >= curVal || mat.get(r, cEnd - 2)[0] > curVal || r < rEnd && mat.get(r + 1, cEnd - 2)[0] > curVal) {
-						// cout << "rejectEnd:cEnd-2 " << r << "," << cEnd-1 <<
-						// endl;
+					} else if (1 < cEnd && (1 < r && data[above + cEnd - 2] >= curVal || data[row + cEnd - 2] > curVal || r < rEnd && data[below + cEnd - 2] > curVal)) {
 						// x - -
 						// x - -
 						// x - -
@@ -21,27 +21,66 @@
 
 package org.openpnp.machine.reference.vision.wizards;
 
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.swing.border.TitledBorder;
 
+import org.openpnp.gui.components.ComponentDecorators;
 import org.openpnp.gui.support.AbstractConfigurationWizard;
+import org.openpnp.gui.support.IntegerConverter;
 import org.openpnp.machine.reference.vision.OpenCvVisionProvider;
-import javax.swing.JLabel;
+
+import com.jgoodies.forms.layout.ColumnSpec;
+import com.jgoodies.forms.layout.FormLayout;
+import com.jgoodies.forms.layout.FormSpecs;
+import com.jgoodies.forms.layout.RowSpec;
 
 @SuppressWarnings("serial")
 public class OpenCvVisionProviderConfigurationWizard extends AbstractConfigurationWizard {
 	private final OpenCvVisionProvider visionProvider;
 
 	private JPanel panelGeneral;
+	private JCheckBox chckbxPyramidMatching;
+	private JTextField textFieldPyramidLevels;
 
 	public OpenCvVisionProviderConfigurationWizard(
 			OpenCvVisionProvider visionProvider) {
 		this.visionProvider = visionProvider;
 		
-		JLabel lblOpencvvisionproviderconfigurationwizardPlaceholder = new JLabel("OpenCvVisionProviderConfigurationWizard Placeholder");
-		contentPanel.add(lblOpencvvisionproviderconfigurationwizardPlaceholder);
+		panelGeneral = new JPanel();
+		panelGeneral.setBorder(new TitledBorder(null, "Template Matching", TitledBorder.LEADING, TitledBorder.TOP, null, null));
+		contentPanel.add(panelGeneral);
+		panelGeneral.setLayout(new FormLayout(new ColumnSpec[] {
+				FormSpecs.RELATED_GAP_COLSPEC,
+				FormSpecs.DEFAULT_COLSPEC,
+				FormSpecs.RELATED_GAP_COLSPEC,
+				FormSpecs.DEFAULT_COLSPEC,},
+			new RowSpec[] {
+				FormSpecs.RELATED_GAP_ROWSPEC,
+				FormSpecs.DEFAULT_ROWSPEC,
+				FormSpecs.RELATED_GAP_ROWSPEC,
+				FormSpecs.DEFAULT_ROWSPEC,}));
+		
+		chckbxPyramidMatching = new JCheckBox("Pyramid Matching");
+		panelGeneral.add(chckbxPyramidMatching, "2, 2, 3, 1");
+		
+		JLabel lblPyramidLevels = new JLabel("Pyramid Levels");
+		panelGeneral.add(lblPyramidLevels, "2, 4, right, default");
+		
+		textFieldPyramidLevels = new JTextField();
+		panelGeneral.add(textFieldPyramidLevels, "4, 4, fill, default");
+		textFieldPyramidLevels.setColumns(5);
 	}
 
 	@Override
 	public void createBindings() {
+		IntegerConverter integerConverter = new IntegerConverter();
+		
+		addWrappedBinding(visionProvider, "pyramidMatching", chckbxPyramidMatching, "selected");
+		addWrappedBinding(visionProvider, "pyramidLevels", textFieldPyramidLevels, "text", integerConverter);
+		
+		ComponentDecorators.decorateWithAutoSelect(textFieldPyramidLevels);
 	}
-}
\ No newline at end of file
+}
@@ -24,10 +24,12 @@ package org.openpnp.spi;
 import java.awt.image.BufferedImage;
 import java.io.Closeable;
 
+import org.opencv.core.Mat;
 import org.openpnp.CameraListener;
 import org.openpnp.model.Identifiable;
 import org.openpnp.model.Location;
 import org.openpnp.model.Named;
+import org.openpnp.util.OpenCvUtils;
 
 /**
  * Represents a Camera attached to the system and allows a caller to retrieve
@@ -68,6 +70,64 @@ public interface Camera extends Identifiable, Named, HeadMountable, WizardConfig
 	 */
 	public BufferedImage settleAndCapture();
 	
+	/**
+	 * Captures an image like capture() but returns it as an 8 bit BGR or
+	 * grayscale Mat, for vision code that works on Mats. The caller owns the
+	 * Mat and should release it when done.
+	 * 
+	 * The default converts the result of capture(). Cameras that grab
+	 * frames into a Mat should override this so the frame isn't copied
+	 * into a BufferedImage and back.
+	 * @return
+	 */
+	public default Mat captureMat() {
+		return OpenCvUtils.toMat(capture());
+	}
+	
+	/**
+	 * Same as captureMat(), but waits the settle time before capturing.
+	 * @return
+	 */
+	public default Mat settleAndCaptureMat() {
+		return captureMatAfter(System.currentTimeMillis() + getSettleTimeMs());
+	}
+	
+	/**
+	 * Returns the first image the camera began capturing after timestamp,
+	 * a System.currentTimeMillis() value such as the time motion stopped.
+	 * Waits for it if it hasn't been captured yet.
+	 * 
+	 * The default waits until timestamp has passed and then calls
+	 * capture(). Cameras that grab frames in the background should
+	 * override this to return a frame whose capture started after
+	 * timestamp, since a frame returned by capture(), or one that was
+	 * still arriving at timestamp, may have been exposed before it.
+	 * @param timestamp
+	 * @return
+	 */
+	public default BufferedImage captureAfter(long timestamp) {
+		long wait = timestamp - System.currentTimeMillis();
+		if (wait > 0) {
+			try {
+				Thread.sleep(wait);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return capture();
+	}
+	
+	/**
+	 * Same as captureAfter() but returns a Mat like captureMat(). The
+	 * default converts the result of captureAfter().
+	 * @param timestamp
+	 * @return
+	 */
+	public default Mat captureMatAfter(long timestamp) {
+		return OpenCvUtils.toMat(captureAfter(timestamp));
+	}
+	
 	/**
 	 * Registers a listener to receive continuous images from the camera at a rate less than
 	 * or equal to maximumFps images per second.
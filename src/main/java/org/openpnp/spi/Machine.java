@@ -134,6 +134,28 @@ public interface Machine extends WizardConfigurable, PropertySheetHolder, Closea
     
 	public Map<JobProcessor.Type, JobProcessor> getJobProcessors();
 	
+    /**
+     * The order in which queued tasks run. Tasks run highest priority first,
+     * and in the order they were submitted within a priority.
+     */
+    public enum TaskPriority {
+        /**
+         * Runs before anything else that is queued, cancels every queued
+         * task of lower priority and interrupts the running one. A task
+         * that doesn't check for interruption still runs to the end, so
+         * code that has to act at once, such as STOP, should not wait on an
+         * Emergency task to do it.
+         */
+        Emergency,
+        Jog,
+        /**
+         * Moves and other operations requested from the user interface. This
+         * is the priority of tasks submitted without one.
+         */
+        Ui,
+        Background
+    }
+    
     public Future<Object> submit(Runnable runnable);
     
     public <T> Future<T> submit(Callable<T> callable);
@@ -164,9 +186,9 @@ public interface Machine extends WizardConfigurable, PropertySheetHolder, Closea
      * If a task includes a callback the callback is executed before the next
      * task begins.
      * 
-     * TODO: By supplying a tag you can guarantee that there is only one
-     * of a certain type of task queued. Attempting to queue another task
-     * with the same tag will return null and the task will not be queued.
+     * Tasks submitted here run at TaskPriority.Ui. See
+     * submit(Callable, FutureCallback, boolean, TaskPriority, Object) for
+     * other priorities and for coalescing repeated requests.
      * 
      * @param callable
      * @param callback
@@ -179,5 +201,25 @@ public interface Machine extends WizardConfigurable, PropertySheetHolder, Closea
             final FutureCallback<T> callback, 
             boolean ignoreEnabled);
     
+    /**
+     * Submit a task as with submit(Callable, FutureCallback, boolean), at the
+     * given priority. If coalesceKey is not null and a task with an equal key
+     * is queued but hasn't started, that task is cancelled and replaced by
+     * this one. Use this for requests where only the latest matters, such as
+     * repeated jogs or click-to-move.
+     * 
+     * @param callable
+     * @param callback
+     * @param ignoreEnabled
+     * @param priority
+     * @param coalesceKey
+     */
+    public <T> Future<T> submit(
+            final Callable<T> callable, 
+            final FutureCallback<T> callback, 
+            boolean ignoreEnabled,
+            TaskPriority priority,
+            Object coalesceKey);
+    
     public Head getDefaultHead() throws Exception;
 }
@@ -28,6 +28,7 @@ import java.util.List;
 import org.openpnp.gui.support.Wizard;
 import org.openpnp.model.Location;
 import org.openpnp.model.Part;
+import org.openpnp.model.Rectangle;
 import org.openpnp.spi.VisionProvider.TemplateMatch;
 
 /**
@@ -48,6 +49,26 @@ public interface VisionProvider {
     
     public List<TemplateMatch> getTemplateMatches(BufferedImage template);
     public List<TemplateMatch> getTemplateMatches(BufferedImage template, double maxRotation, double rotStepSize, double threshold, double corr);
+
+    public List<TemplateMatch> getTemplateMatches(BufferedImage template, Rectangle roi);
+
+    /**
+     * Finds matches of template in the part of the current camera frame
+     * inside roi. Only that part of the frame is converted and searched.
+     * Match locations are in Camera coordinates, as for the whole frame.
+     * Implementations may cache what they make from template, so an image
+     * should not be modified once it has been passed in.
+     * 
+     * @param template
+     * @param roi The region to search, in pixels. If null or empty the
+     * whole frame is searched.
+     * @param maxRotation
+     * @param rotStepSize
+     * @param threshold
+     * @param corr
+     * @return
+     */
+    public List<TemplateMatch> getTemplateMatches(BufferedImage template, Rectangle roi, double maxRotation, double rotStepSize, double threshold, double corr);
     
     /**
      * @deprecated This function's interface will change in the near future
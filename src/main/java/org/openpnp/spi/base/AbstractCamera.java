@@ -128,13 +128,7 @@ public abstract class AbstractCamera implements Camera {
     }
     
     public BufferedImage settleAndCapture() {
-    	try {
-    		Thread.sleep(getSettleTimeMs());
-    	}
-    	catch (Exception e) {
-    		
-    	}
-    	return capture();
+    	return captureAfter(System.currentTimeMillis() + getSettleTimeMs());
     }
     
     protected void broadcastCapture(BufferedImage img) {
@@ -9,9 +9,6 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import javax.swing.Icon;
 
@@ -68,7 +65,7 @@ public abstract class AbstractMachine implements Machine {
     
     protected Set<MachineListener> listeners = Collections.synchronizedSet(new HashSet<>());
     
-    protected ThreadPoolExecutor executor;
+    protected final MachineTaskScheduler scheduler = new MachineTaskScheduler();
     
     protected AbstractMachine() {
     }
@@ -234,17 +231,11 @@ public abstract class AbstractMachine implements Machine {
     
     @Override
     public <T> Future<T> submit(final Callable<T> callable, final FutureCallback<T> callback, final boolean ignoreEnabled) {
-        synchronized(this) {
-            if (executor == null || executor.isShutdown()) {
-                executor = new ThreadPoolExecutor(
-                        1, 
-                        1, 
-                        1,
-                        TimeUnit.SECONDS,
-                        new LinkedBlockingQueue<>());
-            }
-        }
-        
+        return submit(callable, callback, ignoreEnabled, TaskPriority.Ui, null);
+    }
+    
+    @Override
+    public <T> Future<T> submit(final Callable<T> callable, final FutureCallback<T> callback, final boolean ignoreEnabled, TaskPriority priority, Object coalesceKey) {
         Callable<T> wrapper = new Callable<T>() {
             public T call() throws Exception {
                 // TODO: lock driver
@@ -277,14 +268,14 @@ public abstract class AbstractMachine implements Machine {
                 
                 // If there was an error cancel all pending tasks.
                 if (exception != null) {
-                    executor.shutdownNow();
+                    scheduler.cancelAll(false);
                 }
                 
                 // TODO: unlock driver
   
                 // If no more tasks are scheduled notify listeners that
                 // the machine is no longer busy
-                if (executor.getQueue().isEmpty()) {
+                if (scheduler.getQueueDepth() == 0) {
                     fireMachineBusy(false);
                 }
                 
@@ -297,7 +288,16 @@ public abstract class AbstractMachine implements Machine {
             }
         };
         
-        return executor.submit(wrapper); 
+        return scheduler.submit(wrapper, priority, coalesceKey); 
+    }
+    
+    /**
+     * Returns the MachineTaskScheduler that runs submitted tasks, for its
+     * queue depth and latency metrics.
+     * @return
+     */
+    public MachineTaskScheduler getTaskScheduler() {
+        return scheduler;
     }
 
 	@Override
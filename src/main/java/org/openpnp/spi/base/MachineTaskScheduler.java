@@ -0,0 +1,228 @@
+/*
+ 	Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+
+ 	This file is part of OpenPnP.
+
+	OpenPnP is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    OpenPnP is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with OpenPnP.  If not, see <http://www.gnu.org/licenses/>.
+
+ 	For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.spi.base;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openpnp.spi.Machine.TaskPriority;
+import org.openpnp.util.Histogram;
+
+/**
+ * Runs Machine tasks one at a time on a single thread, highest
+ * TaskPriority first and in submission order within a priority.
+ *
+ * A task can be submitted with a coalescing key. If a task with the same
+ * key is still waiting when it arrives, the waiting task is cancelled and
+ * the new one takes its place, so a burst of jog clicks or click-to-move
+ * requests ends in one move to the latest target. An Emergency task
+ * cancels everything waiting below it and interrupts the running task if
+ * that is of lower priority, so it doesn't wait behind a long move.
+ *
+ * The thread is started when the first task arrives and exits after a
+ * second without work.
+ */
+public class MachineTaskScheduler {
+    private static final long IDLE_TIMEOUT_MILLIS = 1000;
+
+    private final PriorityQueue<Task<?>> queue = new PriorityQueue<>();
+    private final Map<Object, Task<?>> queuedByKey = new HashMap<>();
+    private final Histogram[] latency = new Histogram[TaskPriority.values().length];
+    private final AtomicLong coalesced = new AtomicLong();
+    private long sequence;
+    private Thread thread;
+    private Task<?> running;
+
+    public MachineTaskScheduler() {
+        for (int i = 0; i < latency.length; i++) {
+            latency[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Queues callable to run at the given priority.
+     * @param callable
+     * @param priority
+     * @param coalesceKey If not null, replaces any task with an equal key
+     * that hasn't started yet. The replaced task's Future is cancelled.
+     * @return
+     */
+    public synchronized <T> Future<T> submit(Callable<T> callable, TaskPriority priority, Object coalesceKey) {
+        Task<T> task = new Task<>(callable, priority, coalesceKey, sequence++);
+        if (coalesceKey != null) {
+            Task<?> replaced = queuedByKey.put(coalesceKey, task);
+            if (replaced != null) {
+                queue.remove(replaced);
+                replaced.cancel(false);
+                coalesced.incrementAndGet();
+            }
+        }
+        if (priority == TaskPriority.Emergency) {
+            List<Task<?>> lower = new ArrayList<>();
+            for (Task<?> queued : queue) {
+                if (queued.priority != TaskPriority.Emergency) {
+                    lower.add(queued);
+                }
+            }
+            for (Task<?> queued : lower) {
+                dequeue(queued);
+                queued.cancel(false);
+            }
+            if (running != null && running.priority != TaskPriority.Emergency) {
+                running.cancel(true);
+            }
+        }
+        queue.add(task);
+        if (thread == null) {
+            thread = new Thread(this::run, "Machine tasks");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+        return task;
+    }
+
+    /**
+     * Cancels every task that hasn't started yet, and interrupts the running
+     * one if interruptRunning is true.
+     * @param interruptRunning
+     */
+    public synchronized void cancelAll(boolean interruptRunning) {
+        for (Task<?> task : queue) {
+            task.cancel(false);
+        }
+        queue.clear();
+        queuedByKey.clear();
+        if (interruptRunning && running != null) {
+            running.cancel(true);
+        }
+    }
+
+    /**
+     * Returns the number of tasks waiting to run, not counting the one
+     * that is running.
+     * @return
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the time tasks of the given priority waited between being
+     * submitted and starting.
+     * @param priority
+     * @return
+     */
+    public Histogram getLatency(TaskPriority priority) {
+        return latency[priority.ordinal()];
+    }
+
+    /**
+     * Returns the number of tasks that were replaced by a later task with
+     * the same coalescing key before they started.
+     * @return
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    private void run() {
+        while (true) {
+            Task<?> task;
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + IDLE_TIMEOUT_MILLIS;
+                while (queue.isEmpty()) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        thread = null;
+                        return;
+                    }
+                    try {
+                        wait(wait);
+                    }
+                    catch (InterruptedException e) {
+                        // Only tasks are interrupted, and not while we wait.
+                    }
+                }
+                task = queue.poll();
+                if (task.coalesceKey != null) {
+                    queuedByKey.remove(task.coalesceKey, task);
+                }
+                running = task;
+            }
+            latency[task.priority.ordinal()].record(System.nanoTime() - task.submitNanos);
+            task.run();
+            synchronized (this) {
+                running = null;
+            }
+            // Don't carry an interrupt meant for that task into the next one.
+            Thread.interrupted();
+        }
+    }
+
+    private void dequeue(Task<?> task) {
+        queue.remove(task);
+        if (task.coalesceKey != null) {
+            queuedByKey.remove(task.coalesceKey, task);
+        }
+    }
+
+    private static class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+        private final TaskPriority priority;
+        private final Object coalesceKey;
+        private final long sequence;
+        private final long submitNanos = System.nanoTime();
+
+        public Task(Callable<T> callable, TaskPriority priority, Object coalesceKey, long sequence) {
+            super(callable);
+            this.priority = priority;
+            this.coalesceKey = coalesceKey;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Task<?> o) {
+            if (priority != o.priority) {
+                return priority.compareTo(o.priority);
+            }
+            return Long.compare(sequence, o.sequence);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("queued ").append(getQueueDepth());
+        sb.append(", coalesced ").append(getCoalescedCount());
+        for (TaskPriority priority : TaskPriority.values()) {
+            sb.append(", ").append(priority).append(" wait ").append(getLatency(priority));
+        }
+        return sb.toString();
+    }
+}
@@ -26,4 +26,30 @@ public class ImageUtils {
         return img;
     }
 
+    /**
+     * Copy the region of a BufferedImage at x, y of size width, height into
+     * a new BufferedImage of the specified type. Only the pixels in the
+     * region are converted. Unlike getSubimage, the result does not share
+     * the source's raster, so its DataBuffer holds just the region. If the
+     * region is the whole image and it is already of the specified type it
+     * is returned unchanged.
+     * 
+     * @param src
+     * @param type
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     * @return
+     */
+    public static BufferedImage convertBufferedImage(BufferedImage src, int type, int x, int y, int width, int height) {
+        if (x == 0 && y == 0 && width == src.getWidth() && height == src.getHeight()) {
+            return convertBufferedImage(src, type);
+        }
+        BufferedImage img = new BufferedImage(width, height, type);
+        Graphics2D g2d = img.createGraphics();
+        g2d.drawImage(src, -x, -y, null);
+        g2d.dispose();
+        return img;
+    }
 }
@@ -2,6 +2,8 @@ package org.openpnp.util;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
@@ -65,6 +67,9 @@ public class OpenCvUtils {
         else if (img.getType() == BufferedImage.TYPE_3BYTE_BGR) {
             type = CvType.CV_8UC3;
         }
+        else if (isPackedRgb(img)) {
+            return packedRgbToMat(img);
+        }
         else {
             img = ImageUtils.convertBufferedImage(img, BufferedImage.TYPE_3BYTE_BGR);
             type = CvType.CV_8UC3;
@@ -74,6 +79,39 @@ public class OpenCvUtils {
         return mat;
     }    
     
+    /**
+     * Returns true if img is TYPE_INT_RGB or TYPE_INT_ARGB and its pixels
+     * fill its DataBuffer row by row, as they do in any image that isn't a
+     * subimage of another.
+     */
+    private static boolean isPackedRgb(BufferedImage img) {
+        if (img.getType() != BufferedImage.TYPE_INT_RGB && img.getType() != BufferedImage.TYPE_INT_ARGB) {
+            return false;
+        }
+        WritableRaster raster = img.getRaster();
+        return raster.getParent() == null
+                && raster.getDataBuffer().getSize() == img.getWidth() * img.getHeight();
+    }
+    
+    /**
+     * Unpacks the pixels of a TYPE_INT_RGB or TYPE_INT_ARGB image straight
+     * into a BGR Mat, which is much cheaper than redrawing the image with
+     * Java2D first. Alpha is ignored.
+     */
+    private static Mat packedRgbToMat(BufferedImage img) {
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        byte[] bgr = new byte[pixels.length * 3];
+        for (int i = 0, j = 0; i < pixels.length; i++) {
+            int pixel = pixels[i];
+            bgr[j++] = (byte) pixel;
+            bgr[j++] = (byte) (pixel >> 8);
+            bgr[j++] = (byte) (pixel >> 16);
+        }
+        Mat mat = new Mat(img.getHeight(), img.getWidth(), CvType.CV_8UC3);
+        mat.put(0, 0, bgr);
+        return mat;
+    }
+    
     /**
      * Finds circles of the given min and maxDiameter, no less than minDistance apart
      * by capturing an image from the given Camera. Results are returned as a List of Location
@@ -108,8 +146,7 @@ public class OpenCvUtils {
         double maxDiameterPixels = maxDiameter.getValue() / avgUnitsPerPixel;
         double minDistancePixels = minDistance.getValue() / avgUnitsPerPixel;
 
-        BufferedImage image = camera.capture(); 
-        Mat mat = toMat(image);
+        Mat mat = camera.captureMat();
         Mat circles = houghCircles(mat, minDiameterPixels, maxDiameterPixels, minDistancePixels);
         
     	// convert the results into Locations
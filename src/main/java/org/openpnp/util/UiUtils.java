@@ -9,6 +9,7 @@ import javax.swing.SwingUtilities;
 import org.openpnp.gui.MainFrame;
 import org.openpnp.gui.support.MessageBoxes;
 import org.openpnp.model.Configuration;
+import org.openpnp.spi.Machine.TaskPriority;
 
 import com.google.common.util.concurrent.FutureCallback;
 
@@ -37,6 +38,33 @@ public class UiUtils {
 		});
 	}
 	
+	/**
+	 * Shortcut for submitUiMachineTask(Thrunnable) which runs the task at
+	 * the given priority, replacing any queued task with the same
+	 * coalesceKey. See Machine.submit(Callable, FutureCallback, boolean,
+	 * TaskPriority, Object).
+	 * @param thrunnable
+	 * @param priority
+	 * @param coalesceKey
+	 * @return
+	 */
+	public static Future<Void> submitUiMachineTask(
+			final Thrunnable thrunnable,
+			final TaskPriority priority,
+			final Object coalesceKey) {
+		return submitUiMachineTask(
+				() -> {
+					thrunnable.thrun();
+					return null;
+				},
+				(result) -> {},
+				(t) -> {
+					MessageBoxes.errorBox(MainFrame.mainFrame, "Error", t);
+				},
+				priority,
+				coalesceKey);
+	}
+	
 	/**
 	 * Wrapper for submitMachineTask(Callable, Consumer, Consumer) which
 	 * ignores the return value in onSuccess and shows a MessageBox
@@ -68,6 +96,25 @@ public class UiUtils {
     		final Callable<T> callable,
     		final Consumer<T> onSuccess,
     		final Consumer<Throwable> onFailure) {
+		return submitUiMachineTask(callable, onSuccess, onFailure, TaskPriority.Ui, null);
+	}
+	
+	/**
+	 * As submitUiMachineTask(Callable, Consumer, Consumer), at the given
+	 * priority and with the given coalescing key.
+	 * @param callable
+	 * @param onSuccess
+	 * @param onFailure
+	 * @param priority
+	 * @param coalesceKey
+	 * @return
+	 */
+	public static <T> Future<T> submitUiMachineTask(
+    		final Callable<T> callable,
+    		final Consumer<T> onSuccess,
+    		final Consumer<Throwable> onFailure,
+    		final TaskPriority priority,
+    		final Object coalesceKey) {
     	return Configuration.get().getMachine().submit(callable, new FutureCallback<T>() {
 			@Override
 			public void onSuccess(T result) {
@@ -88,7 +135,7 @@ public class UiUtils {
 					e.printStackTrace();
 				}
 			}
-    	});
+    	}, false, priority, coalesceKey);
     }
 	
 	/**
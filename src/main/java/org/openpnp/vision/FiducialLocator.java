@@ -11,17 +11,21 @@ import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.openpnp.model.Board;
 import org.openpnp.model.BoardLocation;
 import org.openpnp.model.Configuration;
 import org.openpnp.model.Footprint;
+import org.openpnp.model.Footprint.Pad;
 import org.openpnp.model.Length;
 import org.openpnp.model.Location;
 import org.openpnp.model.Part;
 import org.openpnp.model.Placement;
 import org.openpnp.model.Placement.Type;
+import org.openpnp.model.Rectangle;
 import org.openpnp.spi.Camera;
 import org.openpnp.spi.VisionProvider;
 import org.openpnp.spi.VisionProvider.TemplateMatch;
@@ -39,6 +43,28 @@ public class FiducialLocator {
     private static final Logger logger = LoggerFactory
             .getLogger(FiducialLocator.class);
     
+    /**
+     * The size of the window searched once the camera is centered over a
+     * fid, in multiples of the template size.
+     */
+    private static final int SEARCH_WINDOW_SCALE = 3;
+    
+    /**
+     * The most templates kept in templateCache.
+     */
+    private static final int TEMPLATE_CACHE_SIZE = 32;
+    
+    /**
+     * Templates by footprint and camera scale, least recently used first.
+     */
+    @SuppressWarnings("serial")
+    private static final Map<String, BufferedImage> templateCache = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+            return size() > TEMPLATE_CACHE_SIZE;
+        }
+    };
+    
     public FiducialLocator() {
         
     }
@@ -102,12 +128,12 @@ public class FiducialLocator {
     
     public static Location getFiducialLocation(Footprint footprint, Camera camera) throws Exception {
         // Create the template
-        BufferedImage template = createTemplate(camera.getUnitsPerPixel(), footprint);
+        BufferedImage template = getTemplate(camera.getUnitsPerPixel(), footprint);
         
         // Wait for camera to settle
         Thread.sleep(camera.getSettleTimeMs());
         // Perform vision operation
-        return getBestTemplateMatch(camera, template);
+        return getBestTemplateMatch(camera, template, null);
     }
     
     /**
@@ -155,7 +181,7 @@ public class FiducialLocator {
         }
         
         // Create the template
-        BufferedImage template = createTemplate(camera.getUnitsPerPixel(), fid.getPart().getPackage().getFootprint());
+        BufferedImage template = getTemplate(camera.getUnitsPerPixel(), fid.getPart().getPackage().getFootprint());
         
         // Move to where we expect to find the fid
         Location location = Utils2D.calculateBoardPlacementLocation(
@@ -164,11 +190,15 @@ public class FiducialLocator {
         MovableUtils.moveToLocationAtSafeZ(camera, location, 1.0);
 
         
+        // The first search covers the whole frame. After that the camera is
+        // centered over the fid, so only a window around the center is
+        // searched.
+        Rectangle window = null;
         for (int i = 0; i < 3; i++) {
             // Wait for camera to settle
             Thread.sleep(camera.getSettleTimeMs());
             // Perform vision operation
-            location = getBestTemplateMatch(camera, template);
+            location = getBestTemplateMatch(camera, template, window);
             if (location == null) {
                 logger.debug("No matches found!");
                 return null;
@@ -176,15 +206,16 @@ public class FiducialLocator {
             logger.debug("{} located at {}", fid.getId(), location);
             // Move to where we actually found the fid
             camera.moveTo(location, 1.0);
+            window = getSearchWindow(camera, template);
         }
         
         return location;
     }
     
-    private static Location getBestTemplateMatch(final Camera camera, BufferedImage template) throws Exception {
+    private static Location getBestTemplateMatch(final Camera camera, BufferedImage template, Rectangle roi) throws Exception {
         VisionProvider visionProvider = camera.getVisionProvider();
         
-        List<TemplateMatch> matches = visionProvider.getTemplateMatches(template);
+        List<TemplateMatch> matches = visionProvider.getTemplateMatches(template, roi);
         
         if (matches.isEmpty()) {
             return null;
@@ -204,6 +235,62 @@ public class FiducialLocator {
         return matches.get(0).location;
     }
     
+    /**
+     * Returns a window SEARCH_WINDOW_SCALE times the size of the template,
+     * centered in the camera frame.
+     * @param camera
+     * @param template
+     * @return
+     */
+    private static Rectangle getSearchWindow(Camera camera, BufferedImage template) {
+        int width = template.getWidth() * SEARCH_WINDOW_SCALE;
+        int height = template.getHeight() * SEARCH_WINDOW_SCALE;
+        return new Rectangle((camera.getWidth() - width) / 2, (camera.getHeight() - height) / 2, width, height);
+    }
+    
+    /**
+     * Returns the template for footprint at the given camera scale from
+     * cache, creating it if needed. The key covers the footprint's geometry
+     * and the scale, so a template is made again after either changes. The
+     * same image is returned for as long as it stays cached, which lets the
+     * VisionProvider reuse what it made from it.
+     * @param unitsPerPixel
+     * @param footprint
+     * @return
+     * @throws Exception
+     */
+    private static BufferedImage getTemplate(Location unitsPerPixel, Footprint footprint) throws Exception {
+        String key = getTemplateKey(unitsPerPixel, footprint);
+        synchronized (templateCache) {
+            BufferedImage template = templateCache.get(key);
+            if (template == null) {
+                template = createTemplate(unitsPerPixel, footprint);
+                templateCache.put(key, template);
+            }
+            return template;
+        }
+    }
+    
+    private static String getTemplateKey(Location unitsPerPixel, Footprint footprint) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(unitsPerPixel.getUnits()).append(',');
+        sb.append(unitsPerPixel.getX()).append(',');
+        sb.append(unitsPerPixel.getY()).append(';');
+        sb.append(footprint.getUnits()).append(',');
+        sb.append(footprint.getBodyWidth()).append(',');
+        sb.append(footprint.getBodyHeight());
+        for (Pad pad : footprint.getPads()) {
+            sb.append(';');
+            sb.append(pad.getX()).append(',');
+            sb.append(pad.getY()).append(',');
+            sb.append(pad.getWidth()).append(',');
+            sb.append(pad.getHeight()).append(',');
+            sb.append(pad.getRotation()).append(',');
+            sb.append(pad.getRoundness());
+        }
+        return sb.toString();
+    }
+    
     /**
      * Create a template image based on a Placement's footprint. The image
      * will be scaled to match the dimensions of the current camera.
@@ -240,7 +327,7 @@ public class FiducialLocator {
         // recognition performance because it allows some border around the edges.
         double width = bounds.getWidth() * 2.0;
         double height = bounds.getHeight() * 2.0;
-        BufferedImage template = new BufferedImage((int) width, (int) height, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage template = new BufferedImage((int) width, (int) height, BufferedImage.TYPE_BYTE_GRAY);
         Graphics2D g2d = (Graphics2D) template.getGraphics();
         
         g2d.setStroke(new BasicStroke(1f));
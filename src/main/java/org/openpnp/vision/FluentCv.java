@@ -61,6 +61,7 @@ import java.awt.image.DataBufferByte;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -84,6 +85,8 @@ import org.openpnp.model.Location;
 import org.openpnp.spi.Camera;
 import org.openpnp.util.HslColor;
 import org.openpnp.util.VisionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A fluent API for some of the most commonly used OpenCV primitives.
@@ -114,6 +117,13 @@ import org.openpnp.util.VisionUtils;
  * 
  * Keeping things in Mat does give the benefit of not moving too much
  * memory between OpenCv and Java. 
+ * 
+ * Mats are taken from a MatPool and given back as soon as the pipeline
+ * no longer refers to them. Steps write in place where they can, and a
+ * stored tag shares the Mat it was stored from until a later step writes
+ * to it, at which point the step writes to a new Mat instead. Call
+ * release() when the pipeline is done to give everything back to the
+ * pool. Mats returned by mat() are copies and belong to the caller.
  */
 public class FluentCv {
     static {
@@ -141,9 +151,23 @@ public class FluentCv {
     	}
     }
 
+    private static final Logger logger = LoggerFactory.getLogger(FluentCv.class);
+    
     private LinkedHashMap<String, Mat> stored = new LinkedHashMap<>();
 	private Mat mat = new Mat();
 	private Camera camera;
+	private final MatPool pool;
+	private final Set<Mat> owned = Collections.newSetFromMap(new IdentityHashMap<Mat, Boolean>());
+	private int matCount;
+	private long peakBytes;
+	
+	public FluentCv() {
+		this(MatPool.getDefault());
+	}
+	
+	public FluentCv(MatPool pool) {
+		this.pool = pool;
+	}
 	
 	public FluentCv toMat(BufferedImage img, String... tag) {
         Integer type = null;
@@ -157,7 +181,7 @@ public class FluentCv {
             img = convertBufferedImage(img, BufferedImage.TYPE_3BYTE_BGR);
             type = CvType.CV_8UC3;
         }
-        Mat mat = new Mat(img.getHeight(), img.getWidth(), type);
+        Mat mat = acquire(img.getHeight(), img.getWidth(), type);
         mat.put(0, 0, ((DataBufferByte) img.getRaster().getDataBuffer()).getData());
 		return store(mat, tag);
 	}
@@ -175,8 +199,9 @@ public class FluentCv {
 	}
 	
 	public FluentCv convertColor(int code, String... tag) {
-		Imgproc.cvtColor(mat, mat, code);
-		return store(mat, tag);
+		Mat dst = target();
+		Imgproc.cvtColor(mat, dst, code);
+		return store(dst, tag);
 	}
 	
 	/**
@@ -197,13 +222,14 @@ public class FluentCv {
 		if (threshold == 0) {
 			type |= Imgproc.THRESH_OTSU;
 		}
+		Mat dst = target();
     	Imgproc.threshold(
     			mat, 
-    			mat,
+    			dst,
     			threshold,
     			255, 
     			type);
-		return store(mat, tag);
+		return store(dst, tag);
 	}
 
 	public FluentCv thresholdAdaptive(String...tag) {
@@ -211,25 +237,28 @@ public class FluentCv {
 	}	
 	
 	public FluentCv thresholdAdaptive(boolean invert, String...tag) {
+		Mat dst = target();
     	Imgproc.adaptiveThreshold(
     			mat, 
-    			mat, 
+    			dst, 
     			255, 
     			Imgproc.ADAPTIVE_THRESH_MEAN_C, 
     			invert ? Imgproc.THRESH_BINARY_INV : Imgproc.THRESH_BINARY, 
     			3,
     			5);
-		return store(mat, tag);
+		return store(dst, tag);
 	}
 	
 	public FluentCv blurGaussian(int kernelSize, String... tag) {
-    	Imgproc.GaussianBlur(mat, mat, new Size(kernelSize, kernelSize), 0);
-		return store(mat, tag);
+		Mat dst = target();
+    	Imgproc.GaussianBlur(mat, dst, new Size(kernelSize, kernelSize), 0);
+		return store(dst, tag);
 	}
 	
 	public FluentCv blurMedian(int kernelSize, String... tag) {
-    	Imgproc.medianBlur(mat, mat, kernelSize);
-		return store(mat, tag);
+		Mat dst = target();
+    	Imgproc.medianBlur(mat, dst, kernelSize);
+		return store(dst, tag);
 	}
 	
 	public FluentCv findCirclesHough( 
@@ -246,7 +275,7 @@ public class FluentCv {
 	}
 	
 	public FluentCv findCirclesHough(int minDiameter, int maxDiameter, int minDistance, String... tag) {
-    	Mat circles = new Mat();
+    	Mat circles = own(new Mat());
     	Imgproc.HoughCircles(
     			mat, 
     			circles, 
@@ -307,9 +336,14 @@ public class FluentCv {
 			Color color, 
 			String... tag) {
 		Color centerColor = new HslColor(color).getComplementary();
-		Mat mat = get(baseTag);
-		if (mat == null) {
-			mat = new Mat();
+		Mat base = get(baseTag);
+		Mat mat;
+		if (base == null) {
+			mat = own(new Mat());
+		}
+		else {
+			mat = acquire(base.rows(), base.cols(), base.type());
+			base.copyTo(mat);
 		}
     	for (int i = 0; i < this.mat.cols(); i++) {
     		double[] circle = this.mat.get(0, i);
@@ -346,7 +380,9 @@ public class FluentCv {
 	}
 	
 	public FluentCv recall(String tag) {
+		Mat previous = mat;
 		mat = get(tag);
+		discard(previous);
 		return this;
 	}
 	
@@ -377,9 +413,9 @@ public class FluentCv {
         }
         else if (mat.type() == CvType.CV_32F) {
             type = BufferedImage.TYPE_BYTE_GRAY;
-            Mat tmp = new Mat();
+            Mat tmp = acquire(mat.rows(), mat.cols(), CvType.CV_8UC1);
             mat.convertTo(tmp, CvType.CV_8UC1, 255);
-            mat = tmp;
+            store(tmp);
         }
         if (type == null) {
             throw new Error(String.format("Unsupported Mat: type %d, channels %d, depth %d", 
@@ -394,7 +430,7 @@ public class FluentCv {
 
 	public FluentCv settleAndCapture(String... tag) {
 		checkCamera();
-		return toMat(camera.settleAndCapture(), tag);
+		return store(own(camera.settleAndCaptureMat()), tag);
 	}
 	
 	/**
@@ -446,7 +482,7 @@ public class FluentCv {
     	// It really seems like there must be a better way to do this, but after hours
     	// and hours of trying I can't find one. How the hell do you append an element
     	// of 3 channels to a Mat?!
-		Mat r = new Mat(1, results.size(), CvType.CV_32FC3);
+		Mat r = acquire(1, results.size(), CvType.CV_32FC3);
 		for (int i = 0; i < results.size(); i++) {
 			r.put(0, i, results.get(i));
 		}
@@ -496,7 +532,7 @@ public class FluentCv {
     	// It really seems like there must be a better way to do this, but after hours
     	// and hours of trying I can't find one. How the hell do you append an element
     	// of 3 channels to a Mat?!
-		Mat r = new Mat(1, results.size(), CvType.CV_32FC3);
+		Mat r = acquire(1, results.size(), CvType.CV_32FC3);
 		for (int i = 0; i < results.size(); i++) {
 			r.put(0, i, results.get(i));
 		}
@@ -518,13 +554,15 @@ public class FluentCv {
 	 * @param tag
 	 */
 	public FluentCv absDiff(String source1, String... tag) {
-		Core.absdiff(get(source1), mat, mat);
-		return store(mat, tag);
+		Mat dst = target();
+		Core.absdiff(get(source1), mat, dst);
+		return store(dst, tag);
 	}
 	
 	public FluentCv findEdgesCanny(double threshold1, double threshold2, String... tag) {
-		Imgproc.Canny(mat, mat, threshold1, threshold2);
-		return store(mat, tag);
+		Mat dst = target();
+		Imgproc.Canny(mat, dst, threshold1, threshold2);
+		return store(dst, tag);
 	}
 	
 	public FluentCv findEdgesRobertsCross(String... tag) {
@@ -533,25 +571,30 @@ public class FluentCv {
 		// Note: Java API does not have abs. This appears to be doing the
 		// same thing effectively, but I am not sure it's 100% the same
 		// as Cri's version.
+		int floatType = CvType.makeType(CvType.CV_32F, mat.channels());
+		int byteType = CvType.makeType(CvType.CV_8U, mat.channels());
 		Mat kernel = Mat.eye(new Size(2, 2), CvType.CV_32FC1);
 		kernel.put(0, 0, 
 				0, 1, 
 				-1, 0);
-		Mat roberts1 = new Mat();
-		Imgproc.filter2D(mat, roberts1, CvType.CV_32FC1, kernel);
-		Core.convertScaleAbs(roberts1, roberts1);
+		Mat filtered = acquire(mat.rows(), mat.cols(), floatType);
+		Imgproc.filter2D(mat, filtered, CvType.CV_32FC1, kernel);
+		Mat roberts1 = acquire(mat.rows(), mat.cols(), byteType);
+		Core.convertScaleAbs(filtered, roberts1);
 		
 		kernel.put(0, 0, 
 				1, 0,
 				0, -1);
-		Mat roberts2 = new Mat();
-		Imgproc.filter2D(mat, roberts2, CvType.CV_32FC1, kernel);
-		Core.convertScaleAbs(roberts2, roberts2);
+		Imgproc.filter2D(mat, filtered, CvType.CV_32FC1, kernel);
+		Mat roberts2 = acquire(mat.rows(), mat.cols(), byteType);
+		Core.convertScaleAbs(filtered, roberts2);
 		
-		Mat roberts = new Mat();
-		Core.add(roberts1, roberts2, roberts);
+		Core.add(roberts1, roberts2, roberts1);
 		
-		return store(roberts, tag);
+		kernel.release();
+		discard(filtered);
+		discard(roberts2);
+		return store(roberts1, tag);
 		
 //		// Java interpretation of Cri S's C version.
 //		// This is very slow, my fault, not his. Probably due to all the
@@ -576,12 +619,16 @@ public class FluentCv {
 	}
 	
 	public FluentCv findContours(List<MatOfPoint> contours, String... tag) {
+		// findContours modifies the image it is given.
+		Mat mat = writable();
 		Mat hierarchy = new Mat();
 		Imgproc.findContours(mat, contours, hierarchy, Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_NONE);
+		hierarchy.release();
 		return store(mat, tag);
 	}
 	
 	public FluentCv drawContours(List<MatOfPoint> contours, Color color, int thickness, String... tag) {
+		Mat mat = writable();
 		if (color == null) {
 			for (int i = 0; i < contours.size(); i++) {
 				Imgproc.drawContours(mat, contours, i, colorToScalar(indexedColor(i)), thickness);
@@ -605,6 +652,7 @@ public class FluentCv {
 	}
 	
 	public FluentCv drawRects(List<RotatedRect> rects, Color color, int thickness, String... tag) {
+		Mat mat = writable();
 		for (int i = 0; i < rects.size(); i++) {
 			RotatedRect rect = rects.get(i);
 			if (color == null) {
@@ -664,29 +712,146 @@ public class FluentCv {
 	}
 	
 	private FluentCv store(Mat mat, String... tag) {
+		Mat previous = this.mat;
 		this.mat = mat;
+		discard(previous);
 		if (tag != null && tag.length > 0) {
-			// Clone so that future writes to the pipeline Mat
-			// don't overwrite our stored one.
-			stored.put(tag[0], this.mat.clone());
+			// The tag shares the Mat. Steps that would write to it write to
+			// a new Mat instead, see target() and writable().
+			Mat replaced = stored.put(tag[0], mat);
+			discard(replaced);
 		}
+		updatePeakBytes();
 		return this;
 	}
 	
 	public FluentCv floodFill(Point seedPoint, Color color, String... tag) {
+		Mat mat = writable();
 		Mat mask = new Mat();
 		Imgproc.floodFill(mat, mask, seedPoint, colorToScalar(color));
+		mask.release();
 		return store(mat, tag);
 	}
 	
+	/**
+	 * Returns the Mat stored under tag. It is shared with the tag and must
+	 * not be written to.
+	 * @param tag
+	 * @return
+	 */
 	private Mat get(String tag) {
-		Mat mat = stored.get(tag);
-		if (mat == null) {
-			return null;
+		return stored.get(tag);
+	}
+	
+	/**
+	 * Returns the Mat a step should write its result to when it reads the
+	 * current Mat and writes one of the same size and type. This is the
+	 * current Mat itself unless a tag shares it, in which case it is a Mat
+	 * from the pool.
+	 * @return
+	 */
+	private Mat target() {
+		if (!isStored(mat)) {
+			return mat;
 		}
-		// Clone so that future writes to the pipeline Mat
-		// don't overwrite our stored one.
-		return mat.clone();
+		return acquire(mat.rows(), mat.cols(), mat.type());
+	}
+	
+	/**
+	 * Returns the current Mat ready to be modified in place, making it a
+	 * copy first if a tag shares it.
+	 * @return
+	 */
+	private Mat writable() {
+		Mat dst = target();
+		if (dst != mat) {
+			mat.copyTo(dst);
+			store(dst);
+		}
+		return dst;
+	}
+	
+	private Mat acquire(int rows, int cols, int type) {
+		return own(pool.acquire(rows, cols, type));
+	}
+	
+	private Mat own(Mat mat) {
+		owned.add(mat);
+		matCount++;
+		return mat;
+	}
+	
+	/**
+	 * Gives mat back to the pool if this pipeline allocated it and nothing
+	 * in the pipeline refers to it any more.
+	 * @param mat
+	 */
+	private void discard(Mat mat) {
+		if (mat == null || mat == this.mat || isStored(mat) || !owned.remove(mat)) {
+			return;
+		}
+		pool.release(mat);
+	}
+	
+	private boolean isStored(Mat mat) {
+		for (Mat m : stored.values()) {
+			if (m == mat) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void updatePeakBytes() {
+		peakBytes = Math.max(peakBytes, getBytes());
+	}
+	
+	/**
+	 * Gives every Mat this pipeline allocated, including the stored ones,
+	 * back to the pool and clears the stored tags. The FluentCv can be used
+	 * again afterwards as if it were new.
+	 */
+	public void release() {
+		logger.debug("release() {} Mats, peak {} bytes, pool {}", matCount, peakBytes, pool);
+		for (Mat m : owned) {
+			pool.release(m);
+		}
+		owned.clear();
+		stored.clear();
+		mat = new Mat();
+		matCount = 0;
+		peakBytes = 0;
+	}
+	
+	/**
+	 * Returns the number of Mats this pipeline has taken from the pool or
+	 * created since it was made or last released.
+	 * @return
+	 */
+	public int getMatCount() {
+		return matCount;
+	}
+	
+	/**
+	 * Returns the native memory held by the Mats this pipeline allocated
+	 * and still refers to.
+	 * @return
+	 */
+	public long getBytes() {
+		long bytes = 0;
+		for (Mat m : owned) {
+			bytes += MatPool.getBytes(m);
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Returns the most native memory this pipeline held at once since it
+	 * was made or last released.
+	 * @return
+	 */
+	public long getPeakBytes() {
+		return peakBytes;
 	}
 	
 	public static Scalar colorToScalar(Color color) {
@@ -0,0 +1,157 @@
+package org.openpnp.vision;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opencv.core.Mat;
+
+/**
+ * A pool of Mats keyed by size and type. FluentCv takes the Mats it needs
+ * from a pool and gives them back when they are replaced or when the
+ * pipeline is released, so the next run reuses the same native memory
+ * instead of allocating more and leaving the old Mats to finalizers.
+ *
+ * The pool holds at most maxPerKey Mats of any one size and type and at
+ * most maxBytes in all. Mats given back beyond that are released at once.
+ */
+public class MatPool {
+	private static final MatPool defaultPool = new MatPool(4, 64L * 1024 * 1024);
+
+	private final Map<Key, ArrayDeque<Mat>> pooled = new HashMap<>();
+	private final int maxPerKey;
+	private final long maxBytes;
+	private long pooledBytes;
+	private long hits;
+	private long misses;
+
+	public MatPool(int maxPerKey, long maxBytes) {
+		this.maxPerKey = maxPerKey;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the pool FluentCv uses unless it is given one.
+	 * @return
+	 */
+	public static MatPool getDefault() {
+		return defaultPool;
+	}
+
+	/**
+	 * Returns a Mat of the given size and type, from the pool if one is
+	 * there. The contents of a pooled Mat are whatever it last held.
+	 * @param rows
+	 * @param cols
+	 * @param type
+	 * @return
+	 */
+	public synchronized Mat acquire(int rows, int cols, int type) {
+		ArrayDeque<Mat> mats = pooled.get(new Key(rows, cols, type));
+		if (mats != null && !mats.isEmpty()) {
+			Mat mat = mats.pop();
+			pooledBytes -= getBytes(mat);
+			hits++;
+			return mat;
+		}
+		misses++;
+		return new Mat(rows, cols, type);
+	}
+
+	/**
+	 * Gives mat back to the pool, or releases it if the pool is full. The
+	 * caller must not use mat afterwards.
+	 * @param mat
+	 */
+	public synchronized void release(Mat mat) {
+		long bytes = getBytes(mat);
+		if (bytes == 0 || pooledBytes + bytes > maxBytes) {
+			mat.release();
+			return;
+		}
+		Key key = new Key(mat.rows(), mat.cols(), mat.type());
+		ArrayDeque<Mat> mats = pooled.get(key);
+		if (mats == null) {
+			mats = new ArrayDeque<>();
+			pooled.put(key, mats);
+		}
+		if (mats.size() >= maxPerKey) {
+			mat.release();
+			return;
+		}
+		mats.push(mat);
+		pooledBytes += bytes;
+	}
+
+	/**
+	 * Releases every Mat in the pool.
+	 */
+	public synchronized void clear() {
+		for (ArrayDeque<Mat> mats : pooled.values()) {
+			for (Mat mat : mats) {
+				mat.release();
+			}
+		}
+		pooled.clear();
+		pooledBytes = 0;
+	}
+
+	/**
+	 * Returns the native memory held by the Mats waiting in the pool.
+	 * @return
+	 */
+	public synchronized long getPooledBytes() {
+		return pooledBytes;
+	}
+
+	/**
+	 * Returns the number of acquire calls that were answered from the pool.
+	 * @return
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of acquire calls that had to allocate a new Mat.
+	 * @return
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	public static long getBytes(Mat mat) {
+		return mat.total() * mat.elemSize();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("hits %d, misses %d, pooled %d bytes", hits, misses, pooledBytes);
+	}
+
+	private static class Key {
+		final int rows;
+		final int cols;
+		final int type;
+
+		Key(int rows, int cols, int type) {
+			this.rows = rows;
+			this.cols = cols;
+			this.type = type;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return rows == other.rows && cols == other.cols && type == other.type;
+		}
+
+		@Override
+		public int hashCode() {
+			return (rows * 31 + cols) * 31 + type;
+		}
+	}
+}
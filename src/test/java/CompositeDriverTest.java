@@ -0,0 +1,169 @@
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.ActuatorMacro;
+import org.openpnp.machine.reference.ReferenceHead;
+import org.openpnp.machine.reference.ReferenceHeadMountable;
+import org.openpnp.machine.reference.driver.CompositeDriver;
+import org.openpnp.machine.reference.driver.test.TestDriver;
+import org.openpnp.machine.reference.driver.test.TestHeadMountable;
+import org.openpnp.model.Identifiable;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+
+public class CompositeDriverTest {
+    /**
+     * Makes sure commands go to the sub-driver their HeadMountable is routed
+     * to, and everything else goes to the default.
+     */
+    @Test
+    public void testRouting() throws Exception {
+        SlowDriver gantry = new SlowDriver(0);
+        SlowDriver feeders = new SlowDriver(0);
+        CompositeDriver driver = new CompositeDriver();
+        driver.addDriver("feeders", feeders);
+        driver.addDriver("gantry", gantry);
+        driver.setDefaultDriverName("gantry");
+        driver.addRoute("F1", "feeders");
+
+        driver.moveTo(new Mountable("N1"), location(10), 1.0);
+        driver.moveTo(new Mountable("F1"), location(20), 1.0);
+        driver.moveTo(new TestHeadMountable(), location(30), 1.0);
+        Assert.assertEquals(20, driver.getLocation(new Mountable("F1")).getX(), 0);
+        driver.home(null);
+
+        Assert.assertEquals(2, gantry.moves.get());
+        Assert.assertEquals(1, feeders.moves.get());
+        Assert.assertEquals(1, gantry.homes.get());
+        Assert.assertEquals(1, feeders.homes.get());
+        Assert.assertSame(feeders, driver.getDriverFor(new Mountable("F1")));
+        Assert.assertSame(gantry, driver.getDriver("gantry"));
+        driver.close();
+    }
+
+    /**
+     * Makes sure moves on different sub-drivers overlap while moves on the
+     * same one take turns.
+     */
+    @Test
+    public void testConcurrency() throws Exception {
+        CompositeDriver driver = new CompositeDriver();
+        driver.addDriver("gantry", new SlowDriver(200));
+        driver.addDriver("feeders", new SlowDriver(200));
+        driver.addRoute("F1", "feeders");
+        driver.addRoute("F2", "feeders");
+
+        Assert.assertTrue(timeMoves(driver, "N1", "F1") < 350);
+        Assert.assertTrue(timeMoves(driver, "F1", "F2") >= 400);
+        driver.close();
+    }
+
+    /**
+     * Makes sure barrier() waits for a command that another thread has
+     * running on a different sub-driver.
+     */
+    @Test
+    public void testBarrier() throws Exception {
+        SlowDriver feeders = new SlowDriver(200);
+        CompositeDriver driver = new CompositeDriver();
+        driver.addDriver("gantry", new SlowDriver(0));
+        driver.addDriver("feeders", feeders);
+        driver.addRoute("F1", "feeders");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> {
+                driver.moveTo(new Mountable("F1"), location(20), 1.0);
+                return null;
+            });
+            while (feeders.moves.get() == 0) {
+                Thread.sleep(1);
+            }
+            driver.barrier();
+            Assert.assertEquals(20, feeders.getLocation(null).getX(), 0);
+        }
+        finally {
+            executor.shutdown();
+        }
+        driver.close();
+    }
+
+    @Test
+    public void testMacroWithoutActuators() throws Exception {
+        CompositeDriver driver = new CompositeDriver();
+        driver.addDriver("gantry", new SlowDriver(0));
+        Future<Void> done = driver.actuate(new ActuatorMacro().delay(1));
+        Assert.assertTrue(done.isDone());
+        driver.close();
+    }
+
+    private static long timeMoves(CompositeDriver driver, String id1, String id2) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            long t = System.currentTimeMillis();
+            Future<Void> a = executor.submit(move(driver, id1));
+            Future<Void> b = executor.submit(move(driver, id2));
+            a.get();
+            b.get();
+            return System.currentTimeMillis() - t;
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Callable<Void> move(CompositeDriver driver, String id) {
+        return () -> {
+            driver.moveTo(new Mountable(id), location(Math.random()), 1.0);
+            return null;
+        };
+    }
+
+    private static Location location(double x) {
+        return new Location(LengthUnit.Millimeters, x, 0, 0, 0);
+    }
+
+    static class Mountable extends TestHeadMountable implements Identifiable {
+        private final String id;
+
+        Mountable(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+    }
+
+    /**
+     * Counts its commands and takes the given time over each move.
+     */
+    static class SlowDriver extends TestDriver {
+        final AtomicInteger moves = new AtomicInteger();
+        final AtomicInteger homes = new AtomicInteger();
+        private final long moveMillis;
+
+        SlowDriver(long moveMillis) {
+            this.moveMillis = moveMillis;
+        }
+
+        @Override
+        public void home(ReferenceHead head) throws Exception {
+            homes.incrementAndGet();
+            super.home(head);
+        }
+
+        @Override
+        public void moveTo(ReferenceHeadMountable hm, Location location, double speed) throws Exception {
+            moves.incrementAndGet();
+            Thread.sleep(moveMillis);
+            super.moveTo(hm, location, speed);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import java.util.concurrent.TimeUnit;
+
+import org.firepick.kinematics.RotatableDeltaKinematicsCalculator;
+import org.firepick.model.RawStepTriplet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+
+/**
+ * Compares converting the segments of a straight line move to raw steps
+ * one Location at a time with calculateDelta and getRawSteps against the
+ * batched calculateRawSteps kernel. Scores are per segment.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DeltaKinematicsBenchmark {
+    private static final int SEGMENTS = 64;
+
+    private RotatableDeltaKinematicsCalculator deltaCalc = new RotatableDeltaKinematicsCalculator();
+    private double[] points = new double[SEGMENTS * 3];
+    private int[] steps = new int[SEGMENTS * 3];
+
+    @Setup
+    public void setup() throws Exception {
+        Location home = deltaCalc.getHomePosCartesian();
+        for (int i = 0; i < SEGMENTS; i++) {
+            double t = (double) (i + 1) / SEGMENTS;
+            points[i * 3] = home.getX() + 60 * t;
+            points[i * 3 + 1] = home.getY() - 40 * t;
+            points[i * 3 + 2] = home.getZ() - 30 * t;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEGMENTS)
+    public void single(Blackhole blackhole) throws Exception {
+        for (int i = 0; i < SEGMENTS; i++) {
+            RawStepTriplet rs = deltaCalc.getRawSteps(deltaCalc.calculateDelta(new Location(
+                    LengthUnit.Millimeters, points[i * 3], points[i * 3 + 1], points[i * 3 + 2], 0)));
+            blackhole.consume(rs);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEGMENTS)
+    public int[] batched() throws Exception {
+        deltaCalc.calculateRawSteps(points, SEGMENTS, steps);
+        return steps;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DeltaKinematicsBenchmark.class.getSimpleName())
+                .forks(1)
+                .build()).run();
+    }
+}
@@ -0,0 +1,57 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.firepick.kinematics.DeltaReachabilityMap;
+import org.firepick.kinematics.RotatableDeltaKinematicsCalculator;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeltaReachabilityMapTest {
+    /**
+     * Makes sure the map agrees with the inverse kinematics everywhere in
+     * and around the workspace.
+     */
+    @Test
+    public void testMatchesKinematics() {
+        RotatableDeltaKinematicsCalculator deltaCalc = new RotatableDeltaKinematicsCalculator();
+        DeltaReachabilityMap map = DeltaReachabilityMap.build(deltaCalc, 5);
+        double radius = deltaCalc.getWorkspaceRadius() * 1.1;
+        double minZ = deltaCalc.getWorkspaceMinZ() - 10;
+        double maxZ = deltaCalc.getWorkspaceMaxZ() + 10;
+        Random random = new Random(0);
+        int reachable = 0;
+        for (int i = 0; i < 100000; i++) {
+            double x = (random.nextDouble() * 2 - 1) * radius;
+            double y = (random.nextDouble() * 2 - 1) * radius;
+            double z = minZ + random.nextDouble() * (maxZ - minZ);
+            boolean expected = deltaCalc.isReachable(x, y, z);
+            Assert.assertEquals(x + ", " + y + ", " + z, expected, map.isReachable(x, y, z));
+            if (expected) {
+                reachable++;
+            }
+        }
+        // Make sure the test means something.
+        Assert.assertTrue(reachable > 1000);
+        Assert.assertTrue(reachable < 99000);
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        RotatableDeltaKinematicsCalculator deltaCalc = new RotatableDeltaKinematicsCalculator();
+        File directory = Files.createTempDirectory("delta").toFile();
+        try {
+            DeltaReachabilityMap built = DeltaReachabilityMap.load(deltaCalc, 10, directory);
+            Assert.assertEquals(1, directory.listFiles().length);
+            DeltaReachabilityMap loaded = DeltaReachabilityMap.load(deltaCalc, 10, directory);
+            Assert.assertEquals(built.getGeometryKey(), loaded.getGeometryKey());
+            Assert.assertEquals(built.isReachable(0, 0, -100), loaded.isReachable(0, 0, -100));
+        }
+        finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+}
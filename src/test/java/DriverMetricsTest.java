@@ -0,0 +1,63 @@
+import jssc.SerialPort;
+import jssc.SerialPortException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.driver.AbstractSerialPortDriver;
+import org.openpnp.machine.reference.driver.DriverMetrics;
+import org.openpnp.machine.reference.driver.GrblDriver;
+
+public class DriverMetricsTest {
+    /**
+     * Makes sure commands, traffic and queue depth are counted, and that
+     * reset() clears the counters but keeps the current queue depth.
+     */
+    @Test
+    public void testCounters() throws Exception {
+        DriverMetrics metrics = new DriverMetrics();
+        metrics.record(DriverMetrics.Command.Move, metrics.start());
+        metrics.record(DriverMetrics.Command.Move, metrics.start());
+        metrics.record(DriverMetrics.Command.Home, metrics.start());
+        metrics.recordAcknowledgementWait(metrics.start());
+        metrics.addBytesIn(3);
+        metrics.addBytesOut(5);
+        metrics.setQueueDepth(4);
+        metrics.setQueueDepth(2);
+
+        Assert.assertEquals(2, metrics.getCount(DriverMetrics.Command.Move));
+        Assert.assertEquals(1, metrics.getCount(DriverMetrics.Command.Home));
+        Assert.assertEquals(0, metrics.getCount(DriverMetrics.Command.Dwell));
+        Assert.assertEquals(1, metrics.getAcknowledgementWait().getCount());
+        Assert.assertEquals(3, metrics.getBytesIn());
+        Assert.assertEquals(5, metrics.getBytesOut());
+        Assert.assertEquals(2, metrics.getQueueDepth());
+        Assert.assertEquals(4, metrics.getMaxQueueDepth());
+
+        metrics.reset();
+        Assert.assertEquals(0, metrics.getCount(DriverMetrics.Command.Move));
+        Assert.assertEquals(0, metrics.getBytesIn());
+        Assert.assertEquals(0, metrics.getBytesOut());
+        Assert.assertEquals(2, metrics.getMaxQueueDepth());
+    }
+
+    /**
+     * Makes sure bytes read from a serial port one at a time, the way
+     * readLine() reads them, are counted as bytes in.
+     */
+    @Test
+    public void testSerialBytesIn() throws Exception {
+        GrblDriver driver = new GrblDriver();
+        SerialPort port = new SerialPort("test") {
+            @Override
+            public byte[] readBytes(int byteCount) throws SerialPortException {
+                return new byte[byteCount];
+            }
+        };
+        AbstractSerialPortDriver.SerialInputStream in = driver.new SerialInputStream(port);
+        for (int i = 0; i < 3; i++) {
+            in.read();
+        }
+        Assert.assertEquals(3, driver.getMetrics().getBytesIn());
+        driver.close();
+    }
+}
@@ -0,0 +1,167 @@
+import org.firepick.driver.FireStepDriver;
+import org.firepick.kinematics.RotatableDeltaKinematicsCalculator;
+import org.firepick.model.RawStepTriplet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.ReferenceDriver;
+import org.openpnp.machine.reference.ReferenceHeadMountable;
+import org.openpnp.machine.reference.driver.GrblDriver;
+import org.openpnp.machine.reference.driver.MarlinDriver;
+import org.openpnp.machine.reference.driver.PositionCache;
+import org.openpnp.machine.reference.driver.TinygDriver;
+import org.openpnp.machine.reference.driver.test.FireStepSimulator;
+import org.openpnp.machine.reference.driver.test.FirmwareSimulator;
+import org.openpnp.machine.reference.driver.test.GrblSimulator;
+import org.openpnp.machine.reference.driver.test.MarlinSimulator;
+import org.openpnp.machine.reference.driver.test.TestHeadMountable;
+import org.openpnp.machine.reference.driver.test.TinygSimulator;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+
+/**
+ * Runs the serial drivers against simulated firmware. Each test makes a
+ * series of moves and checks that the firmware ended up where the driver
+ * thinks it is, that the driver waited at least as long as the machine
+ * took to move and that the firmware never dropped a byte.
+ */
+public class FirmwareSimulatorTest {
+    private static final int MOVES = 5;
+
+    @Test
+    public void testGrbl() throws Exception {
+        try (GrblSimulator simulator = new GrblSimulator()) {
+            GrblDriver driver = new GrblDriver();
+            driver.setTransport(simulator);
+            driver.connect();
+            try {
+                runMoves(driver, simulator);
+            }
+            finally {
+                driver.disconnect();
+            }
+        }
+    }
+
+    @Test
+    public void testMarlin() throws Exception {
+        try (MarlinSimulator simulator = new MarlinSimulator()) {
+            MarlinDriver driver = new MarlinDriver();
+            driver.setTransport(simulator);
+            driver.connect();
+            try {
+                runMoves(driver, simulator);
+            }
+            finally {
+                driver.disconnect();
+            }
+        }
+    }
+
+    @Test
+    public void testTinyg() throws Exception {
+        try (TinygSimulator simulator = new TinygSimulator()) {
+            TinygDriver driver = new TinygDriver();
+            driver.setTransport(simulator);
+            driver.connect();
+            try {
+                runMoves(driver, simulator);
+                // TinyG reports where it stopped after every move.
+                Assert.assertNotNull(driver.getPositionCache().getReported());
+                Assert.assertFalse(driver.getPositionCache().isDrifted());
+            }
+            finally {
+                driver.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Makes sure the background position poll finds FireStep where it was
+     * sent, and notices when it isn't.
+     */
+    @Test
+    public void testFireStepPositionPoll() throws Exception {
+        try (FireStepSimulator simulator = new FireStepSimulator()) {
+            FireStepDriver driver = new FireStepDriver();
+            driver.setTransport(simulator);
+            driver.setPositionPollIntervalMs(20);
+            driver.connect();
+            try {
+                PositionCache positionCache = driver.getPositionCache();
+                driver.home(null);
+                Location home = new RotatableDeltaKinematicsCalculator().getHomePosCartesian();
+                driver.moveTo(new TestHeadMountable(), 
+                        home.add(new Location(LengthUnit.Millimeters, 10, -10, -5, 0)), 1.0);
+                long t = System.currentTimeMillis();
+                while (positionCache.getReported() == null) {
+                    Assert.assertTrue(System.currentTimeMillis() - t < 5000);
+                    Thread.sleep(10);
+                }
+                Assert.assertFalse(positionCache.isDrifted());
+
+                simulator.loseSteps(1, 100);
+                while (!positionCache.isDrifted()) {
+                    Assert.assertTrue(System.currentTimeMillis() - t < 5000);
+                    Thread.sleep(10);
+                }
+                Assert.assertEquals(1, positionCache.getDriftCount());
+            }
+            finally {
+                driver.disconnect();
+            }
+        }
+    }
+
+    @Test
+    public void testFireStep() throws Exception {
+        try (FireStepSimulator simulator = new FireStepSimulator()) {
+            FireStepDriver driver = new FireStepDriver();
+            driver.setTransport(simulator);
+            driver.connect();
+            try {
+                RotatableDeltaKinematicsCalculator deltaCalc = 
+                        new RotatableDeltaKinematicsCalculator();
+                ReferenceHeadMountable hm = new TestHeadMountable();
+                long t = System.currentTimeMillis();
+                driver.home(null);
+                Location home = deltaCalc.getHomePosCartesian();
+                Location location = null;
+                for (int i = 1; i <= MOVES; i++) {
+                    location = home.add(new Location(LengthUnit.Millimeters, i * 10, -i * 10, -5 * i, 0));
+                    driver.moveTo(hm, location, 1.0);
+                }
+                // Each 15mm move is split into three 5mm segments.
+                Assert.assertEquals(1 + MOVES * 3, simulator.getMovCount());
+                RawStepTriplet rs = deltaCalc.getRawSteps(deltaCalc.calculateDelta(location));
+                double[] position = simulator.getPosition();
+                Assert.assertEquals(rs.x, position[0], 0);
+                Assert.assertEquals(rs.y, position[1], 0);
+                Assert.assertEquals(rs.z, position[2], 0);
+                assertTiming(simulator, t);
+            }
+            finally {
+                driver.disconnect();
+            }
+        }
+    }
+
+    private void runMoves(ReferenceDriver driver,
+            FirmwareSimulator simulator) throws Exception {
+        ReferenceHeadMountable hm = new TestHeadMountable();
+        long t = System.currentTimeMillis();
+        for (int i = 1; i <= MOVES; i++) {
+            driver.moveTo(hm, new Location(LengthUnit.Millimeters, i * 10, i * 5, -i, i * 10), 1.0);
+        }
+        // Any command that has to wait for the machine to finish moving.
+        driver.moveTo(hm, new Location(LengthUnit.Millimeters, 0, 0, 0, 0), 1.0);
+        Assert.assertArrayEquals(new double[] { 0, 0, 0, 0 }, simulator.getPosition(), 0.01);
+        assertTiming(simulator, t);
+    }
+
+    private void assertTiming(FirmwareSimulator simulator, long startMillis) {
+        long elapsed = System.currentTimeMillis() - startMillis;
+        Assert.assertTrue(simulator.getTotalMotionMillis() > 0);
+        Assert.assertTrue(elapsed >= simulator.getTotalMotionMillis() - 1);
+        Assert.assertEquals(0, simulator.getRxOverflows());
+    }
+}
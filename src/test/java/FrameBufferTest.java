@@ -0,0 +1,50 @@
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.openpnp.machine.reference.camera.FrameBuffer;
+
+public class FrameBufferTest {
+    /**
+     * Makes sure the frame buffer drops its oldest frame when full, returns
+     * the newest frame or the first one after a timestamp, and waits for a
+     * frame that hasn't arrived yet.
+     */
+    @Test
+    public void frameBuffer() throws Exception {
+        FrameBuffer frames = new FrameBuffer(3);
+        Assert.assertNull(frames.getLatest(0));
+        for (int i = 1; i <= 4; i++) {
+            Mat dropped = frames.put(new Mat(1, 1, CvType.CV_8UC1, new Scalar(i)), i * 10);
+            Assert.assertEquals(i == 4, dropped != null);
+            if (dropped != null) {
+                Assert.assertEquals(1.0, dropped.get(0, 0)[0], 0);
+                dropped.release();
+            }
+        }
+        Assert.assertEquals(40, frames.getLatestTimestamp());
+        Assert.assertEquals(4.0, frames.getLatest(0).get(0, 0)[0], 0);
+        // The frame that finished after the timestamp is skipped, since its
+        // read may have started before it.
+        Assert.assertEquals(4.0, frames.getAfter(25, 0).get(0, 0)[0], 0);
+        Assert.assertEquals(3.0, frames.getAfter(15, 0).get(0, 0)[0], 0);
+        Assert.assertEquals(2.0, frames.getAfter(0, 0).get(0, 0)[0], 0);
+        Assert.assertNull(frames.getAfter(35, 0));
+
+        Thread grabber = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            }
+            catch (InterruptedException e) {
+            }
+            frames.put(new Mat(1, 1, CvType.CV_8UC1, new Scalar(5)), 50);
+        });
+        grabber.start();
+        Assert.assertEquals(5.0, frames.getAfter(35, 5000).get(0, 0)[0], 0);
+        grabber.join();
+        Assert.assertNull(frames.getAfter(40, 0));
+        frames.clear();
+        Assert.assertEquals(Long.MIN_VALUE, frames.getLatestTimestamp());
+    }
+}
@@ -0,0 +1,46 @@
+import java.io.ByteArrayOutputStream;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.driver.GcodeBuilder;
+
+public class GcodeBuilderTest {
+    /**
+     * Makes sure GcodeBuilder writes the same numbers String.format does
+     * for the precisions the drivers use.
+     */
+    @Test
+    public void testMatchesStringFormat() {
+        GcodeBuilder gcode = new GcodeBuilder(4);
+        Random random = new Random(0);
+        for (int decimals : new int[] { 0, 2, 4 }) {
+            for (int i = 0; i < 10000; i++) {
+                double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(7));
+                String expected = String.format(Locale.US, "X%." + decimals + "f", value);
+                if (expected.matches("X-0\\.?0*")) {
+                    // We never write negative zero.
+                    expected = expected.replace("-", "");
+                }
+                Assert.assertEquals(expected, gcode.clear().appendWord('X', value, decimals).toString());
+            }
+        }
+        Assert.assertEquals("G1 X0.00 Y-1.50 F5000.00", gcode.clear().append("G1 ")
+                .appendWord('X', 0, 2).append(' ')
+                .appendWord('Y', -1.5, 2).append(' ')
+                .appendWord('F', 5000, 2).toString());
+        Assert.assertEquals("N-42", gcode.clear().append('N').append(-42L).toString());
+    }
+
+    @Test
+    public void testWriteLine() throws Exception {
+        GcodeBuilder gcode = new GcodeBuilder();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        gcode.append("G4 P0").writeLine(out);
+        gcode.clear().append("M8").writeLine(out);
+        Assert.assertEquals("G4 P0\nM8\n", out.toString("US-ASCII"));
+        Assert.assertEquals('M', gcode.charAt(0));
+        Assert.assertEquals(2, gcode.length());
+    }
+}
@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openpnp.machine.reference.driver.GcodeBuilder;
+
+/**
+ * Compares building and writing a G1 move the way the drivers used to,
+ * with a StringBuffer, String.format and getBytes, against GcodeBuilder.
+ * Run with -prof gc to see the allocation rate of each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GcodeFormatBenchmark {
+    private double x, y, z, c;
+    private double feedRateMmPerMinute = 5000;
+    private GcodeBuilder gcode = new GcodeBuilder();
+    private OutputStream output;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                blackhole.consume(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                blackhole.consume(b);
+            }
+        };
+    }
+
+    private void next() {
+        x += 1.25;
+        y -= 0.75;
+        z = (z + 0.5) % 10;
+        c = (c + 45) % 360;
+    }
+
+    @Benchmark
+    public void stringFormat() throws IOException {
+        next();
+        StringBuffer sb = new StringBuffer();
+        sb.append(String.format(Locale.US, "X%2.2f ", x));
+        sb.append(String.format(Locale.US, "Y%2.2f ", y));
+        sb.append(String.format(Locale.US, "Z%2.2f ", z));
+        sb.append(String.format(Locale.US, "C%2.2f ", c));
+        sb.append(String.format(Locale.US, "F%2.2f", feedRateMmPerMinute));
+        String command = "G1 " + sb.toString();
+        output.write(command.getBytes());
+        output.write("\n".getBytes());
+    }
+
+    @Benchmark
+    public void gcodeBuilder() throws IOException {
+        next();
+        gcode.clear().append("G1 ");
+        gcode.appendWord('X', x, 2).append(' ');
+        gcode.appendWord('Y', y, 2).append(' ');
+        gcode.appendWord('Z', z, 2).append(' ');
+        gcode.appendWord('C', c, 2).append(' ');
+        gcode.appendWord('F', feedRateMmPerMinute, 2);
+        gcode.writeLine(output);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(GcodeFormatBenchmark.class.getSimpleName())
+                .forks(1)
+                .build()).run();
+    }
+}
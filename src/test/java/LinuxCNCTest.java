@@ -0,0 +1,147 @@
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.ReferenceHeadMountable;
+import org.openpnp.machine.reference.driver.LinuxCNC;
+import org.openpnp.machine.reference.driver.test.LinuxCncServer;
+import org.openpnp.machine.reference.driver.test.TestHeadMountable;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+
+public class LinuxCNCTest {
+    /**
+     * Queues a series of moves against a server that takes 100ms to
+     * complete each one and makes sure the moves are queued without waiting,
+     * sent in order, and that the next non-move command waits for all of
+     * them.
+     */
+    @Test
+    public void testPipelinedMoves() throws Exception {
+        try (LinuxCncServer server = new LinuxCncServer(100)) {
+            LinuxCNC driver = new LinuxCNC();
+            driver.setPipelineMoves(true);
+            driver.connect("127.0.0.1", server.getPort());
+            try {
+                ReferenceHeadMountable hm = new TestHeadMountable();
+                long t = System.currentTimeMillis();
+                for (int i = 1; i <= 10; i++) {
+                    driver.moveTo(hm, new Location(LengthUnit.Millimeters, i, i * 2, 0, 0), 1.0);
+                }
+                Assert.assertTrue(System.currentTimeMillis() - t < 500);
+                driver.pick(null);
+                Assert.assertTrue(System.currentTimeMillis() - t >= 1000);
+
+                List<String> commands = server.getCommands();
+                int first = commands.indexOf("set mdi G1 X1.00 Y2.00 F0.00");
+                Assert.assertTrue(first != -1);
+                for (int i = 2; i <= 10; i++) {
+                    Assert.assertEquals(String.format("set mdi G1 X%d.00 Y%d.00 F0.00", i, i * 2), 
+                            commands.get(first + i - 1));
+                }
+                Assert.assertEquals("set mdi m3 s100", commands.get(first + 10));
+            }
+            finally {
+                driver.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Makes sure a rejected pipelined move is reported by the next command
+     * and that the background status poll picks up the machine position.
+     */
+    @Test
+    public void testRejectedMoveAndStatus() throws Exception {
+        try (LinuxCncServer server = new LinuxCncServer(0)) {
+            LinuxCNC driver = new LinuxCNC();
+            driver.setPipelineMoves(true);
+            driver.setStatusPollIntervalMs(10);
+            driver.connect("127.0.0.1", server.getPort());
+            try {
+                ReferenceHeadMountable hm = new TestHeadMountable();
+                driver.moveTo(hm, new Location(LengthUnit.Millimeters, 5, 6, 0, 0), 1.0);
+                long t = System.currentTimeMillis();
+                while (!new Location(LengthUnit.Millimeters, 5, 6, 0, 0)
+                        .equals(driver.getReportedLocation())) {
+                    Assert.assertTrue(System.currentTimeMillis() - t < 5000);
+                    Thread.sleep(10);
+                }
+
+                server.setNakCommand("X7.00");
+                driver.moveTo(hm, new Location(LengthUnit.Millimeters, 7, 6, 0, 0), 1.0);
+                try {
+                    driver.place(null);
+                    Assert.fail("Rejected move was not reported.");
+                }
+                catch (Exception e) {
+                    // expected
+                }
+            }
+            finally {
+                driver.disconnect();
+            }
+        }
+    }
+
+    /**
+     * linuxcncrsh starts with verbose off and doesn't reply to a set that
+     * succeeds. Makes sure the handshake turns verbose on before sending
+     * any other set, so it neither hangs nor pairs replies with the wrong
+     * commands.
+     */
+    @Test
+    public void testConnectWithVerboseOff() throws Exception {
+        try (LinuxCncServer server = new LinuxCncServer(0, false)) {
+            LinuxCNC driver = new LinuxCNC();
+            driver.connect("127.0.0.1", server.getPort());
+            try {
+                List<String> commands = server.getCommands();
+                Assert.assertEquals("hello EMC x 1.1", commands.get(0));
+                Assert.assertEquals("set verbose on", commands.get(1));
+
+                ReferenceHeadMountable hm = new TestHeadMountable();
+                driver.moveTo(hm, new Location(LengthUnit.Millimeters, 3, 4, 0, 0), 1.0);
+                Assert.assertEquals("set mdi G1 X3.00 Y4.00 F0.00", 
+                        server.getCommands().get(server.getCommands().size() - 1));
+            }
+            finally {
+                driver.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Makes sure connect() gives up with an error instead of hanging when
+     * the server never replies to the handshake.
+     */
+    @Test
+    public void testHandshakeTimeout() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread thread = new Thread(() -> {
+                try (Socket socket = serverSocket.accept()) {
+                    while (socket.getInputStream().read() != -1) {
+                    }
+                }
+                catch (Exception e) {
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            
+            LinuxCNC driver = new LinuxCNC();
+            long t = System.currentTimeMillis();
+            try {
+                driver.connect("127.0.0.1", serverSocket.getLocalPort());
+                Assert.fail("connect() succeeded without a reply.");
+            }
+            catch (Exception e) {
+                Assert.assertTrue(e.getMessage().contains("hello"));
+            }
+            Assert.assertTrue(System.currentTimeMillis() - t < 10000);
+        }
+    }
+}
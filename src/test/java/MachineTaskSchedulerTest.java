@@ -0,0 +1,88 @@
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.spi.Machine.TaskPriority;
+import org.openpnp.spi.base.MachineTaskScheduler;
+
+public class MachineTaskSchedulerTest {
+    /**
+     * Makes sure queued tasks run highest priority first, in submission
+     * order within a priority, and that a coalesced task only runs once
+     * with its latest value.
+     */
+    @Test
+    public void testOrder() throws Exception {
+        MachineTaskScheduler scheduler = new MachineTaskScheduler();
+        List<String> ran = new CopyOnWriteArrayList<>();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // Hold the thread so everything else queues up behind this.
+        scheduler.submit(() -> {
+            blocked.countDown();
+            release.await();
+            return null;
+        }, TaskPriority.Ui, null);
+        blocked.await();
+
+        scheduler.submit(record(ran, "background"), TaskPriority.Background, null);
+        scheduler.submit(record(ran, "ui1"), TaskPriority.Ui, null);
+        Future<?> jog1 = scheduler.submit(record(ran, "jog1"), TaskPriority.Jog, "jog");
+        scheduler.submit(record(ran, "ui2"), TaskPriority.Ui, null);
+        Future<?> jog2 = scheduler.submit(record(ran, "jog2"), TaskPriority.Jog, "jog");
+        Assert.assertEquals(4, scheduler.getQueueDepth());
+        Assert.assertTrue(jog1.isCancelled());
+        Assert.assertEquals(1, scheduler.getCoalescedCount());
+
+        release.countDown();
+        Future<?> last = scheduler.submit(record(ran, "last"), TaskPriority.Background, null);
+        last.get();
+        jog2.get();
+        Assert.assertEquals("[jog2, ui1, ui2, background, last]", ran.toString());
+        Assert.assertEquals(1, scheduler.getLatency(TaskPriority.Jog).getCount());
+        Assert.assertEquals(3, scheduler.getLatency(TaskPriority.Ui).getCount());
+    }
+
+    /**
+     * Makes sure an Emergency task cancels the queued tasks and interrupts
+     * the running one instead of waiting for it to finish.
+     */
+    @Test
+    public void testEmergency() throws Exception {
+        MachineTaskScheduler scheduler = new MachineTaskScheduler();
+        List<String> ran = new CopyOnWriteArrayList<>();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> running = scheduler.submit(() -> {
+            blocked.countDown();
+            release.await();
+            return null;
+        }, TaskPriority.Ui, null);
+        blocked.await();
+
+        Future<?> jog = scheduler.submit(record(ran, "jog"), TaskPriority.Jog, null);
+        Future<?> stop = scheduler.submit(record(ran, "stop"), TaskPriority.Emergency, null);
+        stop.get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(running.isCancelled());
+        try {
+            jog.get();
+            Assert.fail("jog should have been cancelled");
+        }
+        catch (CancellationException e) {
+        }
+        Assert.assertEquals("[stop]", ran.toString());
+    }
+
+    private static Callable<Void> record(List<String> ran, String name) {
+        return () -> {
+            ran.add(name);
+            return null;
+        };
+    }
+}
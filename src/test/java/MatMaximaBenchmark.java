@@ -0,0 +1,132 @@
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openpnp.machine.reference.vision.OpenCvVisionProvider;
+
+/**
+ * Compares finding the peaks of a 640x480 template match result one
+ * Mat.get() per pixel, the way OpenCvVisionProvider used to, against
+ * copying the result into a float[] once and searching that.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MatMaximaBenchmark {
+    private static final int ROWS = 480;
+    private static final int COLS = 640;
+
+    private Mat mat;
+    private float[] buffer;
+
+    @Setup
+    public void setup() {
+        nu.pattern.OpenCV.loadShared();
+        float[] data = new float[ROWS * COLS];
+        for (int r = 0; r < ROWS; r++) {
+            for (int c = 0; c < COLS; c++) {
+                data[r * COLS + c] = (float) (Math.sin(r / 7.0) * Math.cos(c / 11.0));
+            }
+        }
+        mat = new Mat(ROWS, COLS, CvType.CV_32FC1);
+        mat.put(0, 0, data);
+    }
+
+    @Benchmark
+    public List<Point> perPixelGet() {
+        return perPixelMaxima(mat, 0.5, 1.0);
+    }
+
+    @Benchmark
+    public List<Point> bulkCopy() {
+        buffer = OpenCvVisionProvider.getFloatData(mat, buffer);
+        return OpenCvVisionProvider.matMaxima(buffer, ROWS, COLS, 0.5, 1.0);
+    }
+
+    enum RowState {
+        BEFORE_INFLECTION, AFTER_INFLECTION
+    }
+
+    private static List<Point> perPixelMaxima(Mat mat, double rangeMin, double rangeMax) {
+        List<Point> locations = new ArrayList<>();
+
+        int rEnd = mat.rows() - 1;
+        int cEnd = mat.cols() - 1;
+
+        // CHECK EACH ROW MAXIMA FOR LOCAL 2D MAXIMA
+        for (int r = 0; r <= rEnd; r++) {
+            RowState state = RowState.BEFORE_INFLECTION;
+            double curVal = mat.get(r, 0)[0];
+            for (int c = 1; c <= cEnd; c++) {
+                double val = mat.get(r, c)[0];
+
+                if (val == curVal) {
+                    continue;
+                } else if (curVal < val) {
+                    if (state == RowState.BEFORE_INFLECTION) {
+                        // n/a
+                    } else {
+                        state = RowState.BEFORE_INFLECTION;
+                    }
+                } else { // curVal > val
+                    if (state == RowState.BEFORE_INFLECTION) {
+                        if (rangeMin <= curVal && curVal <= rangeMax) { // ROW MAXIMA
+                            if (0 < r && (mat.get(r - 1, c - 1)[0] >= curVal || mat.get(r - 1, c)[0] >= curVal)) {
+                                // rejected
+                            } else if (r < rEnd && (mat.get(r + 1, c - 1)[0] > curVal || mat.get(r + 1, c)[0] > curVal)) {
+                                // rejected
+                            } else if (1 < c
+                                    && (0 < r && mat.get(r - 1, c - 2)[0] >= curVal || mat.get(r, c - 2)[0] > curVal || r < rEnd && mat.get(r + 1, c - 2)[0] > curVal)) {
+                                // rejected
+                            } else {
+                                locations.add(new Point(c - 1, r));
+                            }
+                        }
+                        state = RowState.AFTER_INFLECTION;
+                    } else {
+                        // n/a
+                    }
+                }
+
+                curVal = val;
+            }
+
+            // PROCESS END OF ROW
+            if (state == RowState.BEFORE_INFLECTION) {
+                if (rangeMin <= curVal && curVal <= rangeMax) { // ROW MAXIMA
+                    if (0 < r && (mat.get(r - 1, cEnd - 1)[0] >= curVal || mat.get(r - 1, cEnd)[0] >= curVal)) {
+                        // rejected
+                    } else if (r < rEnd && (mat.get(r + 1, cEnd - 1)[0] > curVal || mat.get(r + 1, cEnd)[0] > curVal)) {
+                        // rejected
+                    } else if (1 < r && mat.get(r - 1, cEnd - 2)[0] >= curVal || mat.get(r, cEnd - 2)[0] > curVal || r < rEnd && mat.get(r + 1, cEnd - 2)[0] > curVal) {
+                        // rejected
+                    } else {
+                        locations.add(new Point(cEnd, r));
+                    }
+                }
+            }
+        }
+
+        return locations;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MatMaximaBenchmark.class.getSimpleName())
+                .forks(1)
+                .build()).run();
+    }
+}
@@ -0,0 +1,123 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.ReferenceHeadMountable;
+import org.openpnp.machine.reference.driver.CompositeDriver;
+import org.openpnp.machine.reference.driver.MoveOptimizingDriver;
+import org.openpnp.machine.reference.driver.test.TestDriver;
+import org.openpnp.machine.reference.driver.test.TestHeadMountable;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+
+public class MoveOptimizingDriverTest {
+    /**
+     * Makes sure repeated and partly redundant moves only send the axes
+     * that change, and that nothing is left out before homing.
+     */
+    @Test
+    public void testEliminatesRedundantMoves() throws Exception {
+        RecordingDriver recorder = new RecordingDriver();
+        MoveOptimizingDriver driver = new MoveOptimizingDriver(recorder);
+        ReferenceHeadMountable hm = new TestHeadMountable();
+
+        // Not homed, so sent as is.
+        driver.moveTo(hm, new Location(LengthUnit.Millimeters, 0, 0, 0, 0), 1.0);
+        Assert.assertEquals(1, recorder.moves.size());
+
+        driver.home(null);
+        driver.moveTo(hm, new Location(LengthUnit.Millimeters, 10, 20, 0, 0), 1.0);
+        Location sent = recorder.moves.get(1);
+        Assert.assertEquals(10, sent.getX(), 0);
+        Assert.assertEquals(20, sent.getY(), 0);
+        Assert.assertTrue(Double.isNaN(sent.getZ()));
+        Assert.assertTrue(Double.isNaN(sent.getRotation()));
+
+        // Two safe Z moves in a row, the second is dropped.
+        Location safeZ = new Location(LengthUnit.Millimeters, Double.NaN, Double.NaN, -5, Double.NaN);
+        driver.moveTo(hm, safeZ, 1.0);
+        driver.moveTo(hm, safeZ, 1.0);
+        Assert.assertEquals(3, recorder.moves.size());
+
+        // Same place in other units.
+        driver.moveTo(hm, new Location(LengthUnit.Millimeters, 10, 20, -5, 0).convertToUnits(LengthUnit.Inches), 1.0);
+        Assert.assertEquals(3, recorder.moves.size());
+
+        Assert.assertEquals(5, driver.getMoveCount());
+        Assert.assertEquals(2, driver.getEliminatedMoveCount());
+        Assert.assertEquals(7, driver.getEliminatedAxisCount());
+        Assert.assertEquals(new Location(LengthUnit.Millimeters, 10, 20, -5, 0), driver.getLocation(hm));
+    }
+
+    /**
+     * Makes sure a failed move stops moves being left out until the next
+     * home.
+     */
+    @Test
+    public void testFailedMove() throws Exception {
+        RecordingDriver recorder = new RecordingDriver();
+        MoveOptimizingDriver driver = new MoveOptimizingDriver(recorder);
+        ReferenceHeadMountable hm = new TestHeadMountable();
+        driver.home(null);
+        recorder.fail = true;
+        try {
+            driver.moveTo(hm, new Location(LengthUnit.Millimeters, 1, 0, 0, 0), 1.0);
+            Assert.fail("Move did not fail.");
+        }
+        catch (Exception e) {
+            // expected
+        }
+        recorder.fail = false;
+        driver.moveTo(hm, new Location(LengthUnit.Millimeters, 0, 0, 0, 0), 1.0);
+        Assert.assertEquals(new Location(LengthUnit.Millimeters, 0, 0, 0, 0), recorder.moves.get(1));
+    }
+
+    /**
+     * Makes sure barrier() reaches a CompositeDriver behind this one, so it
+     * waits for a move running on one of the composite's sub-drivers.
+     */
+    @Test
+    public void testBarrierWithComposite() throws Exception {
+        CompositeDriverTest.SlowDriver feeders = new CompositeDriverTest.SlowDriver(200);
+        CompositeDriver composite = new CompositeDriver();
+        composite.addDriver("gantry", new CompositeDriverTest.SlowDriver(0));
+        composite.addDriver("feeders", feeders);
+        composite.addRoute("F1", "feeders");
+        MoveOptimizingDriver driver = new MoveOptimizingDriver(composite);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> {
+                driver.moveTo(new CompositeDriverTest.Mountable("F1"), new Location(LengthUnit.Millimeters, 20, 0, 0, 0), 1.0);
+                return null;
+            });
+            while (feeders.moves.get() == 0) {
+                Thread.sleep(1);
+            }
+            driver.barrier();
+            Assert.assertEquals(20, feeders.getLocation(null).getX(), 0);
+        }
+        finally {
+            executor.shutdown();
+        }
+        driver.close();
+    }
+
+    private static class RecordingDriver extends TestDriver {
+        private final List<Location> moves = new ArrayList<>();
+        private boolean fail;
+
+        @Override
+        public void moveTo(ReferenceHeadMountable hm, Location location, double speed)
+                throws Exception {
+            moves.add(location.convertToUnits(LengthUnit.Millimeters));
+            if (fail) {
+                throw new Exception("Failed");
+            }
+            super.moveTo(hm, location, speed);
+        }
+    }
+}
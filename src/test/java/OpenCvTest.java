@@ -1,7 +1,10 @@
 import java.awt.image.BufferedImage;
 
+import org.junit.Assert;
 import org.junit.Test;
+import org.opencv.core.Core;
 import org.openpnp.vision.FluentCv;
+import org.openpnp.vision.MatPool;
 
 public class OpenCvTest {
 	/**
@@ -11,6 +14,30 @@ public class OpenCvTest {
 	@Test
 	public void openCvWorks() throws Exception {
 		BufferedImage img = new BufferedImage(640, 480, BufferedImage.TYPE_3BYTE_BGR);
-		new FluentCv().toMat(img).toGray();
+		new FluentCv().toMat(img).toGray().release();
+	}
+	
+	/**
+	 * Makes sure a stored tag keeps its image when a later step writes to
+	 * the pipeline, and that released Mats are reused by the next run.
+	 */
+	@Test
+	public void storedMatsAndPooling() throws Exception {
+		MatPool pool = new MatPool(4, 64L * 1024 * 1024);
+		BufferedImage img = new BufferedImage(64, 48, BufferedImage.TYPE_3BYTE_BGR);
+		
+		FluentCv cv = new FluentCv(pool)
+			.toMat(img, "original")
+			.threshold(128, true);
+		Assert.assertEquals(255.0 * 64 * 48, Core.sumElems(cv.mat()).val[0], 0);
+		Assert.assertEquals(0.0, Core.sumElems(cv.recall("original").mat()).val[0], 0);
+		Assert.assertEquals(2, cv.getMatCount());
+		Assert.assertEquals(2 * 64 * 48 * 3, cv.getPeakBytes());
+		cv.release();
+		Assert.assertEquals(2 * 64 * 48 * 3, pool.getPooledBytes());
+		
+		long hits = pool.getHitCount();
+		new FluentCv(pool).toMat(img).release();
+		Assert.assertEquals(hits + 1, pool.getHitCount());
 	}
 }
@@ -0,0 +1,121 @@
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.openpnp.machine.reference.vision.OpenCvVisionProvider;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.spi.VisionProvider.TemplateMatch;
+
+public class OpenCvVisionProviderTest {
+    /**
+     * Makes sure peaks are found where they are, that values outside the
+     * range and lower neighbours of a peak are ignored, and that a result
+     * only one column wide doesn't index outside the data.
+     */
+    @Test
+    public void testMatMaxima() {
+        float[] data = new float[] {
+                0.0f, 0.1f, 0.2f, 0.1f, 0.0f,
+                0.1f, 0.3f, 0.9f, 0.3f, 0.1f,
+                0.0f, 0.1f, 0.2f, 0.1f, 0.1f,
+                0.0f, 0.0f, 0.0f, 0.1f, 0.7f,
+        };
+        List<Point> maxima = OpenCvVisionProvider.matMaxima(data, 4, 5, 0.5, 1.0);
+        Assert.assertEquals(Arrays.asList(new Point(2, 1), new Point(4, 3)), maxima);
+
+        maxima = OpenCvVisionProvider.matMaxima(data, 4, 5, 0.8, 1.0);
+        Assert.assertEquals(Arrays.asList(new Point(2, 1)), maxima);
+
+        maxima = OpenCvVisionProvider.matMaxima(new float[] { 0.1f, 0.9f, 0.2f }, 3, 1, 0.5, 1.0);
+        Assert.assertEquals(Arrays.asList(new Point(0, 1)), maxima);
+    }
+
+    /**
+     * Makes sure a Mat is copied out whole, and converted to float if it
+     * isn't already.
+     */
+    @Test
+    public void testGetFloatData() {
+        Mat mat = new Mat(2, 3, CvType.CV_8UC1);
+        mat.put(0, 0, new byte[] { 1, 2, 3, 4, 5, 6 });
+        float[] data = OpenCvVisionProvider.getFloatData(mat, null);
+        Assert.assertEquals(6, data.length);
+        for (int i = 0; i < data.length; i++) {
+            Assert.assertEquals(i + 1, data[i], 0);
+        }
+        Assert.assertSame(data, OpenCvVisionProvider.getFloatData(mat, data));
+    }
+
+    /**
+     * Makes sure a peak sampled from a parabola is put back where the
+     * parabola peaks, and that a peak on the edge is left where it is.
+     */
+    @Test
+    public void testSubPixelPeak() {
+        float[] data = new float[5];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (float) (1 - (i - 1.3) * (i - 1.3));
+        }
+        double[] peak = OpenCvVisionProvider.subPixelPeak(data, 1, 5, 1, 0);
+        Assert.assertArrayEquals(new double[] { 1.3, 0 }, peak, 0.0001);
+
+        peak = OpenCvVisionProvider.subPixelPeak(data, 5, 1, 0, 1);
+        Assert.assertArrayEquals(new double[] { 0, 1.3 }, peak, 0.0001);
+
+        peak = OpenCvVisionProvider.subPixelPeak(data, 1, 5, 0, 0);
+        Assert.assertArrayEquals(new double[] { 0, 0 }, peak, 0.0001);
+    }
+
+    /**
+     * Makes sure matches within the merge distance of a better match end up
+     * as one, the best of them, and that a match on its own is kept wherever
+     * it is in the list.
+     */
+    @Test
+    public void testMergeNearbyMatches() {
+        List<TemplateMatch> matches = new ArrayList<>();
+        matches.add(createMatch(0, 0, 0.5));
+        matches.add(createMatch(10, 10, 0.6));
+        matches.add(createMatch(0.8, 0, 0.9));
+        matches.add(createMatch(1.6, 0, 0.7));
+        matches.add(createMatch(-10, 5, 0.4));
+        OpenCvVisionProvider.mergeNearbyMatches(matches, 1.0);
+        Assert.assertEquals(3, matches.size());
+        Assert.assertEquals(0.9, matches.get(0).score, 0);
+        Assert.assertEquals(0.6, matches.get(1).score, 0);
+        Assert.assertEquals(0.4, matches.get(2).score, 0);
+    }
+
+    /**
+     * Makes sure a dense chain of weaker maxima running between two parts
+     * doesn't merge them into one, even though each maximum is within the
+     * merge distance of the next.
+     */
+    @Test
+    public void testMergeNearbyMatchesChain() {
+        double[] scores = { 0.95, 0.9, 0.8, 0.7, 0.6, 0.7, 0.8, 0.85, 0.9 };
+        List<TemplateMatch> matches = new ArrayList<>();
+        for (int i = 0; i < scores.length; i++) {
+            matches.add(createMatch(i * 0.25, 0, scores[i]));
+        }
+        OpenCvVisionProvider.mergeNearbyMatches(matches, 1.0);
+        Assert.assertEquals(2, matches.size());
+        Assert.assertEquals(0.95, matches.get(0).score, 0);
+        Assert.assertEquals(0, matches.get(0).location.getX(), 0);
+        Assert.assertEquals(0.9, matches.get(1).score, 0);
+        Assert.assertEquals(2, matches.get(1).location.getX(), 0);
+    }
+
+    private static TemplateMatch createMatch(double x, double y, double score) {
+        TemplateMatch match = new TemplateMatch();
+        match.location = new Location(LengthUnit.Millimeters, x, y, 0, 0);
+        match.score = score;
+        return match;
+    }
+}
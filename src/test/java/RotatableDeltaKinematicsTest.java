@@ -0,0 +1,45 @@
+import org.firepick.kinematics.RotatableDeltaKinematicsCalculator;
+import org.firepick.model.RawStepTriplet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+
+public class RotatableDeltaKinematicsTest {
+    /**
+     * Makes sure the batched kernel gives the same steps as calculateDelta
+     * and getRawSteps over the working volume around home.
+     */
+    @Test
+    public void testBatchMatchesSingle() throws Exception {
+        RotatableDeltaKinematicsCalculator deltaCalc = new RotatableDeltaKinematicsCalculator();
+        Location home = deltaCalc.getHomePosCartesian();
+        int count = 0;
+        double[] points = new double[11 * 11 * 5 * 3];
+        for (int x = -50; x <= 50; x += 10) {
+            for (int y = -50; y <= 50; y += 10) {
+                for (int z = 0; z < 50; z += 10) {
+                    points[count * 3] = home.getX() + x;
+                    points[count * 3 + 1] = home.getY() + y;
+                    points[count * 3 + 2] = home.getZ() - z;
+                    count++;
+                }
+            }
+        }
+        int[] steps = new int[count * 3];
+        deltaCalc.calculateRawSteps(points, count, steps);
+        for (int i = 0; i < count; i++) {
+            RawStepTriplet rs = deltaCalc.getRawSteps(deltaCalc.calculateDelta(
+                    new Location(LengthUnit.Millimeters, points[i * 3], points[i * 3 + 1], points[i * 3 + 2], 0)));
+            Assert.assertEquals(rs.x, steps[i * 3]);
+            Assert.assertEquals(rs.y, steps[i * 3 + 1]);
+            Assert.assertEquals(rs.z, steps[i * 3 + 2]);
+        }
+    }
+
+    @Test(expected = RotatableDeltaKinematicsCalculator.RotatableDeltaKinematicsException.class)
+    public void testUnreachable() throws Exception {
+        RotatableDeltaKinematicsCalculator deltaCalc = new RotatableDeltaKinematicsCalculator();
+        deltaCalc.calculateRawSteps(new double[] { 0, 0, 0, 1000, 1000, 0 }, 2, new int[6]);
+    }
+}
@@ -4,6 +4,7 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 
 import org.jcodec.api.awt.SequenceEncoder;
+import org.junit.Assert;
 import org.junit.Test;
 import org.openpnp.CameraListener;
 import org.openpnp.JobProcessorDelegate;
@@ -52,7 +53,7 @@ public class SampleJobTest {
         ReferenceMachine machine = (ReferenceMachine) Configuration.get().getMachine();
 
         NullDriver driver = (NullDriver) machine.getDriver();
-        driver.setFeedRateMmPerMinute(0);
+        driver.setVirtualTime(true);
         
         Camera camera =  machine.getDefaultHead().getDefaultCamera();
 //        File videoFile = new File("target");
@@ -82,6 +83,8 @@ public class SampleJobTest {
         if (notifier.failed) {
             throw notifier.exception;
         }
+        logger.info("Simulated job time: {} seconds", driver.getVirtualClock().getTimeSeconds());
+        Assert.assertTrue(driver.getVirtualClock().getTimeNanos() > 0);
     }
 
     public static class SampleJobTestJobProcessorDelegate implements
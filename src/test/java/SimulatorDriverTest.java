@@ -0,0 +1,117 @@
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.ReferenceHeadMountable;
+import org.openpnp.machine.reference.driver.SimulatorDriver;
+import org.openpnp.machine.reference.driver.test.SimulatorServer;
+import org.openpnp.machine.reference.driver.test.TestHeadMountable;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+
+public class SimulatorDriverTest {
+    /**
+     * Makes the same moves over the text and binary protocols and checks
+     * that the simulator sees the same thing.
+     */
+    @Test
+    public void testBinaryMatchesText() throws Exception {
+        List<String> text = runMoves(false, 1, 20);
+        List<String> binary = runMoves(true, 1, 20);
+        Assert.assertEquals(20, text.size());
+        Assert.assertEquals(text, binary);
+    }
+
+    /**
+     * Makes sure batched moves are held back until the batch fills or
+     * another command is sent, and arrive in order.
+     */
+    @Test
+    public void testBatchedMoves() throws Exception {
+        try (SimulatorServer server = new SimulatorServer()) {
+            SimulatorDriver driver = createDriver(server, true, 10);
+            try {
+                ReferenceHeadMountable hm = new Nozzle();
+                for (int i = 0; i < 25; i++) {
+                    driver.moveTo(hm, location(i), 1.0);
+                }
+                // hello, register and two full batches
+                Assert.assertEquals(4, server.getRequests());
+                Assert.assertEquals(20, server.getMoves().size());
+                driver.pick(null);
+                Assert.assertEquals(5, server.getRequests());
+                List<String> moves = server.getMoves();
+                Assert.assertEquals(25, moves.size());
+                for (int i = 0; i < 25; i++) {
+                    Assert.assertEquals(String.format("Nozzle1,%d.000,%d.500,-1.000,%d.000", i, i, i * 2), 
+                            moves.get(i));
+                }
+                driver.home(null);
+                Assert.assertEquals(1, server.getHomes());
+            }
+            finally {
+                driver.close();
+            }
+        }
+    }
+
+    /**
+     * Makes sure barrier() sends the moves held back for a batch that
+     * hasn't filled.
+     */
+    @Test
+    public void testBarrierSendsHeldMoves() throws Exception {
+        try (SimulatorServer server = new SimulatorServer()) {
+            SimulatorDriver driver = createDriver(server, true, 10);
+            try {
+                ReferenceHeadMountable hm = new Nozzle();
+                for (int i = 0; i < 3; i++) {
+                    driver.moveTo(hm, location(i), 1.0);
+                }
+                Assert.assertEquals(0, server.getMoves().size());
+                driver.barrier();
+                Assert.assertEquals(3, server.getMoves().size());
+            }
+            finally {
+                driver.close();
+            }
+        }
+    }
+
+    private static List<String> runMoves(boolean binary, int batch, int count) throws Exception {
+        try (SimulatorServer server = new SimulatorServer()) {
+            SimulatorDriver driver = createDriver(server, binary, batch);
+            try {
+                ReferenceHeadMountable hm = new Nozzle();
+                for (int i = 0; i < count; i++) {
+                    driver.moveTo(hm, location(i), 1.0);
+                }
+                driver.flushMoves();
+                return server.getMoves();
+            }
+            finally {
+                driver.close();
+            }
+        }
+    }
+
+    private static SimulatorDriver createDriver(SimulatorServer server, boolean binary, int batch) throws Exception {
+        SimulatorDriver driver = new SimulatorDriver();
+        driver.setBinaryProtocol(binary);
+        driver.setMaxBatchMoves(batch);
+        driver.connect("127.0.0.1", server.getPort());
+        driver.setEnabled(true);
+        return driver;
+    }
+
+    private static Location location(int i) {
+        return new Location(LengthUnit.Millimeters, i, i + 0.5, -1, i * 2);
+    }
+
+    private static class Nozzle extends TestHeadMountable {
+        @Override
+        public String toString() {
+            return "N1";
+        }
+    }
+}
@@ -0,0 +1,34 @@
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.driver.VirtualClock;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+
+public class VirtualClockTest {
+    @Test
+    public void testMoveSeconds() {
+        // Long enough to reach 100 mm/s at 1000 mm/s^2: 10mm to accelerate
+        // and decelerate in 0.2s, 90mm cruising in 0.9s.
+        Assert.assertEquals(1.1, VirtualClock.getMoveSeconds(100, 100, 1000), 1e-9);
+        // Too short to reach the feed rate, so a triangular profile.
+        Assert.assertEquals(2 * Math.sqrt(0.001), VirtualClock.getMoveSeconds(1, 100, 1000), 1e-9);
+        // No acceleration limit.
+        Assert.assertEquals(1.0, VirtualClock.getMoveSeconds(100, 100, 0), 1e-9);
+        Assert.assertEquals(0, VirtualClock.getMoveSeconds(0, 100, 1000), 0);
+    }
+
+    @Test
+    public void testMoveNanos() {
+        Location from = new Location(LengthUnit.Millimeters, 0, 0, 0, 0);
+        // XY dominates. 3-4-5 triangle scaled to 100mm.
+        Location to = new Location(LengthUnit.Millimeters, 60, 80, 1, Double.NaN);
+        Assert.assertEquals(1100000000L, VirtualClock.getMoveNanos(from, to, 100, 1000), 1000);
+
+        VirtualClock clock = new VirtualClock();
+        clock.advance(VirtualClock.getMoveNanos(from, to, 100, 1000));
+        clock.advanceMillis(500);
+        Assert.assertEquals(1.6, clock.getTimeSeconds(), 1e-6);
+        clock.reset();
+        Assert.assertEquals(0, clock.getTimeNanos());
+    }
+}
@@ -0,0 +1,105 @@
+package org.openpnp.machine.reference.driver.test;
+
+import java.util.Map.Entry;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Simulates FireStep: a 1K JSON input buffer and no planner to speak of.
+ * Positions are in raw steps. mov and hom are executed in full before they
+ * are answered, taking as long as the largest axis move at the requested
+ * rate in steps per second. Everything else is echoed back as if it were a
+ * configuration value that was set, except mpo, which is answered with the
+ * motor positions. A JSON array of commands is executed in order and
+ * answered once with an array of results.
+ */
+public class FireStepSimulator extends FirmwareSimulator {
+    private static final long DEFAULT_STEPS_PER_SECOND = 12800;
+
+    private final JsonParser parser = new JsonParser();
+    private volatile int movCount;
+
+    public FireStepSimulator() {
+        super(1024, 1);
+    }
+
+    @Override
+    protected void startup() throws Exception {
+        respond("FireStep 0.1.7");
+    }
+
+    @Override
+    protected boolean isMotion(String line) {
+        return line.contains("\"mov\"") || line.contains("\"hom\"");
+    }
+
+    @Override
+    protected void process(String line) throws Exception {
+        JsonElement request = parser.parse(line);
+        JsonElement response;
+        if (request.isJsonArray()) {
+            JsonArray responses = new JsonArray();
+            for (JsonElement element : request.getAsJsonArray()) {
+                responses.add(process(element.getAsJsonObject()));
+            }
+            response = responses;
+        }
+        else {
+            response = process(request.getAsJsonObject());
+        }
+        respond("{\"s\":0,\"r\":" + response + ",\"t\":0.001}");
+    }
+
+    private JsonObject process(JsonObject request) throws InterruptedException {
+        JsonObject response = new JsonObject();
+        for (Entry<String, JsonElement> entry : request.entrySet()) {
+            String key = entry.getKey();
+            if (key.equals("mov") || key.equals("hom")) {
+                move(entry.getValue().getAsJsonObject());
+                movCount++;
+            }
+            if (key.equals("mpo")) {
+                JsonObject mpo = new JsonObject();
+                for (int i = 0; i < position.length; i++) {
+                    mpo.addProperty(Integer.toString(i + 1), Math.round(position[i]));
+                }
+                response.add(key, mpo);
+                continue;
+            }
+            response.add(key, entry.getValue());
+        }
+        return response;
+    }
+
+    /**
+     * Returns the number of mov and hom commands executed.
+     */
+    public int getMovCount() {
+        return movCount;
+    }
+
+    /**
+     * Moves a motor without being told to, as if it had lost steps.
+     */
+    public void loseSteps(int motor, int steps) {
+        position[motor - 1] += steps;
+    }
+
+    private void move(JsonObject o) throws InterruptedException {
+        String[] axes = new String[] { "x", "y", "z", "a" };
+        long stepsPerSecond = o.has("mv") ? o.get("mv").getAsLong() : DEFAULT_STEPS_PER_SECOND;
+        double maxSteps = 0;
+        for (int i = 0; i < axes.length; i++) {
+            if (o.has(axes[i])) {
+                double target = o.get(axes[i]).getAsDouble();
+                maxSteps = Math.max(maxSteps, Math.abs(target - position[i]));
+                position[i] = target;
+            }
+        }
+        queueBlock((long) (maxSteps * 1e9 / stepsPerSecond));
+        waitForIdle();
+    }
+}
@@ -0,0 +1,480 @@
+package org.openpnp.machine.reference.driver.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openpnp.machine.reference.driver.SerialTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-process stand-in for motion controller firmware that a serial driver
+ * can talk to by way of AbstractSerialPortDriver.setTransport(). It models
+ * the parts of a real controller that matter for streaming performance:
+ *
+ * Bytes take time on the wire at the configured baud rate, in both
+ * directions.
+ *
+ * Incoming bytes land in an RX buffer of limited size and a line is only
+ * removed from it once the firmware is ready to process it. Bytes that
+ * arrive while the buffer is full are dropped and counted, as they would be
+ * by a UART without flow control.
+ *
+ * Motion commands go into a planner queue of limited size, and each block
+ * takes as long as a trapezoidal move at its feed rate and the configured
+ * acceleration. While the planner is full the firmware stops reading.
+ *
+ * Subclasses implement the command dialect of a particular firmware. The
+ * firmware "powers on" when a driver first connects.
+ */
+public abstract class FirmwareSimulator implements SerialTransport, Runnable {
+    private final static Logger logger = LoggerFactory
+            .getLogger(FirmwareSimulator.class);
+
+    protected int baud = 115200;
+    protected long lineProcessingMicros = 200;
+    protected double maxFeedRateMmPerMinute = 30000;
+    protected double accelerationMmPerSecond2 = 1000;
+    protected long readTimeoutMillis = 100;
+
+    private final byte[] rxBuffer;
+    private int rxHead;
+    private int rxCount;
+    private int rxOverflows;
+    private int maxRxBufferUsed;
+    private final Object rxLock = new Object();
+
+    private final Deque<Byte> txBuffer = new ArrayDeque<>();
+
+    private final int plannerSize;
+    private final Deque<Long> plannerBlockEnds = new ArrayDeque<>();
+    private long plannerEnd;
+    private int maxPlannerDepth;
+    private long totalMotionNanos;
+    private final Object plannerLock = new Object();
+
+    /**
+     * Position after the last queued block, as X, Y, Z, A.
+     */
+    protected final double[] position = new double[4];
+
+    private final List<String> commands = new ArrayList<>();
+    private Thread thread;
+    private volatile boolean closed;
+
+    public FirmwareSimulator(int rxBufferSize, int plannerSize) {
+        this.rxBuffer = new byte[rxBufferSize];
+        this.plannerSize = plannerSize;
+    }
+
+    /**
+     * Called on the firmware thread when the firmware powers on. Typically
+     * sends a startup banner.
+     */
+    protected void startup() throws Exception {
+    }
+
+    /**
+     * Returns true if the line is a motion command that needs room in the
+     * planner before it can be read out of the RX buffer.
+     */
+    protected boolean isMotion(String line) {
+        return false;
+    }
+
+    /**
+     * Processes a single line received from the host.
+     */
+    protected abstract void process(String line) throws Exception;
+
+    @Override
+    public synchronized InputStream getInputStream() {
+        start();
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                return readTx();
+            }
+        };
+    }
+
+    @Override
+    public synchronized OutputStream getOutputStream() {
+        start();
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writeRx(b, off, len);
+            }
+        };
+    }
+
+    private void start() {
+        if (thread == null) {
+            thread = new Thread(this, getClass().getSimpleName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            startup();
+            String line;
+            while ((line = peekLine()) != null) {
+                if (isMotion(line)) {
+                    waitForPlannerSpace();
+                }
+                removeLine();
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(lineProcessingMicros));
+                synchronized (commands) {
+                    commands.add(line);
+                }
+                process(line);
+            }
+        }
+        catch (InterruptedException e) {
+            // closed
+        }
+        catch (Exception e) {
+            logger.error("run()", e);
+        }
+    }
+
+    /**
+     * Sends a line to the host.
+     */
+    protected void respond(String line) {
+        byte[] bytes = (line + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        synchronized (txBuffer) {
+            wireDelay(bytes.length);
+            for (byte b : bytes) {
+                txBuffer.add(b);
+            }
+            txBuffer.notifyAll();
+        }
+    }
+
+    /**
+     * Sends a line to the host once all queued motion has finished, without
+     * holding up the firmware thread.
+     */
+    protected void respondWhenIdle(final String line) {
+        Thread t = new Thread(() -> {
+            try {
+                waitForIdle();
+                respond(line);
+            }
+            catch (InterruptedException e) {
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Queues a move to the given position. Axes that are NaN keep their
+     * current value. Blocks while the planner is full.
+     */
+    protected void queueMove(double x, double y, double z, double a,
+            double feedRateMmPerMinute) throws InterruptedException {
+        waitForPlannerSpace();
+        double[] target = new double[] { x, y, z, a };
+        double distance = 0;
+        for (int i = 0; i < target.length; i++) {
+            if (Double.isNaN(target[i])) {
+                target[i] = position[i];
+            }
+            distance += (target[i] - position[i]) * (target[i] - position[i]);
+        }
+        distance = Math.sqrt(distance);
+        System.arraycopy(target, 0, position, 0, position.length);
+        if (distance == 0) {
+            return;
+        }
+        queueBlock(getMotionNanos(distance, feedRateMmPerMinute));
+    }
+
+    /**
+     * Queues a planner block that takes the given time to execute. Blocks
+     * while the planner is full.
+     */
+    protected void queueBlock(long duration) throws InterruptedException {
+        waitForPlannerSpace();
+        synchronized (plannerLock) {
+            long start = Math.max(System.nanoTime(), plannerEnd);
+            plannerEnd = start + duration;
+            plannerBlockEnds.add(plannerEnd);
+            maxPlannerDepth = Math.max(maxPlannerDepth, plannerBlockEnds.size());
+            totalMotionNanos += duration;
+        }
+    }
+
+    /**
+     * Sets the position of the axes named in a G92 style set of words
+     * without moving. The rotation axis is named by rotationLetter.
+     */
+    protected void setPosition(Map<Character, Double> words, char rotationLetter) {
+        char[] letters = new char[] { 'X', 'Y', 'Z', rotationLetter };
+        for (int i = 0; i < letters.length; i++) {
+            if (words.containsKey(letters[i])) {
+                position[i] = words.get(letters[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the time a trapezoidal move of the given distance takes,
+     * starting and ending at rest.
+     */
+    protected long getMotionNanos(double distance, double feedRateMmPerMinute) {
+        double feedRate = feedRateMmPerMinute <= 0 ? maxFeedRateMmPerMinute
+                : Math.min(feedRateMmPerMinute, maxFeedRateMmPerMinute);
+        double v = feedRate / 60.0;
+        double a = accelerationMmPerSecond2;
+        double seconds;
+        if (distance >= v * v / a) {
+            seconds = distance / v + v / a;
+        }
+        else {
+            seconds = 2 * Math.sqrt(distance / a);
+        }
+        return (long) (seconds * 1e9);
+    }
+
+    protected void waitForPlannerSpace() throws InterruptedException {
+        while (true) {
+            long wait;
+            synchronized (plannerLock) {
+                long now = System.nanoTime();
+                while (!plannerBlockEnds.isEmpty() && plannerBlockEnds.peek() <= now) {
+                    plannerBlockEnds.poll();
+                }
+                if (plannerBlockEnds.size() < plannerSize) {
+                    return;
+                }
+                wait = plannerBlockEnds.peek() - now;
+            }
+            sleepNanos(wait);
+        }
+    }
+
+    /**
+     * Blocks until all queued motion has finished.
+     */
+    protected void waitForIdle() throws InterruptedException {
+        long wait;
+        synchronized (plannerLock) {
+            wait = plannerEnd - System.nanoTime();
+        }
+        if (wait > 0) {
+            sleepNanos(wait);
+        }
+    }
+
+    protected void sleepNanos(long nanos) throws InterruptedException {
+        TimeUnit.NANOSECONDS.sleep(nanos);
+        if (closed) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Parses the words of a G-code line into a map of letter to value,
+     * ignoring anything that isn't a number.
+     */
+    protected static Map<Character, Double> parseWords(String line) {
+        Map<Character, Double> words = new HashMap<>();
+        for (String word : line.trim().split("\\s+")) {
+            if (word.length() < 2) {
+                continue;
+            }
+            try {
+                words.put(Character.toUpperCase(word.charAt(0)),
+                        Double.parseDouble(word.substring(1)));
+            }
+            catch (NumberFormatException e) {
+                // not a numeric word
+            }
+        }
+        return words;
+    }
+
+    protected static double getWord(Map<Character, Double> words, char letter) {
+        Double value = words.get(letter);
+        return value == null ? Double.NaN : value;
+    }
+
+    private void wireDelay(int bytes) {
+        // 8N1 framing puts 10 bits on the wire per byte
+        LockSupport.parkNanos(bytes * 10L * 1000000000L / baud);
+    }
+
+    private void writeRx(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Simulator closed");
+        }
+        wireDelay(len);
+        synchronized (rxLock) {
+            for (int i = 0; i < len; i++) {
+                if (rxCount == rxBuffer.length) {
+                    rxOverflows++;
+                    continue;
+                }
+                rxBuffer[(rxHead + rxCount) % rxBuffer.length] = b[off + i];
+                rxCount++;
+            }
+            maxRxBufferUsed = Math.max(maxRxBufferUsed, rxCount);
+            rxLock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits for a complete line in the RX buffer and returns it without
+     * removing it. Blank lines are discarded. Returns null once closed.
+     */
+    private String peekLine() throws InterruptedException {
+        synchronized (rxLock) {
+            while (!closed) {
+                // Drop leading line endings
+                while (rxCount > 0 && (rxBuffer[rxHead] == '\n' || rxBuffer[rxHead] == '\r')) {
+                    rxHead = (rxHead + 1) % rxBuffer.length;
+                    rxCount--;
+                }
+                for (int i = 0; i < rxCount; i++) {
+                    byte ch = rxBuffer[(rxHead + i) % rxBuffer.length];
+                    if (ch == '\n' || ch == '\r') {
+                        byte[] line = new byte[i];
+                        for (int j = 0; j < i; j++) {
+                            line[j] = rxBuffer[(rxHead + j) % rxBuffer.length];
+                        }
+                        return new String(line, StandardCharsets.US_ASCII).trim();
+                    }
+                }
+                rxLock.wait();
+            }
+            return null;
+        }
+    }
+
+    private void removeLine() {
+        synchronized (rxLock) {
+            while (rxCount > 0) {
+                byte ch = rxBuffer[rxHead];
+                rxHead = (rxHead + 1) % rxBuffer.length;
+                rxCount--;
+                if (ch == '\n' || ch == '\r') {
+                    break;
+                }
+            }
+        }
+    }
+
+    private int readTx() throws IOException {
+        synchronized (txBuffer) {
+            long deadline = System.currentTimeMillis() + readTimeoutMillis;
+            while (txBuffer.isEmpty()) {
+                long wait = deadline - System.currentTimeMillis();
+                if (closed) {
+                    throw new IOException("Simulator closed");
+                }
+                if (wait <= 0) {
+                    throw new InterruptedIOException("Read timed out");
+                }
+                try {
+                    txBuffer.wait(wait);
+                }
+                catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            return txBuffer.poll() & 0xff;
+        }
+    }
+
+    /**
+     * Returns a copy of every line processed so far, in order.
+     */
+    public List<String> getCommands() {
+        synchronized (commands) {
+            return new ArrayList<>(commands);
+        }
+    }
+
+    /**
+     * Returns the number of bytes dropped because the RX buffer was full.
+     */
+    public int getRxOverflows() {
+        synchronized (rxLock) {
+            return rxOverflows;
+        }
+    }
+
+    public int getMaxRxBufferUsed() {
+        synchronized (rxLock) {
+            return maxRxBufferUsed;
+        }
+    }
+
+    public int getMaxPlannerDepth() {
+        synchronized (plannerLock) {
+            return maxPlannerDepth;
+        }
+    }
+
+    /**
+     * Returns the total time the simulated machine spent moving.
+     */
+    public double getTotalMotionMillis() {
+        synchronized (plannerLock) {
+            return totalMotionNanos / 1e6;
+        }
+    }
+
+    public double[] getPosition() {
+        return position.clone();
+    }
+
+    public void setBaud(int baud) {
+        this.baud = baud;
+    }
+
+    public void setAccelerationMmPerSecond2(double accelerationMmPerSecond2) {
+        this.accelerationMmPerSecond2 = accelerationMmPerSecond2;
+    }
+
+    public void setLineProcessingMicros(long lineProcessingMicros) {
+        this.lineProcessingMicros = lineProcessingMicros;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        synchronized (rxLock) {
+            rxLock.notifyAll();
+        }
+        synchronized (txBuffer) {
+            txBuffer.notifyAll();
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+}
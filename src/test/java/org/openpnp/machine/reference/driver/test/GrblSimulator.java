@@ -0,0 +1,48 @@
+package org.openpnp.machine.reference.driver.test;
+
+import java.util.Map;
+
+/**
+ * Simulates Grbl 0.9: a 128 byte serial RX buffer, an 18 block planner and
+ * an "ok" for every line once it has been accepted. G4 waits for the
+ * planner to drain before it is acknowledged.
+ */
+public class GrblSimulator extends FirmwareSimulator {
+    private double feedRateMmPerMinute;
+
+    public GrblSimulator() {
+        super(128, 18);
+    }
+
+    @Override
+    protected void startup() throws Exception {
+        respond("Grbl 0.9g ['$' for help]");
+    }
+
+    @Override
+    protected boolean isMotion(String line) {
+        return line.startsWith("G0 ") || line.startsWith("G1 ");
+    }
+
+    @Override
+    protected void process(String line) throws Exception {
+        if (line.equals("$I")) {
+            respond("[0.9g.20140905:]");
+        }
+        else if (isMotion(line)) {
+            Map<Character, Double> words = parseWords(line);
+            if (words.containsKey('F')) {
+                feedRateMmPerMinute = words.get('F');
+            }
+            queueMove(getWord(words, 'X'), getWord(words, 'Y'), getWord(words, 'Z'),
+                    getWord(words, 'C'), feedRateMmPerMinute);
+        }
+        else if (line.startsWith("G4")) {
+            waitForIdle();
+        }
+        else if (line.startsWith("G92")) {
+            setPosition(parseWords(line), 'C');
+        }
+        respond("ok");
+    }
+}
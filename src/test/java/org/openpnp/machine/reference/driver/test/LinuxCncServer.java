@@ -0,0 +1,166 @@
+package org.openpnp.machine.reference.driver.test;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A minimal stand-in for linuxcncrsh. Accepts a single connection and
+ * handles commands one at a time, the same way linuxcncrsh does. Commands
+ * are echoed until "set echo off" and "set mdi" replies are delayed by
+ * mdiDelay to emulate set_wait done. A set that succeeds is answered with
+ * ACK only once "set verbose on" has been received, and a rejected one is
+ * always answered with NAK.
+ */
+public class LinuxCncServer implements Runnable, Closeable {
+    private final static Logger logger = LoggerFactory
+            .getLogger(LinuxCncServer.class);
+
+    private final ServerSocket serverSocket;
+    private final long mdiDelay;
+    private volatile boolean verbose;
+    private final List<String> commands = new ArrayList<>();
+    private volatile String nakCommand;
+    private double x, y, z, a;
+
+    public LinuxCncServer(long mdiDelay) throws IOException {
+        this(mdiDelay, false);
+    }
+
+    /**
+     * @param mdiDelay
+     * @param verbose Whether verbose is on before the client turns it on.
+     * linuxcncrsh starts with it off.
+     * @throws IOException
+     */
+    public LinuxCncServer(long mdiDelay, boolean verbose) throws IOException {
+        this.mdiDelay = mdiDelay;
+        this.verbose = verbose;
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(this);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns a copy of every command received so far, in order.
+     */
+    public List<String> getCommands() {
+        synchronized (commands) {
+            return new ArrayList<>(commands);
+        }
+    }
+
+    /**
+     * Any command containing the given text will be answered with NAK.
+     */
+    public void setNakCommand(String nakCommand) {
+        this.nakCommand = nakCommand;
+    }
+
+    @Override
+    public void run() {
+        try (Socket socket = serverSocket.accept()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), StandardCharsets.US_ASCII));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(),
+                    StandardCharsets.US_ASCII);
+            boolean echo = true;
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                synchronized (commands) {
+                    commands.add(line);
+                }
+                if (echo) {
+                    out.write(line + "\r\n");
+                }
+                String reply = process(line);
+                if (reply != null) {
+                    out.write(reply + "\r\n");
+                }
+                out.flush();
+                if (line.equalsIgnoreCase("set echo off")) {
+                    echo = false;
+                }
+            }
+        }
+        catch (Exception e) {
+            logger.debug("run()", e);
+        }
+    }
+
+    /**
+     * Returns the reply to line, or null if linuxcncrsh would not reply.
+     */
+    private String process(String line) throws Exception {
+        String[] words = line.split("\\s+");
+        String keyword = words.length > 1 ? words[1].toUpperCase() : "";
+        if (words[0].equalsIgnoreCase("hello")) {
+            return "HELLO ACK EMCNETSVR 1.1";
+        }
+        if (words[0].equalsIgnoreCase("get")) {
+            if (keyword.equals("ABS_ACT_POS")) {
+                return String.format(Locale.US,
+                        "ABS_ACT_POS %.4f %.4f %.4f %.4f 0.0000 0.0000", x,
+                        y, z, a);
+            }
+            return keyword + " NAK";
+        }
+        if (nakCommand != null && line.contains(nakCommand)) {
+            return "SET " + keyword + " NAK";
+        }
+        if (keyword.equals("VERBOSE")) {
+            verbose = words.length > 2 && words[2].equalsIgnoreCase("on");
+        }
+        if (keyword.equals("MDI")) {
+            Thread.sleep(mdiDelay);
+            for (int i = 2; i < words.length; i++) {
+                String word = words[i].toUpperCase();
+                if (word.length() < 2) {
+                    continue;
+                }
+                switch (word.charAt(0)) {
+                    case 'X':
+                        x = Double.parseDouble(word.substring(1));
+                        break;
+                    case 'Y':
+                        y = Double.parseDouble(word.substring(1));
+                        break;
+                    case 'Z':
+                        z = Double.parseDouble(word.substring(1));
+                        break;
+                    case 'A':
+                        a = Double.parseDouble(word.substring(1));
+                        break;
+                }
+            }
+        }
+        return verbose ? "SET " + keyword + " ACK" : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
@@ -0,0 +1,55 @@
+package org.openpnp.machine.reference.driver.test;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Simulates Marlin: a 128 byte serial RX buffer, a 16 block planner and an
+ * "ok" for every line once it has been accepted. The rotation axis is
+ * driven as the extruder, E. G4 waits for the planner to drain before it is
+ * acknowledged.
+ */
+public class MarlinSimulator extends FirmwareSimulator {
+    private double feedRateMmPerMinute;
+
+    public MarlinSimulator() {
+        super(128, 16);
+    }
+
+    @Override
+    protected void startup() throws Exception {
+        respond("start");
+    }
+
+    @Override
+    protected boolean isMotion(String line) {
+        return line.startsWith("G0 ") || line.startsWith("G1 ");
+    }
+
+    @Override
+    protected void process(String line) throws Exception {
+        if (line.equals("M115")) {
+            respond("FIRMWARE_NAME:Marlin V1; Sprinter/grbl mashup for gen6 "
+                    + "PROTOCOL_VERSION:1.0 MACHINE_TYPE:Mendel EXTRUDER_COUNT:1");
+        }
+        else if (line.equals("M114")) {
+            respond(String.format(Locale.US, "X:%.2f Y:%.2f Z:%.2f E:%.2f",
+                    position[0], position[1], position[2], position[3]));
+        }
+        else if (isMotion(line)) {
+            Map<Character, Double> words = parseWords(line);
+            if (words.containsKey('F')) {
+                feedRateMmPerMinute = words.get('F');
+            }
+            queueMove(getWord(words, 'X'), getWord(words, 'Y'), getWord(words, 'Z'),
+                    getWord(words, 'E'), feedRateMmPerMinute);
+        }
+        else if (line.startsWith("G4") || line.equals("M400")) {
+            waitForIdle();
+        }
+        else if (line.startsWith("G92")) {
+            setPosition(parseWords(line), 'E');
+        }
+        respond("ok");
+    }
+}
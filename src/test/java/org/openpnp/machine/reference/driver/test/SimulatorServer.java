@@ -0,0 +1,175 @@
+package org.openpnp.machine.reference.driver.test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.openpnp.machine.reference.driver.SimulatorProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A stand-in for the SimulatorDriver's simulator. Accepts a single
+ * connection and speaks either the text protocol or the binary protocol in
+ * SimulatorProtocol, depending on the first byte the client sends. Every
+ * move is recorded as "Name,x,y,z,c" with three decimals, so the two
+ * protocols can be compared.
+ */
+public class SimulatorServer implements Runnable, Closeable {
+    private final static Logger logger = LoggerFactory
+            .getLogger(SimulatorServer.class);
+
+    private final ServerSocket serverSocket;
+    private final List<String> moves = new ArrayList<>();
+    private volatile int requests;
+    private volatile int homes;
+
+    public SimulatorServer() throws IOException {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(this);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns a copy of every move received so far, in order.
+     */
+    public List<String> getMoves() {
+        synchronized (moves) {
+            return new ArrayList<>(moves);
+        }
+    }
+
+    /**
+     * Returns the number of lines or frames that have been answered, which
+     * is the number of round trips the client made.
+     */
+    public int getRequests() {
+        return requests;
+    }
+
+    public int getHomes() {
+        return homes;
+    }
+
+    @Override
+    public void run() {
+        try (Socket socket = serverSocket.accept()) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            in.mark(1);
+            int first = in.read();
+            in.reset();
+            if (first >= 0 && first < 0x20) {
+                runBinary(in, out);
+            }
+            else {
+                runText(in, out);
+            }
+        }
+        catch (Exception e) {
+            logger.debug("run()", e);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void runText(DataInputStream in, DataOutputStream out) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] parts = line.split(",");
+            if (parts[0].equals("h")) {
+                homes++;
+            }
+            else if (parts[0].equals("m")) {
+                record(parts[1], Double.parseDouble(parts[2]), Double.parseDouble(parts[3]),
+                        Double.parseDouble(parts[4]), Double.parseDouble(parts[5]));
+            }
+            requests++;
+            out.write("ok\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+    }
+
+    private void runBinary(DataInputStream in, DataOutputStream out) throws IOException {
+        Map<Integer, String> names = new HashMap<>();
+        while (true) {
+            int type = in.read();
+            if (type == -1) {
+                return;
+            }
+            byte[] payload = new byte[in.readUnsignedShort()];
+            in.readFully(payload);
+            DataInputStream p = new DataInputStream(new ByteArrayInputStream(payload));
+            String error = null;
+            switch (type) {
+                case SimulatorProtocol.FRAME_HELLO:
+                    if (p.readUnsignedByte() != SimulatorProtocol.VERSION) {
+                        error = "Unsupported version";
+                    }
+                    break;
+                case SimulatorProtocol.FRAME_REGISTER:
+                    int id = p.readUnsignedByte();
+                    names.put(id, p.readUTF());
+                    break;
+                case SimulatorProtocol.FRAME_HOME:
+                    homes++;
+                    break;
+                case SimulatorProtocol.FRAME_MOVES:
+                    int count = p.readUnsignedShort();
+                    for (int i = 0; i < count; i++) {
+                        String name = names.get(p.readUnsignedByte());
+                        float x = p.readFloat(), y = p.readFloat(), z = p.readFloat(), c = p.readFloat();
+                        if (name == null) {
+                            error = "Unregistered movable";
+                            continue;
+                        }
+                        record(name, x, y, z, c);
+                    }
+                    break;
+                default:
+                    error = "Unknown frame " + type;
+            }
+            requests++;
+            if (error == null) {
+                out.writeByte(SimulatorProtocol.STATUS_OK);
+            }
+            else {
+                out.writeByte(SimulatorProtocol.STATUS_ERROR);
+                out.writeUTF(error);
+            }
+            out.flush();
+        }
+    }
+
+    private void record(String name, double x, double y, double z, double c) {
+        synchronized (moves) {
+            moves.add(String.format(Locale.US, "%s,%.3f,%.3f,%.3f,%.3f", name, x, y, z, c));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
@@ -12,6 +12,7 @@ import org.openpnp.machine.reference.ReferenceHead;
 import org.openpnp.machine.reference.ReferenceHeadMountable;
 import org.openpnp.machine.reference.ReferenceNozzle;
 import org.openpnp.machine.reference.ReferencePasteDispenser;
+import org.openpnp.machine.reference.driver.DriverMetrics;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
 import org.openpnp.spi.PropertySheetHolder;
@@ -30,6 +31,8 @@ public class TestDriver implements ReferenceDriver {
     
     private ReferenceDriver delegate = new TestDriverDelegate();
     
+    private final DriverMetrics metrics = new DriverMetrics();
+    
     public void setDelegate(ReferenceDriver delegate) {
         this.delegate = delegate;
     }
@@ -119,6 +122,7 @@ public class TestDriver implements ReferenceDriver {
     }
     
     public static class TestDriverDelegate implements ReferenceDriver {
+        private final DriverMetrics metrics = new DriverMetrics();
 
         @Override
         public Wizard getConfigurationWizard() {
@@ -215,6 +219,11 @@ public class TestDriver implements ReferenceDriver {
             return null;
         }
         
+        @Override
+        public DriverMetrics getMetrics() {
+            return metrics;
+        }
+
         @Override
         public void close() throws IOException {
             // TODO Auto-generated method stub
@@ -252,6 +261,11 @@ public class TestDriver implements ReferenceDriver {
         return null;
     }
     
+    @Override
+    public DriverMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public void close() throws IOException {
         // TODO Auto-generated method stub
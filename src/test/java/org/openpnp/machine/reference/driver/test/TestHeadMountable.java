@@ -0,0 +1,45 @@
+package org.openpnp.machine.reference.driver.test;
+
+import org.openpnp.machine.reference.ReferenceHeadMountable;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.spi.Head;
+
+/**
+ * A ReferenceHeadMountable with no head, for driving a driver directly.
+ */
+public class TestHeadMountable implements ReferenceHeadMountable {
+    private Location headOffsets = new Location(LengthUnit.Millimeters);
+
+    @Override
+    public Location getHeadOffsets() {
+        return headOffsets;
+    }
+
+    @Override
+    public void setHeadOffsets(Location headOffsets) {
+        this.headOffsets = headOffsets;
+    }
+
+    @Override
+    public Head getHead() {
+        return null;
+    }
+
+    @Override
+    public void setHead(Head head) {
+    }
+
+    @Override
+    public void moveTo(Location location, double speed) throws Exception {
+    }
+
+    @Override
+    public void moveToSafeZ(double speed) throws Exception {
+    }
+
+    @Override
+    public Location getLocation() {
+        return null;
+    }
+}
@@ -0,0 +1,58 @@
+package org.openpnp.machine.reference.driver.test;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Simulates TinyG 0.95 in JSON mode: a 254 byte serial RX buffer, a 28
+ * block planner, a JSON response with a footer for every line and an
+ * asynchronous status report with stat 3 when motion stops.
+ */
+public class TinygSimulator extends FirmwareSimulator {
+    private double feedRateMmPerMinute;
+    private int lineCount;
+
+    public TinygSimulator() {
+        super(254, 28);
+    }
+
+    @Override
+    protected boolean isMotion(String line) {
+        return line.startsWith("G0 ") || line.startsWith("G1 ");
+    }
+
+    @Override
+    protected void process(String line) throws Exception {
+        lineCount++;
+        if (line.startsWith("{")) {
+            if (line.contains("\"fv\"")) {
+                respond("{\"r\":{\"fv\":0.950}," + footer(0) + "}");
+            }
+            else {
+                respond("{\"r\":{}," + footer(0) + "}");
+            }
+            return;
+        }
+        if (isMotion(line)) {
+            Map<Character, Double> words = parseWords(line);
+            if (words.containsKey('F')) {
+                feedRateMmPerMinute = words.get('F');
+            }
+            queueMove(getWord(words, 'X'), getWord(words, 'Y'), getWord(words, 'Z'),
+                    getWord(words, 'A'), feedRateMmPerMinute);
+            respond("{\"r\":{\"gc\":\"" + line + "\"}," + footer(0) + "}");
+            respondWhenIdle(String.format(Locale.US,
+                    "{\"sr\":{\"posx\":%.3f,\"posy\":%.3f,\"posz\":%.3f,\"posa\":%.3f,\"stat\":3}}",
+                    position[0], position[1], position[2], position[3]));
+            return;
+        }
+        if (line.startsWith("G92")) {
+            setPosition(parseWords(line), 'A');
+        }
+        respond("{\"r\":{\"gc\":\"" + line + "\"}," + footer(0) + "}");
+    }
+
+    private String footer(int status) {
+        return "\"f\":[1," + status + "," + lineCount + ",0]";
+    }
+}